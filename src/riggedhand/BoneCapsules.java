@@ -0,0 +1,154 @@
+package riggedhand;
+
+/**
+ * Coarse proxy of a skinned hand: one capsule per bone of the joint forest,
+ * from every joint to each of its children (or a sphere for the tips), for
+ * cheap broad phase checks before querying the {@link TriangleBvh}.
+ *
+ * The radius of each capsule is the distance to its segment of the farthest
+ * point whose main influence is the joint of the capsule, so it encloses the
+ * skin it moves. Capsules follow the joints, in the coordinates of the points.
+ */
+public class BoneCapsules {
+
+    private final int[] joints;     // joint of every capsule
+    private final int[] children;   // child joint of every capsule, -1 for tips
+    private final float[] radius;
+    private final double[] segments; // start and end, 6 per capsule
+
+    /**
+     * @param mesh mesh with influences
+     * @param skinnedPoints current skinned points of the mesh
+     * @param parents parent of each joint, -1 for roots
+     * @param globalTransforms 3x4 row major matrices: current transform of each
+     * joint, in the coordinates of the points
+     */
+    public BoneCapsules(FlatMesh mesh, float[] skinnedPoints, int[] parents, double[] globalTransforms){
+        final int nJoints = parents.length;
+        int[] nChildren = new int[nJoints];
+        int n = 0;
+        for (int j = 0; j < nJoints; j++) {
+            if(parents[j] >= 0){
+                nChildren[parents[j]]++;
+                n++;
+            }
+        }
+        for (int j = 0; j < nJoints; j++) {
+            if(nChildren[j] == 0){
+                n++;
+            }
+        }
+        joints = new int[n];
+        children = new int[n];
+        radius = new float[n];
+        segments = new double[6 * n];
+        int[] first = new int[nJoints + 1];
+        for (int j = 0; j < nJoints; j++) {
+            first[j + 1] = first[j] + Math.max(1, nChildren[j]);
+        }
+        int[] next = first.clone();
+        for (int j = 0; j < nJoints; j++) {
+            if(nChildren[j] == 0){
+                joints[next[j]] = j;
+                children[next[j]++] = -1;
+            }
+            if(parents[j] >= 0){
+                joints[next[parents[j]]] = parents[j];
+                children[next[parents[j]]++] = j;
+            }
+        }
+        update(globalTransforms);
+
+        // main influence of every point, to the closest capsule of its joint
+        final int stride = mesh.influences;
+        for (int p = 0; p < mesh.getNumPoints(); p++) {
+            int main = -1;
+            float max = 0;
+            for (int k = p * stride; k < (p + 1) * stride; k++) {
+                if(mesh.influenceWeights[k] > max){
+                    max = mesh.influenceWeights[k];
+                    main = mesh.influenceJoints[k];
+                }
+            }
+            if(main < 0){
+                continue;
+            }
+            double x = skinnedPoints[3 * p], y = skinnedPoints[3 * p + 1], z = skinnedPoints[3 * p + 2];
+            int closest = first[main];
+            double min = Double.POSITIVE_INFINITY;
+            for (int c = first[main]; c < first[main + 1]; c++) {
+                double d = distance2(c, x, y, z);
+                if(d < min){
+                    min = d;
+                    closest = c;
+                }
+            }
+            radius[closest] = Math.max(radius[closest], (float)Math.sqrt(min));
+        }
+    }
+
+    public int getNumCapsules() { return joints.length; }
+
+    /**
+     * @param capsule index of the capsule
+     * @return joint that moves the capsule
+     */
+    public int getJoint(int capsule) { return joints[capsule]; }
+
+    public float getRadius(int capsule) { return radius[capsule]; }
+
+    /**
+     * @return start and end points of all the capsules, 6 per capsule
+     */
+    public double[] getSegments() { return segments; }
+
+    /**
+     * Moves the capsules with the joints
+     * @param globalTransforms 3x4 row major matrices: current transform of each joint
+     */
+    public final void update(double[] globalTransforms){
+        for (int c = 0; c < joints.length; c++) {
+            int a = 12 * joints[c], b = 12 * (children[c] >= 0 ? children[c] : joints[c]);
+            segments[6 * c] = globalTransforms[a + 3];
+            segments[6 * c + 1] = globalTransforms[a + 7];
+            segments[6 * c + 2] = globalTransforms[a + 11];
+            segments[6 * c + 3] = globalTransforms[b + 3];
+            segments[6 * c + 4] = globalTransforms[b + 7];
+            segments[6 * c + 5] = globalTransforms[b + 11];
+        }
+    }
+
+    /**
+     * @return first capsule that intersects the sphere, or -1 if none does
+     */
+    public int intersectSphere(double cx, double cy, double cz, double r){
+        for (int c = 0; c < joints.length; c++) {
+            double d = r + radius[c];
+            if(radius[c] > 0 && distance2(c, cx, cy, cz) <= d * d){
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the sphere is close enough to the hand to query its triangles
+     */
+    public boolean intersectsSphere(double cx, double cy, double cz, double r){
+        return intersectSphere(cx, cy, cz, r) >= 0;
+    }
+
+    /*
+    Squared distance from a point to the segment of a capsule
+    */
+    private double distance2(int c, double x, double y, double z){
+        int s = 6 * c;
+        double ax = segments[s], ay = segments[s + 1], az = segments[s + 2];
+        double abx = segments[s + 3] - ax, aby = segments[s + 4] - ay, abz = segments[s + 5] - az;
+        double apx = x - ax, apy = y - ay, apz = z - az;
+        double len2 = abx * abx + aby * aby + abz * abz;
+        double t = len2 > 0 ? Math.max(0, Math.min(1, (apx * abx + apy * aby + apz * abz) / len2)) : 0;
+        double dx = apx - t * abx, dy = apy - t * aby, dz = apz - t * abz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -0,0 +1,161 @@
+package riggedhand;
+
+import java.util.Arrays;
+
+/**
+ * Skinned triangle mesh stored in flat primitive arrays, with the same layout
+ * as {@link javafx.scene.shape.TriangleMesh}, so it can be handed to JavaFX
+ * without conversions:
+ *
+ * - points: x, y, z per point
+ * - texCoords: u, v per texture coordinate (at least one)
+ * - faces: 6 ints per triangle: point, texCoord, point, texCoord, point, texCoord
+ * - normals: x, y, z per normal, and faceNormals: 3 normal indices per triangle,
+ *   used at import time to compute the smoothing groups, and by
+ *   {@link VertexNormals} to skin them
+ * - faceSmoothingGroups: one int per triangle
+ * - influences: fixed number of (joint, weight) pairs per point, unused ones
+ *   with weight 0
+ * - morphTargets: sparse offsets of the points, null if the model has none
+ */
+public class FlatMesh {
+
+    public static final int POINT_SIZE = 3;
+    public static final int TEXCOORD_SIZE = 2;
+    public static final int FACE_SIZE = 6;
+
+    public float[] points;
+    public float[] texCoords;
+    public int[] faces;
+    public float[] normals;
+    public int[] faceNormals;
+    public int[] faceSmoothingGroups;
+    public int influences;
+    public int[] influenceJoints;
+    public float[] influenceWeights;
+    public MorphTargets morphTargets;
+    private SubdivisionStencils[] subdivisions = new SubdivisionStencils[0];
+    private VertexNormals vertexNormals;
+
+    public FlatMesh(int nPoints, int nTexCoords, int nFaces, int influences){
+        points = new float[POINT_SIZE * nPoints];
+        texCoords = new float[TEXCOORD_SIZE * Math.max(1, nTexCoords)];
+        faces = new int[FACE_SIZE * nFaces];
+        faceNormals = new int[3 * nFaces];
+        faceSmoothingGroups = new int[nFaces];
+        this.influences = influences;
+        influenceJoints = new int[influences * nPoints];
+        influenceWeights = new float[influences * nPoints];
+    }
+
+    public int getNumPoints() { return points.length / POINT_SIZE; }
+
+    public int getNumFaces() { return faces.length / FACE_SIZE; }
+
+    /**
+     * Linear blend skinning of the points of the mesh
+     * @param palette 3x4 row major matrix per joint: global transform times bind transform
+     * @param target skinned points
+     */
+    public void skin(double[] palette, float[] target){
+        skin(points, palette, target);
+    }
+
+    /**
+     * Linear blend skinning of other points with the influences of the mesh,
+     * like the points with the morph targets blended
+     * @param source points to skin, as many as the points of the mesh
+     * @param palette 3x4 row major matrix per joint: global transform times bind transform
+     * @param target skinned points
+     */
+    public void skin(float[] source, double[] palette, float[] target){
+        final int nPoints = points.length / POINT_SIZE;
+        for (int p = 0; p < nPoints; p++) {
+            double px = source[3 * p], py = source[3 * p + 1], pz = source[3 * p + 2];
+            double x = 0, y = 0, z = 0;
+            for (int k = p * influences, end = k + influences; k < end; k++) {
+                float w = influenceWeights[k];
+                if(w == 0f){
+                    continue;
+                }
+                int m = 12 * influenceJoints[k];
+                x += w * (palette[m] * px + palette[m + 1] * py + palette[m + 2] * pz + palette[m + 3]);
+                y += w * (palette[m + 4] * px + palette[m + 5] * py + palette[m + 6] * pz + palette[m + 7]);
+                z += w * (palette[m + 8] * px + palette[m + 9] * py + palette[m + 10] * pz + palette[m + 11]);
+            }
+            target[3 * p] = (float)x;
+            target[3 * p + 1] = (float)y;
+            target[3 * p + 2] = (float)z;
+        }
+    }
+
+    /**
+     * Stencils of a subdivision level, built on first use and shared by every
+     * skinning mesh of this mesh, so the mesh must not change once they are
+     * built
+     * @param level subdivision level, 1 or more
+     * @return stencils, faces and texture coordinates of the subdivided mesh
+     */
+    public synchronized SubdivisionStencils getSubdivision(int level){
+        if(level >= subdivisions.length){
+            subdivisions = Arrays.copyOf(subdivisions, level + 1);
+        }
+        if(subdivisions[level] == null){
+            subdivisions[level] = SubdivisionStencils.build(this, level, SubdivisionStencils.BoundaryMode.CREASE_EDGES);
+        }
+        return subdivisions[level];
+    }
+
+    /**
+     * Imported normals by point, built on first use and shared by every
+     * skinning mesh of this mesh, so the mesh must not change once they are
+     * built
+     * @return the normals, or null if the mesh has none
+     */
+    public synchronized VertexNormals getVertexNormals(){
+        if(vertexNormals == null){
+            vertexNormals = VertexNormals.build(this);
+        }
+        return vertexNormals;
+    }
+
+    /**
+     * @return estimated heap used by the arrays of this mesh, and the
+     * subdivision stencils and vertex normals built so far, in bytes
+     */
+    public synchronized long estimateBytes(){
+        long bytes = arrayBytes(points.length) + arrayBytes(texCoords.length) + arrayBytes(faces.length) +
+               arrayBytes(normals != null ? normals.length : 0) + arrayBytes(faceNormals.length) +
+               arrayBytes(faceSmoothingGroups.length) + arrayBytes(influenceJoints.length) +
+               arrayBytes(influenceWeights.length) + (morphTargets != null ? morphTargets.estimateBytes() : 0);
+        for (SubdivisionStencils subdivision : subdivisions) {
+            bytes += subdivision != null ? subdivision.estimateBytes() : 0;
+        }
+        bytes += vertexNormals != null ? vertexNormals.estimateBytes() : 0;
+        return bytes;
+    }
+
+    /**
+     * @param nJoints number of joints
+     * @return estimated heap used by the same mesh as PolygonMesh and SkinningMesh
+     * keep it: one array per face for points and normals indices, and weights and
+     * relative points for every joint and point
+     */
+    public long estimateNestedBytes(int nJoints){
+        final int nFaces = getNumFaces();
+        final int nPoints = getNumPoints();
+        return arrayBytes(points.length) + arrayBytes(texCoords.length) +
+               arrayBytes(normals != null ? normals.length : 0) + arrayBytes(faceSmoothingGroups.length) +
+               2 * arrayBytes(nFaces) + nFaces * (arrayBytes(FACE_SIZE) + arrayBytes(3)) +
+               arrayBytes(nJoints) + nJoints * arrayBytes(nPoints) +
+               arrayBytes(nJoints) + nJoints * arrayBytes(POINT_SIZE * nPoints);
+    }
+
+    /**
+     * @param length number of 4 bytes elements
+     * @return estimated heap used by an array: 16 bytes header, 8 bytes aligned
+     */
+    static long arrayBytes(long length){
+        return (16 + 4 * length + 7) & ~7L;
+    }
+}
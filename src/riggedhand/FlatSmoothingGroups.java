@@ -0,0 +1,163 @@
+package riggedhand;
+
+import java.util.Arrays;
+
+/**
+ * Smoothing groups for flat triangle meshes, with the same rules as the 3DViewer
+ * SmoothingGroups, but working on the flat arrays of {@link FlatMesh} instead of
+ * one small array per face, and with sorted primitive arrays instead of maps
+ * of edges.
+ *
+ * An edge shared by two faces is smooth if the normals of both faces are equal
+ * at both ends. Faces connected by smooth edges form a component, and every
+ * component gets a smoothing group bit different from the bits of the
+ * components next to it.
+ */
+public class FlatSmoothingGroups {
+
+    private static final float NORMAL_ANGLE = 0.9994f; // cos(2 degrees)
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    /**
+     * @param faces 6 ints per face: point, texCoord, point, texCoord, point, texCoord
+     * @param faceNormals 3 normal indices per face
+     * @param normals x, y, z per normal
+     * @return smoothing group of every face
+     */
+    public static int[] calcSmoothGroups(int[] faces, int[] faceNormals, float[] normals){
+        final int nFaces = faces.length / FlatMesh.FACE_SIZE;
+        final int nEdges = 3 * nFaces;
+        if(nEdges > MASK){
+            throw new IllegalArgumentException("Too many faces: " + nFaces);
+        }
+        // (lower point, higher point, face edge), sorted to find shared edges
+        long[] edges = new long[nEdges];
+        for (int e = 0; e < nEdges; e++) {
+            int a = point(faces, e / 3, e % 3);
+            int b = point(faces, e / 3, (e + 1) % 3);
+            if(Math.max(a, b) > MASK){
+                throw new IllegalArgumentException("Too many points: " + Math.max(a, b));
+            }
+            edges[e] = ((long)Math.min(a, b) << (2 * BITS)) | ((long)Math.max(a, b) << BITS) | e;
+        }
+        Arrays.sort(edges);
+
+        int[] parent = new int[nFaces];
+        for (int f = 0; f < nFaces; f++) {
+            parent[f] = f;
+        }
+        for (int i = 0; i < nEdges; ) {
+            int j = next(edges, i);
+            if(j - i == 2){
+                int e1 = (int)(edges[i] & MASK), e2 = (int)(edges[i + 1] & MASK);
+                int a = (int)(edges[i] >>> (2 * BITS)), b = (int)((edges[i] >>> BITS) & MASK);
+                if(isSmooth(faces, faceNormals, normals, e1 / 3, e2 / 3, a) &&
+                   isSmooth(faces, faceNormals, normals, e1 / 3, e2 / 3, b)){
+                    union(parent, e1 / 3, e2 / 3);
+                }
+            }
+            i = j;
+        }
+
+        // components, numbered in order of their first face
+        int[] component = new int[nFaces];
+        int nComponents = 0;
+        int[] label = new int[nFaces];
+        Arrays.fill(label, -1);
+        for (int f = 0; f < nFaces; f++) {
+            int root = find(parent, f);
+            if(label[root] < 0){
+                label[root] = nComponents++;
+            }
+            component[f] = label[root];
+        }
+
+        // neighbour components: sorted (component, neighbour) pairs
+        long[] pairs = new long[2 * nEdges];
+        int nPairs = 0;
+        for (int i = 0; i < nEdges; ) {
+            int j = next(edges, i);
+            for (int k = i; k < j; k++) {
+                for (int l = k + 1; l < j; l++) {
+                    int c1 = component[(int)(edges[k] & MASK) / 3];
+                    int c2 = component[(int)(edges[l] & MASK) / 3];
+                    if(c1 != c2){
+                        if(nPairs + 2 > pairs.length){
+                            pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+                        }
+                        pairs[nPairs++] = ((long)c1 << 32) | c2;
+                        pairs[nPairs++] = ((long)c2 << 32) | c1;
+                    }
+                }
+            }
+            i = j;
+        }
+        Arrays.sort(pairs, 0, nPairs);
+
+        // greedy colouring with the 32 available bits, 0 (no smoothing) if none left
+        int[] groups = new int[nComponents];
+        for (int c = 0, p = 0; c < nComponents; c++) {
+            int used = 0;
+            for (; p < nPairs && (int)(pairs[p] >>> 32) == c; p++) {
+                int neighbour = (int)pairs[p];
+                if(neighbour < c){
+                    used |= groups[neighbour];
+                }
+            }
+            groups[c] = Integer.lowestOneBit(~used);
+        }
+        int[] smGroups = new int[nFaces];
+        for (int f = 0; f < nFaces; f++) {
+            smGroups[f] = groups[component[f]];
+        }
+        return smGroups;
+    }
+
+    private static int point(int[] faces, int face, int corner){
+        return faces[FlatMesh.FACE_SIZE * face + 2 * corner];
+    }
+
+    private static int next(long[] edges, int i){
+        long key = edges[i] >>> BITS;
+        int j = i + 1;
+        while(j < edges.length && (edges[j] >>> BITS) == key){
+            j++;
+        }
+        return j;
+    }
+
+    private static boolean isSmooth(int[] faces, int[] faceNormals, float[] normals, int f1, int f2, int point){
+        int n1 = normal(faces, faceNormals, f1, point);
+        int n2 = normal(faces, faceNormals, f2, point);
+        if(n1 == n2){
+            return true;
+        }
+        double x1 = normals[3 * n1], y1 = normals[3 * n1 + 1], z1 = normals[3 * n1 + 2];
+        double x2 = normals[3 * n2], y2 = normals[3 * n2 + 1], z2 = normals[3 * n2 + 2];
+        double dot = x1 * x2 + y1 * y2 + z1 * z2;
+        double length = Math.sqrt((x1 * x1 + y1 * y1 + z1 * z1) * (x2 * x2 + y2 * y2 + z2 * z2));
+        return length > 0 && dot / length >= NORMAL_ANGLE;
+    }
+
+    private static int normal(int[] faces, int[] faceNormals, int face, int point){
+        for (int c = 0; c < 3; c++) {
+            if(point(faces, face, c) == point){
+                return faceNormals[3 * face + c];
+            }
+        }
+        throw new IllegalStateException("Point " + point + " not in face " + face);
+    }
+
+    private static int find(int[] parent, int f){
+        while(parent[f] != f){
+            parent[f] = parent[parent[f]];
+            f = parent[f];
+        }
+        return f;
+    }
+
+    private static void union(int[] parent, int f1, int f2){
+        parent[find(parent, f1)] = find(parent, f2);
+    }
+}
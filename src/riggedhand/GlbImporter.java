@@ -0,0 +1,476 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javafx.geometry.Point3D;
+import javafx.scene.Parent;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
+import javafx.scene.transform.Affine;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.spi.JsonProvider;
+import utils.Axes;
+
+/**
+ * GlbImporter imports skinned meshes in binary glTF 2.0 format (GLB)
+ * https://github.com/KhronosGroup/glTF/tree/master/specification/2.0
+ * and converts them into a Skinning Mesh, over a flat triangle mesh
+ *
+ * The binary chunk is memory mapped (or read once if the resource is in a jar),
+ * and the POSITION, NORMAL, TEXCOORD_0, JOINTS_0, WEIGHTS_0 and
+ * inverseBindMatrices accessors, and the POSITION of the morph targets, are
+ * read as typed views over it, without text parsing. Only the first primitive of the first mesh, with its first skin, is
+ * imported. Transforms of non joint ancestors of the skeleton are ignored.
+ */
+public class GlbImporter implements HandModelImporter {
+
+    private static final int GLB_MAGIC = 0x46546C67;
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+
+    private static final int UNSIGNED_BYTE = 5121;
+    private static final int UNSIGNED_SHORT = 5123;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int FLOAT = 5126;
+
+    private final String nameFile;
+    private final List<Parent> jointForest = new ArrayList<>();
+    private MeshView skinningMeshView;
+
+    private final boolean debug=true;
+    private boolean optimize=true;
+    private final boolean skeletal;
+    private final boolean axes;
+
+    /**
+     * @param nameFile file with GLB format, in resources
+     * @param skeletal hide or show bones(joints)
+     * @param axes hide or show local coordinate systems on joints
+     */
+    public GlbImporter(String nameFile, boolean skeletal, boolean axes){
+        this.nameFile=nameFile;
+        this.skeletal=skeletal;
+        this.axes=axes;
+    }
+
+    @Override
+    public void readModel(float scale){
+        long time = System.nanoTime();
+        long heap = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+
+        ByteBuffer glb;
+        try {
+            glb = load(GlbImporter.class.getResource("/resources/"+nameFile));
+        } catch (IOException | URISyntaxException | NullPointerException ex) {
+            System.out.println("Error: "+ex);
+            return;
+        }
+        glb.order(ByteOrder.LITTLE_ENDIAN);
+        if(glb.getInt(0)!=GLB_MAGIC || glb.getInt(4)!=2){
+            System.out.println("Error: "+nameFile+" is not a glTF 2.0 binary file");
+            return;
+        }
+        JsonObject gltf = null;
+        ByteBuffer bin = null;
+        for(int chunk=12; chunk+8<=glb.limit(); ){
+            int length = glb.getInt(chunk);
+            ByteBuffer data = slice(glb, chunk+8, length);
+            if(glb.getInt(chunk+4)==CHUNK_JSON){
+                gltf = JsonProvider.provider().createReader(
+                        new StringReader(StandardCharsets.UTF_8.decode(data).toString())).readObject();
+            } else if(glb.getInt(chunk+4)==CHUNK_BIN){
+                bin = data;
+            }
+            chunk += 8+length;
+        }
+        if(gltf==null || bin==null){
+            System.out.println("Error: "+nameFile+" needs JSON and BIN chunks");
+            return;
+        }
+
+        JsonObject gltfMesh = gltf.getJsonArray("meshes").getJsonObject(0);
+        JsonObject primitive = gltfMesh.getJsonArray("primitives").getJsonObject(0);
+        JsonObject attributes = primitive.getJsonObject("attributes");
+        Accessor positions = accessor(gltf, bin, attributes.getInt("POSITION"));
+        Accessor normals = attributes.containsKey("NORMAL") ? accessor(gltf, bin, attributes.getInt("NORMAL")) : null;
+        Accessor uvs = attributes.containsKey("TEXCOORD_0") ? accessor(gltf, bin, attributes.getInt("TEXCOORD_0")) : null;
+        Accessor skinIndices = accessor(gltf, bin, attributes.getInt("JOINTS_0"));
+        Accessor skinWeights = accessor(gltf, bin, attributes.getInt("WEIGHTS_0"));
+        Accessor indices = primitive.containsKey("indices") ? accessor(gltf, bin, primitive.getInt("indices")) : null;
+        if(primitive.getInt("mode", 4)!=4){
+            System.out.println("Error: only triangle primitives are supported");
+            return;
+        }
+
+        final int nPoints = positions.count;
+        final int facesNumber = (indices!=null ? indices.count : nPoints)/3;
+        if(debug){
+            System.out.println("vertices = " + nPoints);
+            System.out.println("faces = " + facesNumber);
+            System.out.println("uvs = " + (uvs!=null ? uvs.count : 0));
+            System.out.println("normals = " + (normals!=null ? normals.count : 0));
+        }
+
+        FlatMesh mesh = new FlatMesh(nPoints, uvs!=null ? uvs.count : 1, facesNumber, skinIndices.components);
+        for (int i = 0; i < nPoints; i++) {
+            for (int j = 0; j < 3; j++) {
+                mesh.points[3*i+j] = scale*positions.getFloat(i, j);
+            }
+        }
+        if(primitive.containsKey("targets")){
+            mesh.morphTargets = readMorphTargets(gltf, bin, gltfMesh, primitive, nPoints, scale);
+        }
+        if(uvs!=null){
+            for (int i = 0; i < uvs.count; i++) {
+                mesh.texCoords[2*i] = uvs.getFloat(i, 0);
+                mesh.texCoords[2*i+1] = uvs.getFloat(i, 1);
+            }
+        }
+
+        for (int i = 0; i < 3*facesNumber; i++) {
+            int v = indices!=null ? indices.getInt(i, 0) : i;
+            mesh.faces[2*i] = v;
+            mesh.faces[2*i+1] = uvs!=null ? v : 0;
+            mesh.faceNormals[i] = v;
+        }
+        if(normals!=null){
+            mesh.normals = new float[3*normals.count];
+            for (int i = 0; i < normals.count; i++) {
+                for (int j = 0; j < 3; j++) {
+                    mesh.normals[3*i+j] = normals.getFloat(i, j);
+                }
+            }
+        }
+
+        JsonObject skin = gltf.getJsonArray("skins").getJsonObject(0);
+        JsonArray skinJoints = skin.getJsonArray("joints");
+        JsonArray nodes = gltf.getJsonArray("nodes");
+        final int nJoints = skinJoints.size();
+        int[] nodeToJoint = new int[nodes.size()];
+        Arrays.fill(nodeToJoint, -1);
+        for (int i = 0; i < nJoints; i++) {
+            nodeToJoint[skinJoints.getInt(i)] = i;
+        }
+
+        List<Joint> joints = new ArrayList<>(nJoints);
+        for (int i = 0; i < nJoints; i++) {
+            JsonObject node = nodes.getJsonObject(skinJoints.getInt(i));
+            Joint joint = new Joint();
+            String name = node.getString("name", "joint"+i);
+            if(debug){
+                System.out.println("name = " + name);
+            }
+            joint.setId(name);
+            JsonArray t = node.getJsonArray("translation");
+            if(t!=null){
+                joint.t.setX(scale*t.getJsonNumber(0).doubleValue());
+                joint.t.setY(scale*t.getJsonNumber(1).doubleValue());
+                joint.t.setZ(scale*t.getJsonNumber(2).doubleValue());
+            }
+            JsonArray r = node.getJsonArray("rotation");
+            if(r!=null){
+                double w = Math.max(-1d, Math.min(1d, r.getJsonNumber(3).doubleValue()));
+                double s = Math.sqrt(1d-w*w);
+                if(s>1e-6){
+                    joint.jox.setAxis(new Point3D(r.getJsonNumber(0).doubleValue()/s,
+                            r.getJsonNumber(1).doubleValue()/s, r.getJsonNumber(2).doubleValue()/s));
+                    joint.jox.setAngle(Math.toDegrees(2d*Math.acos(w)));
+                }
+            }
+            JsonArray s = node.getJsonArray("scale");
+            if(s!=null){
+                joint.s.setX(s.getJsonNumber(0).doubleValue());
+                joint.s.setY(s.getJsonNumber(1).doubleValue());
+                joint.s.setZ(s.getJsonNumber(2).doubleValue());
+            }
+            joints.add(joint);
+        }
+        boolean[] hasParent = new boolean[nJoints];
+        for (int i = 0; i < nJoints; i++) {
+            JsonArray children = nodes.getJsonObject(skinJoints.getInt(i)).getJsonArray("children");
+            if(children==null){
+                continue;
+            }
+            Joint parent = joints.get(i);
+            for (int c = 0; c < children.size(); c++) {
+                int child = nodeToJoint[children.getInt(c)];
+                if(child<0){
+                    continue;
+                }
+                Joint joint = joints.get(child);
+                hasParent[child] = true;
+                if(axes){
+                    joint.getChildren().add(new Axes(0.02));
+                }
+                parent.getChildren().add(joint);
+                if(skeletal){
+                    parent.getChildren().add(new Bone(0.02,new Point3D(joint.t.getX(), joint.t.getY(), joint.t.getZ())));
+                }
+            }
+        }
+        for (int i = 0; i < nJoints; i++) {
+            if(!hasParent[i]){
+                if(axes){
+                    joints.get(i).getChildren().add(new Axes(0.04));
+                }
+                jointForest.add(joints.get(i));
+            }
+        }
+
+        // column major 4x4 matrices
+        Affine[] bindTransforms = new Affine[nJoints];
+        Accessor inverseBind = skin.containsKey("inverseBindMatrices") ?
+                accessor(gltf, bin, skin.getInt("inverseBindMatrices")) : null;
+        for (int i = 0; i < nJoints; i++) {
+            if(inverseBind==null){
+                bindTransforms[i] = new Affine();
+                continue;
+            }
+            bindTransforms[i] = new Affine(
+                    inverseBind.getFloat(i, 0), inverseBind.getFloat(i, 4), inverseBind.getFloat(i, 8), scale*inverseBind.getFloat(i, 12),
+                    inverseBind.getFloat(i, 1), inverseBind.getFloat(i, 5), inverseBind.getFloat(i, 9), scale*inverseBind.getFloat(i, 13),
+                    inverseBind.getFloat(i, 2), inverseBind.getFloat(i, 6), inverseBind.getFloat(i, 10), scale*inverseBind.getFloat(i, 14));
+        }
+
+        final int SKIN = mesh.influences;
+        for (int p = 0; p < nPoints; p++) {
+            float total = 0;
+            for (int k = 0; k < SKIN; k++) {
+                float w = skinWeights.getFloat(p, k);
+                if(w>0){
+                    mesh.influenceJoints[SKIN*p+k] = skinIndices.getInt(p, k);
+                    mesh.influenceWeights[SKIN*p+k] = w;
+                    total += w;
+                }
+            }
+            if(total>0 && Math.abs(total-1)>1e-6){
+                for (int k = 0; k < SKIN; k++) {
+                    mesh.influenceWeights[SKIN*p+k] /= total;
+                }
+            }
+        }
+        if(debug){
+            System.out.println("flat mesh = " + mesh.estimateBytes()/1024 + " KB, with per face arrays = " + 
+                    mesh.estimateNestedBytes(nJoints)/1024 + " KB");
+        }
+        if(mesh.morphTargets!=null){
+            mesh.morphTargets.addDriversByName(joints.stream().map(Joint::getId).toArray(String[]::new), 0f, 90f);
+        }
+        if(optimize){
+            MeshOptimizer optimizer = MeshOptimizer.optimize(mesh, nJoints, false);
+            if(debug){
+                System.out.println(optimizer);
+            }
+        }
+        if(mesh.normals!=null){
+            mesh.faceSmoothingGroups = FlatSmoothingGroups.calcSmoothGroups(mesh.faces, mesh.faceNormals, mesh.normals);
+        } else {
+            Arrays.fill(mesh.faceSmoothingGroups, 1);
+        }
+
+        HandSkinningMesh skinningMesh = new HandSkinningMesh(mesh, bindTransforms, joints);
+        skinningMeshView = new MeshView(skinningMesh);
+        PhongMaterial phongMaterial = new PhongMaterial();
+        phongMaterial.setDiffuseColor(Color.SANDYBROWN);
+        skinningMeshView.setMaterial(phongMaterial);
+        if(skeletal){
+            skinningMeshView.setDrawMode(DrawMode.LINE);
+        }
+        skinningMeshView.setCullFace(CullFace.BACK);
+
+        if(debug){
+            System.out.println("import time = " + (System.nanoTime()-time)/1_000_000 + " ms, heap = " +
+                    (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory()-heap)/1024 + " KB");
+        }
+    }
+
+    @Override
+    public void setOptimize(boolean optimize) { this.optimize=optimize; }
+
+    @Override
+    public MeshView getSkinningMeshView() { return skinningMeshView; }
+
+    @Override
+    public List<Parent> getJointForest() { return jointForest; }
+
+    /*
+    Maps the file, or reads it once if it's not in the file system
+    */
+    private static ByteBuffer load(URL url) throws IOException, URISyntaxException {
+        if("file".equals(url.getProtocol())){
+            try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        try (InputStream stream = url.openStream()) {
+            byte[] bytes = new byte[8192];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            for(int n; (n = stream.read(bytes)) > 0; ){
+                if(buffer.remaining() < n){
+                    ByteBuffer larger = ByteBuffer.allocateDirect(2*buffer.capacity());
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                buffer.put(bytes, 0, n);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length){
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset+length).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static Accessor accessor(JsonObject gltf, ByteBuffer bin, int index){
+        JsonObject accessor = gltf.getJsonArray("accessors").getJsonObject(index);
+        JsonObject view = gltf.getJsonArray("bufferViews").getJsonObject(accessor.getInt("bufferView"));
+        int componentType = accessor.getInt("componentType");
+        int components;
+        switch(accessor.getString("type")){
+            case "SCALAR": components = 1; break;
+            case "VEC2": components = 2; break;
+            case "VEC3": components = 3; break;
+            case "VEC4": components = 4; break;
+            case "MAT4": components = 16; break;
+            default: throw new IllegalArgumentException("Unsupported accessor type: " + accessor.getString("type"));
+        }
+        return view(gltf, bin, accessor.getInt("bufferView"), accessor.getInt("byteOffset", 0),
+                accessor.getInt("count"), components, componentType, accessor.getBoolean("normalized", false));
+    }
+
+    private static Accessor view(JsonObject gltf, ByteBuffer bin, int index, int byteOffset, int count,
+                                 int components, int componentType, boolean normalized){
+        JsonObject view = gltf.getJsonArray("bufferViews").getJsonObject(index);
+        int size = componentType==FLOAT || componentType==UNSIGNED_INT ? 4 : componentType==UNSIGNED_SHORT ? 2 : 1;
+        int stride = view.getInt("byteStride", components*size);
+        int offset = view.getInt("byteOffset", 0) + byteOffset;
+        return new Accessor(slice(bin, offset, view.getInt("byteLength") - byteOffset),
+                count, components, size, stride, componentType, normalized);
+    }
+
+    /*
+    POSITION offsets of the morph targets of the primitive. Sparse accessors
+    are read as they are, without expanding them to every vertex
+    */
+    private MorphTargets readMorphTargets(JsonObject gltf, ByteBuffer bin, JsonObject gltfMesh, JsonObject primitive,
+                                          int nPoints, float scale){
+        JsonArray targets = primitive.getJsonArray("targets");
+        JsonObject extras = gltfMesh.getJsonObject("extras");
+        JsonArray names = extras!=null ? extras.getJsonArray("targetNames") : null;
+        JsonArray weights = gltfMesh.getJsonArray("weights");
+        MorphTargets morphTargets = new MorphTargets();
+        float[] dense = new float[3*nPoints];
+        for (int t = 0; t < targets.size(); t++) {
+            String name = names!=null && t<names.size() ? names.getString(t) : "morph"+t;
+            if(!targets.getJsonObject(t).containsKey("POSITION")){
+                morphTargets.addTarget(name, new int[0], new float[0], 0);
+                continue;
+            }
+            JsonObject accessor = gltf.getJsonArray("accessors").getJsonObject(targets.getJsonObject(t).getInt("POSITION"));
+            JsonObject sparse = accessor.getJsonObject("sparse");
+            int count = sparse!=null ? sparse.getInt("count") : 0;
+            int[] points = new int[count];
+            float[] offsets = new float[3*count];
+            if(sparse!=null){
+                JsonObject sparseIndices = sparse.getJsonObject("indices");
+                JsonObject sparseValues = sparse.getJsonObject("values");
+                Accessor indices = view(gltf, bin, sparseIndices.getInt("bufferView"), sparseIndices.getInt("byteOffset", 0),
+                        count, 1, sparseIndices.getInt("componentType"), false);
+                Accessor values = view(gltf, bin, sparseValues.getInt("bufferView"), sparseValues.getInt("byteOffset", 0),
+                        count, 3, FLOAT, false);
+                for (int i = 0; i < count; i++) {
+                    points[i] = indices.getInt(i, 0);
+                    for (int j = 0; j < 3; j++) {
+                        offsets[3*i+j] = scale*values.getFloat(i, j);
+                    }
+                }
+            }
+            if(!accessor.containsKey("bufferView")){
+                morphTargets.addTarget(name, points, offsets, count);
+            } else {
+                // dense, maybe with sparse substitutions
+                Accessor positions = accessor(gltf, bin, targets.getJsonObject(t).getInt("POSITION"));
+                for (int i = 0; i < nPoints; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        dense[3*i+j] = scale*positions.getFloat(i, j);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(offsets, 3*i, dense, 3*points[i], 3);
+                }
+                morphTargets.addTarget(name, dense);
+            }
+            if(weights!=null && t<weights.size()){
+                morphTargets.setWeight(t, (float)weights.getJsonNumber(t).doubleValue());
+            }
+            if(debug){
+                System.out.println("morph target " + name + ", vertices = " + morphTargets.getNumPoints(t));
+            }
+        }
+        return morphTargets;
+    }
+
+    /*
+    Typed view of an accessor over the binary chunk
+    */
+    private static class Accessor {
+        private final ByteBuffer data;
+        private final int count;
+        private final int components;
+        private final int size;
+        private final int stride;
+        private final int componentType;
+        private final boolean normalized;
+
+        Accessor(ByteBuffer data, int count, int components, int size, int stride, int componentType, boolean normalized){
+            this.data = data;
+            this.count = count;
+            this.components = components;
+            this.size = size;
+            this.stride = stride;
+            this.componentType = componentType;
+            this.normalized = normalized;
+        }
+
+        float getFloat(int element, int component){
+            int offset = element*stride + component*size;
+            switch(componentType){
+                case FLOAT: return data.getFloat(offset);
+                case UNSIGNED_BYTE: return normalized ? (data.get(offset) & 0xff)/255f : data.get(offset) & 0xff;
+                case UNSIGNED_SHORT: return normalized ? (data.getShort(offset) & 0xffff)/65535f : data.getShort(offset) & 0xffff;
+                default: return data.getInt(offset);
+            }
+        }
+
+        int getInt(int element, int component){
+            int offset = element*stride + component*size;
+            switch(componentType){
+                case UNSIGNED_BYTE: return data.get(offset) & 0xff;
+                case UNSIGNED_SHORT: return data.getShort(offset) & 0xffff;
+                case UNSIGNED_INT: return data.getInt(offset);
+                default: return (int)data.getFloat(offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javafx.geometry.Point3D;
+import javafx.scene.Parent;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
+import utils.Axes;
+
+/**
+ * Parsed hand model, with no scene graph nodes: the {@link FlatMesh} and the
+ * skeleton in primitive arrays. It is not modified once created, so it can be
+ * cached and shared: every {@link #instantiate} creates new joints and a new
+ * skinning mesh over the same flat mesh, from any thread.
+ *
+ * The skeleton keeps the transforms the importers set in the joints:
+ * translation, the rotation of jox and scale.
+ */
+public class HandAsset {
+
+    private final String name;
+    private final FlatMesh mesh;
+    private final String[] jointNames;
+    private final int[] parents;
+    private final double[] translations;    // x, y, z per joint
+    private final double[] rotations;       // axis x, y, z and angle per joint
+    private final double[] scales;          // x, y, z per joint
+    private final double[] bindTransforms;  // 3x4 row major per joint
+
+    /**
+     * @param name model in resources
+     * @param skinningMesh skinning mesh created by an importer, in bind pose
+     */
+    public HandAsset(String name, HandSkinningMesh skinningMesh){
+        this.name = name;
+        mesh = skinningMesh.getFlatMesh();
+        Joint[] joints = skinningMesh.getJoints();
+        final int nJoints = joints.length;
+        parents = skinningMesh.getParents().clone();
+        bindTransforms = skinningMesh.getBindTransforms().clone();
+        jointNames = new String[nJoints];
+        translations = new double[3 * nJoints];
+        rotations = new double[4 * nJoints];
+        scales = new double[3 * nJoints];
+        for (int j = 0; j < nJoints; j++) {
+            Joint joint = joints[j];
+            jointNames[j] = joint.getId();
+            translations[3 * j] = joint.t.getX();
+            translations[3 * j + 1] = joint.t.getY();
+            translations[3 * j + 2] = joint.t.getZ();
+            rotations[4 * j] = joint.jox.getAxis().getX();
+            rotations[4 * j + 1] = joint.jox.getAxis().getY();
+            rotations[4 * j + 2] = joint.jox.getAxis().getZ();
+            rotations[4 * j + 3] = joint.jox.getAngle();
+            scales[3 * j] = joint.s.getX();
+            scales[3 * j + 1] = joint.s.getY();
+            scales[3 * j + 2] = joint.s.getZ();
+        }
+    }
+
+    /**
+     * Reads a model with its importer
+     * @param name model in resources
+     * @return the asset, or null if the model can't be read
+     */
+    public static HandAsset load(String name){
+        HandModelImporter importer = HandModelImporter.create(name, false, false);
+        importer.readModel();
+        if(importer.getSkinningMeshView()==null){
+            System.out.println("Error: model " + name + " not read");
+            return null;
+        }
+        return new HandAsset(name, (HandSkinningMesh)importer.getSkinningMeshView().getMesh());
+    }
+
+    public String getName() { return name; }
+    public FlatMesh getFlatMesh() { return mesh; }
+    public int getNumJoints() { return parents.length; }
+
+    /**
+     * @return estimated heap used by the asset, in bytes
+     */
+    public long estimateBytes(){
+        long bytes = mesh.estimateBytes() + FlatMesh.arrayBytes(parents.length) + FlatMesh.arrayBytes(jointNames.length) +
+                FlatMesh.arrayBytes(2 * translations.length) + FlatMesh.arrayBytes(2 * rotations.length) +
+                FlatMesh.arrayBytes(2 * scales.length) + FlatMesh.arrayBytes(2 * bindTransforms.length);
+        for (String jointName : jointNames) {
+            bytes += jointName != null ? 40 + 2 * jointName.length() : 0;
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates the nodes of a hand: the joints and a skinning mesh view, in
+     * bind pose. They aren't in a scene, so it can be called from any thread
+     * @param skeletal hide or show bones(joints)
+     * @param axes hide or show local coordinate systems on joints
+     */
+    public Instance instantiate(boolean skeletal, boolean axes){
+        return instantiate(skeletal, axes, 0);
+    }
+
+    /**
+     * Creates the nodes of a hand, with its skinning mesh subdivided
+     * @param skeletal hide or show bones(joints)
+     * @param axes hide or show local coordinate systems on joints
+     * @param subdivisionLevel subdivision level of the skinning mesh, 0 for none
+     */
+    public Instance instantiate(boolean skeletal, boolean axes, int subdivisionLevel){
+        final int nJoints = parents.length;
+        List<Joint> joints = new ArrayList<>(nJoints);
+        for (int j = 0; j < nJoints; j++) {
+            Joint joint = new Joint();
+            joint.setId(jointNames[j]);
+            joint.t.setX(translations[3 * j]);
+            joint.t.setY(translations[3 * j + 1]);
+            joint.t.setZ(translations[3 * j + 2]);
+            joint.jox.setAxis(new Point3D(rotations[4 * j], rotations[4 * j + 1], rotations[4 * j + 2]));
+            joint.jox.setAngle(rotations[4 * j + 3]);
+            joint.s.setX(scales[3 * j]);
+            joint.s.setY(scales[3 * j + 1]);
+            joint.s.setZ(scales[3 * j + 2]);
+            joints.add(joint);
+        }
+        List<Parent> jointForest = new ArrayList<>();
+        for (int j = 0; j < nJoints; j++) {
+            Joint joint = joints.get(j);
+            if(parents[j] < 0){
+                if(axes){
+                    joint.getChildren().add(new Axes(0.04));
+                }
+                jointForest.add(joint);
+            } else {
+                if(axes){
+                    joint.getChildren().add(new Axes(0.02));
+                }
+                Joint parent = joints.get(parents[j]);
+                parent.getChildren().add(joint);
+                if(skeletal){
+                    parent.getChildren().add(new Bone(0.02, new Point3D(translations[3 * j], translations[3 * j + 1], translations[3 * j + 2])));
+                }
+            }
+        }
+        HandSkinningMesh skinningMesh = new HandSkinningMesh(mesh, bindTransforms, joints);
+        skinningMesh.setSubdivisionLevel(subdivisionLevel);
+        MeshView meshView = new MeshView(skinningMesh);
+        PhongMaterial phongMaterial = new PhongMaterial();
+        phongMaterial.setDiffuseColor(Color.SANDYBROWN);
+        meshView.setMaterial(phongMaterial);
+        if(skeletal){
+            meshView.setDrawMode(DrawMode.LINE);
+        }
+        meshView.setCullFace(CullFace.BACK);
+        return new Instance(this, jointForest, meshView);
+    }
+
+    @Override
+    public String toString() {
+        return "HandAsset{" + "name=" + name + ", points=" + mesh.getNumPoints() + ", faces=" + mesh.getNumFaces() +
+                ", joints=" + Arrays.asList(jointNames) + ", bytes=" + estimateBytes() + '}';
+    }
+
+    /**
+     * Nodes of a hand created from an asset
+     */
+    public static class Instance {
+
+        private final HandAsset asset;
+        private final List<Parent> jointForest;
+        private final MeshView meshView;
+
+        private Instance(HandAsset asset, List<Parent> jointForest, MeshView meshView){
+            this.asset = asset;
+            this.jointForest = jointForest;
+            this.meshView = meshView;
+        }
+
+        public HandAsset getAsset() { return asset; }
+        public List<Parent> getJointForest() { return jointForest; }
+        public MeshView getSkinningMeshView() { return meshView; }
+    }
+}
@@ -0,0 +1,129 @@
+package riggedhand;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of {@link HandAsset}s by model name, bounded by their estimated heap:
+ * a model is read the first time it is requested, and when the assets go over
+ * the budget the least recently used ones are evicted. An asset in use by a
+ * hand stays valid after its eviction, it is just read again the next time.
+ *
+ * Loading happens in the calling thread while holding the cache, so requests
+ * should come from a single loader thread, not the FX thread.
+ */
+public class HandAssetCache {
+
+    private final boolean debug=false;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String,HandAsset> assets = new LinkedHashMap<>(16, 0.75f, true);
+    // estimated bytes of every asset when it was cached
+    private final Map<String,Long> sizes = new HashMap<>();
+    private int subdivisionLevel = 0;
+    private boolean skinningNormals = false;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes budget of the estimated heap of the cached assets. The
+     * last asset loaded is kept even if it goes over it alone
+     */
+    public HandAssetCache(long maxBytes){
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param subdivisionLevel level whose subdivision stencils are built when
+     * a model is read, in the loader thread, 0 for none
+     */
+    public synchronized void setSubdivisionLevel(int subdivisionLevel) { this.subdivisionLevel = subdivisionLevel; }
+    public synchronized int getSubdivisionLevel() { return subdivisionLevel; }
+
+    /**
+     * @param skinningNormals true if the meshes skin the imported normals, so
+     * they are built when a model is read, in the loader thread, and counted
+     * in its bytes. Only without subdivision, like the meshes
+     */
+    public synchronized void setSkinningNormals(boolean skinningNormals) { this.skinningNormals = skinningNormals; }
+    public synchronized boolean isSkinningNormals() { return skinningNormals; }
+
+    /**
+     * @param name model in resources
+     * @return the cached asset, or the one just read, or null if the model
+     * can't be read
+     */
+    public synchronized HandAsset get(String name){
+        HandAsset asset = assets.get(name);
+        if(asset != null){
+            hits++;
+            return asset;
+        }
+        misses++;
+        long time = System.nanoTime();
+        asset = HandAsset.load(name);
+        if(asset == null){
+            return null;
+        }
+        if(subdivisionLevel > 0){
+            asset.getFlatMesh().getSubdivision(subdivisionLevel);
+        } else if(skinningNormals){
+            asset.getFlatMesh().getVertexNormals();
+        }
+        long size = asset.estimateBytes();
+        assets.put(name, asset);
+        sizes.put(name, size);
+        bytes += size;
+        if(debug){
+            System.out.println("loaded " + name + " in " + (System.nanoTime()-time)/1_000_000 + " ms, " +
+                    size/1024 + " KB");
+        }
+        evict();
+        return asset;
+    }
+
+    /**
+     * @return true if the model is cached, without changing its recent use
+     */
+    public synchronized boolean contains(String name) { return assets.containsKey(name); }
+
+    public synchronized void clear(){
+        evictions += assets.size();
+        assets.clear();
+        sizes.clear();
+        bytes = 0;
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+    public synchronized long getBytes() { return bytes; }
+    public synchronized int size() { return assets.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return "HandAssetCache{" + "assets=" + assets.keySet() + ", bytes=" + bytes + ", maxBytes=" + maxBytes +
+                ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+
+    /*
+    Least recently used first, never the most recent one
+    */
+    private void evict(){
+        Iterator<Map.Entry<String,HandAsset>> iterator = assets.entrySet().iterator();
+        while(bytes > maxBytes && assets.size() > 1){
+            Map.Entry<String,HandAsset> eldest = iterator.next();
+            bytes -= sizes.remove(eldest.getKey());
+            iterator.remove();
+            evictions++;
+            if(debug){
+                System.out.println("evicted " + eldest.getKey());
+            }
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package riggedhand;
 
-import com.javafx.experiments.importers.SmoothingGroups;
 import com.javafx.experiments.importers.maya.Joint;
-import com.javafx.experiments.shape3d.PolygonMesh;
-import com.javafx.experiments.shape3d.PolygonMeshView;
-import com.javafx.experiments.shape3d.SkinningMesh;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -14,6 +10,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.CullFace;
 import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
 import javafx.scene.transform.Affine;
 import javafx.scene.transform.NonInvertibleTransformException;
 import javafx.scene.transform.Translate;
@@ -28,19 +25,20 @@ import utils.Axes;
  * @author Alexander Kouznetsov
  * Modified by José Pereda
  */
-public class HandImporter {
+public class HandImporter implements HandModelImporter {
 
     private final JsonReader reader;
     private final List<Parent> jointForest = new ArrayList<>();
-    private PolygonMeshView skinningMeshView;
+    private MeshView skinningMeshView;
     
     private final boolean debug=true;
+    private boolean optimize=true;
     private final boolean skeletal;
     private final boolean axes;
     
     /** HandImporter provides a way to import THREE.js models in JSON format, formatVersion 3.1
      * https://github.com/mrdoob/three.js/wiki/JSON-Model-format-3
-     * and convert them into a Skinning Mesh
+     * and convert them into a Skinning Mesh, over a flat triangle mesh
      * 
      * faces
      * - triangle with material, vertex uvs and vertex normals: Bitmask 00 10 10 10 = 42
@@ -61,17 +59,16 @@ public class HandImporter {
         reader = JsonProvider.provider().createReader(HandImporter.class.getResourceAsStream("/resources/"+nameFile));
     }
     
-    public void readModel(){
-        readModel(1f);
-    }  
-    
     /**
      * @param scale Scale up or down the model, by scaling vertices and joints coordinates  
     */
+    @Override
     public void readModel(float scale){
         if(reader==null){
             return;
         }
+        long time = System.nanoTime();
+        long heap = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
         
         JsonObject object = reader.readObject();
         
@@ -99,10 +96,6 @@ public class HandImporter {
         JsonObject metadata = object.getJsonObject("metadata");
         int facesNumber = metadata.getInt("faces");
         int nPoints = metadata.getInt("vertices");
-        int texCoordsNumber = 2; // so at least nTVerts=1
-        if(!metadata.getJsonArray("uvs").isEmpty()){
-            texCoordsNumber=metadata.getJsonArray("uvs").getInt(0);
-        }
         final int MINMAXLEN = vertices.size()/nPoints; // 3
         float[] min = new float[MINMAXLEN];
         float[] max = new float[MINMAXLEN];
@@ -122,48 +115,55 @@ public class HandImporter {
         final int N2 = (uvs!=null)?9:6;
         final int N3 = (uvs!=null)?10:7;
         
-        int[][] pfaces = new int[facesNumber][];
-        int[][] pnormals = new int[facesNumber][];
-        
-        PolygonMesh polygonMesh = new PolygonMesh();
-        polygonMesh.getPoints().ensureCapacity(nPoints);
-        polygonMesh.getTexCoords().ensureCapacity(texCoordsNumber);
-        polygonMesh.getFaceSmoothingGroups().ensureCapacity(facesNumber);
+        final int SKIN = 2; // influences per point
+        FlatMesh mesh = new FlatMesh(nPoints, uvs!=null?uvs.size()/2:1, facesNumber, SKIN);
 
         for (int i = 0; i < vertices.size(); i++) {
             float c = (float) (scale* vertices.getJsonNumber(i).doubleValue());
-            polygonMesh.getPoints().addAll(c);
+            mesh.points[i] = c;
             int j = i % MINMAXLEN;
             min[j] = Math.min(min[j], c);
             max[j] = Math.max(max[j], c);            
         }
         if(uvs!=null){
             for (int i = 0; i < uvs.size(); i++) {
-                polygonMesh.getTexCoords().addAll((float) uvs.getJsonNumber(i).doubleValue());
+                mesh.texCoords[i] = (float) uvs.getJsonNumber(i).doubleValue();
             }
-        } else {
-            for (int i = 0; i < texCoordsNumber; i++) {
-                polygonMesh.getTexCoords().addAll(0f); // create at least 2 coordinates
+        }
+        JsonArray morphTargets = object.getJsonArray("morphTargets");
+        if(morphTargets!=null && !morphTargets.isEmpty()){
+            // absolute positions of every vertex, kept as sparse offsets
+            mesh.morphTargets = new MorphTargets();
+            float[] offsets = new float[mesh.points.length];
+            for (int t = 0; t < morphTargets.size(); t++) {
+                JsonObject target = morphTargets.getJsonObject(t);
+                JsonArray positions = target.getJsonArray("vertices");
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = (float) (scale* positions.getJsonNumber(i).doubleValue()) - mesh.points[i];
+                }
+                mesh.morphTargets.addTarget(target.getString("name", "morph"+t), offsets);
+            }
+            if(debug){
+                for (int t = 0; t < mesh.morphTargets.getNumTargets(); t++) {
+                    System.out.println("morph target " + mesh.morphTargets.getName(t) + ", vertices = " + mesh.morphTargets.getNumPoints(t));
+                }
             }
         }
-        float[] fnormals = new float[normals.size()];
+        mesh.normals = new float[normals.size()];
         for (int i = 0; i < normals.size(); i++) {
-            fnormals[i] = (float) normals.getJsonNumber(i).doubleValue();
+            mesh.normals[i] = (float) normals.getJsonNumber(i).doubleValue();
         }
         
-        for (int i = 0; i < faces.size(); i += LEN) {
-            pfaces[i / LEN] = new int[] {
-                faces.getInt(i + V1), (uvs!=null?faces.getInt(i + UV1):0),
-                faces.getInt(i + V2), (uvs!=null?faces.getInt(i + UV2):0),
-                faces.getInt(i + V3), (uvs!=null?faces.getInt(i + UV3):0)};
-            pnormals[i / LEN] = new int[] { 
-                faces.getInt(i + N1),faces.getInt(i + N2),faces.getInt(i + N3)};
-        }
-        polygonMesh.faces = pfaces;
-        int[] smGroups = SmoothingGroups.calcSmoothGroups(pfaces, pnormals, fnormals);
-        polygonMesh.getFaceSmoothingGroups().setAll(smGroups);
-        if(debug){ 
-            System.out.println("polygonMesh.getFaceSmoothingGroups() = " + polygonMesh.getFaceSmoothingGroups());
+        for (int i = 0, f = 0; i < faces.size(); i += LEN, f++) {
+            mesh.faces[6*f] = faces.getInt(i + V1);
+            mesh.faces[6*f+1] = uvs!=null?faces.getInt(i + UV1):0;
+            mesh.faces[6*f+2] = faces.getInt(i + V2);
+            mesh.faces[6*f+3] = uvs!=null?faces.getInt(i + UV2):0;
+            mesh.faces[6*f+4] = faces.getInt(i + V3);
+            mesh.faces[6*f+5] = uvs!=null?faces.getInt(i + UV3):0;
+            mesh.faceNormals[3*f] = faces.getInt(i + N1);
+            mesh.faceNormals[3*f+1] = faces.getInt(i + N2);
+            mesh.faceNormals[3*f+2] = faces.getInt(i + N3);
         }
         
         if(debug){
@@ -173,9 +173,7 @@ public class HandImporter {
         }
         
         final int nJoints = metadata.getInt("bones");
-        float[][] weights = new float[nJoints][nPoints];
         Affine[] bindTransforms = new Affine[nJoints];
-        Affine bindGlobalTransform = new Affine();
         List<Joint> joints = new ArrayList<>(nJoints);
         
         for (int i = 0; i < nJoints; i++) {
@@ -228,46 +226,67 @@ public class HandImporter {
             float total = weight1 + weight2;
             weight1 /= total;
             weight2 /= total;
-            if (weights[jIndex1][pIndex] == 0) {
-                weights[jIndex1][pIndex] = weight1;
-            }
-            if (weights[jIndex2][pIndex] == 0) {
-                weights[jIndex2][pIndex] = weight2;
-            }
+            mesh.influenceJoints[SKIN*pIndex] = jIndex1;
+            mesh.influenceWeights[SKIN*pIndex] = weight1;
+            mesh.influenceJoints[SKIN*pIndex + 1] = jIndex2;
+            mesh.influenceWeights[SKIN*pIndex + 1] = weight2;
         }
         if(debug){
             for (int j = 0; j < nPoints; j++) {
                 double total = 0;
-                for (int i = 0; i < nJoints; i++) {
-                    double w = weights[i][j];
-                    total += w;
+                for (int k = 0; k < SKIN; k++) {
+                    total += mesh.influenceWeights[SKIN*j + k];
                 }
                 if (Math.abs(total - 1) > 1e-3) {
                     System.out.println("j = " + j + ", total = " + total);
-                    for (int i = 0; i < nJoints; i++) {
-                        double w = weights[i][j];
+                    for (int k = 0; k < SKIN; k++) {
+                        double w = mesh.influenceWeights[SKIN*j + k];
                         if (w > 0) {
-                            System.out.println("  i = " + i + ", w = " + w);
+                            System.out.println("  i = " + mesh.influenceJoints[SKIN*j + k] + ", w = " + w);
                         }
                     }
                 }
             }
+            System.out.println("flat mesh = " + mesh.estimateBytes()/1024 + " KB, with per face arrays = " + 
+                    mesh.estimateNestedBytes(nJoints)/1024 + " KB");
+        }
+        if(mesh.morphTargets!=null){
+            mesh.morphTargets.addDriversByName(joints.stream().map(Joint::getId).toArray(String[]::new), 0f, 90f);
+        }
+        if(optimize){
+            MeshOptimizer optimizer = MeshOptimizer.optimize(mesh, nJoints, false);
+            if(debug){
+                System.out.println(optimizer);
+            }
         }
-        SkinningMesh skinningMesh = new SkinningMesh(polygonMesh, weights, 
-                bindTransforms, bindGlobalTransform, joints, jointForest);
-        skinningMeshView = new PolygonMeshView(skinningMesh);
+        mesh.faceSmoothingGroups = FlatSmoothingGroups.calcSmoothGroups(mesh.faces, mesh.faceNormals, mesh.normals);
+        if(debug){ 
+            System.out.println("faceSmoothingGroups = " + Arrays.toString(mesh.faceSmoothingGroups));
+        }
+        HandSkinningMesh skinningMesh = new HandSkinningMesh(mesh, bindTransforms, joints);
+        skinningMeshView = new MeshView(skinningMesh);
         PhongMaterial phongMaterial = new PhongMaterial();
 //        phongMaterial.setDiffuseMap(new Image(getClass().getResourceAsStream("skin_texture_by_rosedecastille-d4lgv9y.jpg")));
         phongMaterial.setDiffuseColor(Color.SANDYBROWN);
         skinningMeshView.setMaterial(phongMaterial);
-//        skinningMeshView.setSubdivisionLevel(1); // NOT SUPPORTED FOR SKINNING MESHES
+//        skinningMesh.setSubdivisionLevel(1); // subdivides after skinning the cage, see SubdivisionStencils
         if(skeletal){
             skinningMeshView.setDrawMode(DrawMode.LINE);
         }
         skinningMeshView.setCullFace(CullFace.BACK);
+        
+        if(debug){
+            System.out.println("import time = " + (System.nanoTime()-time)/1_000_000 + " ms, heap = " +
+                    (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory()-heap)/1024 + " KB");
+        }
     }
     
-    public PolygonMeshView getSkinningMeshView() { return skinningMeshView; }
+    @Override
+    public void setOptimize(boolean optimize) { this.optimize=optimize; }
+
+    @Override
+    public MeshView getSkinningMeshView() { return skinningMeshView; }
     
+    @Override
     public List<Parent> getJointForest() { return jointForest; }
 }
@@ -0,0 +1,43 @@
+package riggedhand;
+
+import java.util.List;
+import javafx.scene.Parent;
+import javafx.scene.shape.MeshView;
+
+/**
+ * Common API of the hand model importers: a skinning mesh view and the forest
+ * of joints that drives it
+ */
+public interface HandModelImporter {
+
+    default void readModel(){
+        readModel(1f);
+    }
+
+    /**
+     * @param scale Scale up or down the model, by scaling vertices and joints coordinates
+     */
+    void readModel(float scale);
+
+    /**
+     * @param optimize runs the {@link MeshOptimizer} on the imported mesh, true by default
+     */
+    void setOptimize(boolean optimize);
+
+    MeshView getSkinningMeshView();
+
+    List<Parent> getJointForest();
+
+    /**
+     * @param nameFile model in resources: binary glTF (.glb) or THREE.js JSON
+     * @param skeletal hide or show bones(joints)
+     * @param axes hide or show local coordinate systems on joints
+     * @return the importer for the format of the file
+     */
+    static HandModelImporter create(String nameFile, boolean skeletal, boolean axes){
+        if(nameFile.toLowerCase().endsWith(".glb")){
+            return new GlbImporter(nameFile, skeletal, axes);
+        }
+        return new HandImporter(nameFile, skeletal, axes);
+    }
+}
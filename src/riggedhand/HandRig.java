@@ -0,0 +1,154 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.util.List;
+import javafx.scene.Group;
+import javafx.scene.Parent;
+import javafx.scene.shape.MeshView;
+import utils.HandPose;
+
+/**
+ * Imported hand model driven by {@link HandPose}s: maps the joint slots of the
+ * pose to the bones of the model, writes the joint rotations and the palm
+ * transform, and skins the mesh.
+ *
+ * The mesh and the joints live in one group, so the model can be swapped for
+ * another one while the hand is tracked: the last pose is applied to the new
+ * model right away.
+ */
+public class HandRig {
+
+    private final double leapScale=20d;
+
+    private final Group node = new Group();
+    private final double offsetX;
+    private final HandPose lastPose = new HandPose(false);
+    private boolean posed;
+    private List<Parent> forest;
+    private MeshView meshView;
+    private Joint[] joints;
+
+    /**
+     * @param importer importer that already read the model
+     * @param offsetX translation in X of the palm, to separate both hands
+     */
+    public HandRig(HandModelImporter importer, double offsetX){
+        this(importer.getJointForest(), importer.getSkinningMeshView(), offsetX);
+    }
+
+    /**
+     * @param instance hand created from an asset
+     * @param offsetX translation in X of the palm, to separate both hands
+     */
+    public HandRig(HandAsset.Instance instance, double offsetX){
+        this(instance.getJointForest(), instance.getSkinningMeshView(), offsetX);
+    }
+
+    private HandRig(List<Parent> forest, MeshView meshView, double offsetX){
+        this.offsetX = offsetX;
+        setModel(forest, meshView);
+    }
+
+    /**
+     * @return group with the mesh and the joints, that stays the same when the
+     * model is swapped
+     */
+    public Group getNode() { return node; }
+
+    public List<Parent> getJointForest() { return forest; }
+    public MeshView getMeshView() { return meshView; }
+    public HandSkinningMesh getMesh() { return (HandSkinningMesh)meshView.getMesh(); }
+
+    /**
+     * Replaces the model, keeping the last pose. Must be called from the FX
+     * thread if the rig is in a scene
+     * @param instance hand created from an asset, off the FX thread
+     */
+    public void swap(HandAsset.Instance instance){
+        setModel(instance.getJointForest(), instance.getSkinningMeshView());
+        if(posed){
+            apply(lastPose);
+        } else {
+            getMesh().update();
+        }
+    }
+
+    public double getOffsetX() { return offsetX; }
+    public double getLeapScale() { return leapScale; }
+
+    /**
+     * @return joint of every joint slot of {@link HandPose}, null if the model
+     * doesn't have it
+     */
+    Joint[] getPoseJoints() { return joints; }
+
+    /**
+     * Moves the joints to the pose and skins the mesh
+     */
+    public void apply(HandPose pose){
+        moveJoints(pose);
+        getMesh().update();
+    }
+
+    /**
+     * Moves the joints to the pose, without skinning the mesh
+     */
+    public void moveJoints(HandPose pose){
+        if(pose!=lastPose){
+            lastPose.copyFrom(pose);
+            posed = true;
+        }
+        float[] rotations = pose.getRotations();
+        for(int i=0; i<HandPose.JOINTS; i++){
+            if(pose.isJointValid(i) && joints[i]!=null){
+                applyRotation(joints[i], rotations, 4*i);
+            }
+        }
+        Joint root = (Joint)forest.get(0);
+        applyRotation(root, pose.getPalmRotation(), 0);
+        float[] position = pose.getPosition();
+        root.t.setX(offsetX-position[0]/leapScale);
+        root.t.setY(position[1]/leapScale);
+        root.t.setZ(-position[2]/leapScale);
+    }
+
+    private void setModel(List<Parent> forest, MeshView meshView){
+        this.forest = forest;
+        this.meshView = meshView;
+        joints = lookupJoints(forest);
+        node.getChildren().setAll(meshView, forest.get(0));
+    }
+
+    /*
+    Mapping between joint slots of the pose and bones from the js model
+    Checks two possible patterns
+    */
+    private static Joint[] lookupJoints(List<Parent> forest){
+        final String[] names = {"thumb", "index", "middle", "ring", "pinky"};
+        Joint[] joints = new Joint[HandPose.JOINTS];
+        for(int f=0; f<HandPose.FINGERS; f++){
+            for(int b=0; b<HandPose.JOINTS_PER_FINGER; b++){
+                String bonePattern1="#Finger_"+Integer.toString(f)+Integer.toString(b);
+                String bonePattern2="#"+names[f]+"-"+Integer.toString(b);
+                Joint joint = (Joint)forest.get(0).lookup(bonePattern1);
+                if(joint==null){
+                    joint = (Joint)forest.get(0).lookup(bonePattern2);
+                }
+                joints[HandPose.jointIndex(f, b)]=joint;
+            }
+        }
+        return joints;
+    }
+
+    /*
+    Quaternion (x, y, z, w) to the angles of rz, ry, rx, that rotate around the
+    fixed axes Z, Y, X: no Point3D for the axis every frame
+    */
+    private static void applyRotation(Joint joint, float[] q, int offset){
+        double x = q[offset], y = q[offset+1], z = q[offset+2], w = q[offset+3];
+        double sinY = Math.max(-1d, Math.min(1d, 2d*(w*y-z*x)));
+        joint.rx.setAngle(Math.toDegrees(Math.atan2(2d*(w*x+y*z), 1d-2d*(x*x+y*y))));
+        joint.ry.setAngle(Math.toDegrees(Math.asin(sinY)));
+        joint.rz.setAngle(Math.toDegrees(Math.atan2(2d*(w*z+x*y), 1d-2d*(y*y+z*z))));
+    }
+}
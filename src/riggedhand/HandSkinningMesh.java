@@ -0,0 +1,522 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.util.Arrays;
+import java.util.List;
+import javafx.collections.ObservableList;
+import javafx.scene.Parent;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.shape.VertexFormat;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+
+/**
+ * Skinning mesh over a {@link FlatMesh}: linear blend skinning of the points
+ * with a palette of joint matrices, written straight into the points of a
+ * TriangleMesh.
+ *
+ * Unlike the 3DViewer SkinningMesh, it doesn't keep a copy of every point
+ * relative to every joint, or a weight per joint and point: each point only
+ * visits its own few influences, and the skinned points go to a reused array.
+ *
+ * Updates don't allocate: the local matrix of every joint is read straight
+ * from its list of transforms (joints don't use the translate, rotate and
+ * scale properties of the node), instead of the local to parent transform
+ * that JavaFX creates again after every change, and joints are known to have
+ * moved by comparing those matrices with the ones of the last update.
+ *
+ * The mesh shown can be subdivided: the points are still skinned on the
+ * coarse mesh, the cage, and the subdivided points are computed from them
+ * with the {@link SubdivisionStencils} of the level. Without subdivision, the
+ * imported normals can be skinned too, see {@link VertexNormals}.
+ *
+ * Skinning can run in another thread, with a {@link Skinner} and a
+ * {@link Skinned} buffer of its own: the buffer gets the subdivided points and
+ * the normals too, for the topology the mesh has, so showing it only copies.
+ */
+public class HandSkinningMesh extends TriangleMesh {
+
+    private final FlatMesh mesh;
+    private final Joint[] joints;
+    private final int[] parents;
+    private final int[] order;
+    private final double[] bindTransforms;
+    private final double[] localTransforms;
+    private final double[] globalTransforms;
+    private final double[] matrix = new double[12];
+    private final float[] skinnedPoints;
+    private final MorphTargets morphTargets;
+    private final Skinner skinner;
+    private final double[] palette;
+    private int subdivisionLevel = 0;
+    // read by the skinners of other threads
+    private volatile SubdivisionStencils stencils;
+    private SubdivisionStencils.Evaluator subdivider;
+    private boolean useNormals = false;
+    private volatile VertexNormals vertexNormals;
+    private float[] skinnedNormals;
+    private final double[] jointAngles;
+    private boolean morphsDirty = true;
+    private TriangleBvh bvh;
+    private BoneCapsules capsules;
+
+    /**
+     * @param mesh flat mesh with influences
+     * @param bindTransforms inverse of the global transform of each joint in bind pose
+     * @param joints joints, in the order of the influences
+     */
+    public HandSkinningMesh(FlatMesh mesh, Affine[] bindTransforms, List<Joint> joints){
+        this(mesh, toArray(bindTransforms), joints);
+    }
+
+    /**
+     * @param mesh flat mesh with influences, not modified, so it can be shared
+     * by several skinning meshes
+     * @param bindTransforms 3x4 row major matrices: inverse of the global
+     * transform of each joint in bind pose, not modified
+     * @param joints joints, in the order of the influences
+     */
+    public HandSkinningMesh(FlatMesh mesh, double[] bindTransforms, List<Joint> joints){
+        this.mesh = mesh;
+        getPoints().setAll(mesh.points);
+        getTexCoords().setAll(mesh.texCoords);
+        getFaces().setAll(mesh.faces);
+        getFaceSmoothingGroups().setAll(mesh.faceSmoothingGroups);
+
+        final int nJoints = joints.size();
+        this.joints = joints.toArray(new Joint[nJoints]);
+        this.bindTransforms = bindTransforms;
+        localTransforms = new double[12 * nJoints];
+        Arrays.fill(localTransforms, Double.NaN);
+        globalTransforms = new double[12 * nJoints];
+        palette = new double[12 * nJoints];
+        skinnedPoints = mesh.points.clone();
+        // own weights, the targets are shared
+        morphTargets = mesh.morphTargets != null ? mesh.morphTargets.copy() : null;
+        jointAngles = new double[nJoints];
+        parents = new int[nJoints];
+        int[] depths = new int[nJoints];
+        int maxDepth = 0;
+        for (int j = 0; j < nJoints; j++) {
+            Parent parent = this.joints[j].getParent();
+            parents[j] = parent instanceof Joint ? joints.indexOf((Joint)parent) : -1;
+            for (Parent p = parent; p instanceof Joint; p = p.getParent()) {
+                depths[j]++;
+            }
+            maxDepth = Math.max(maxDepth, depths[j]);
+        }
+        // parents before children
+        order = new int[nJoints];
+        for (int d = 0, i = 0; d <= maxDepth; d++) {
+            for (int j = 0; j < nJoints; j++) {
+                if(depths[j] == d){
+                    order[i++] = j;
+                }
+            }
+        }
+        skinner = new Skinner(morphTargets);
+    }
+
+    public FlatMesh getFlatMesh() { return mesh; }
+    public int getNumJoints() { return joints.length; }
+
+    Joint[] getJoints() { return joints; }
+    int[] getParents() { return parents; }
+    double[] getBindTransforms() { return bindTransforms; }
+
+    public int getSubdivisionLevel() { return subdivisionLevel; }
+
+    /**
+     * Subdivides the mesh shown. The stencils of the level are built the first
+     * time any mesh over the same flat mesh asks for them. The hierarchy of
+     * triangles and the capsules stay on the cage
+     * @param level subdivision level, 0 for none
+     */
+    public void setSubdivisionLevel(int level){
+        if(level != subdivisionLevel){
+            subdivisionLevel = level;
+            updateTopology();
+        }
+    }
+
+    /**
+     * @return true if the imported normals are skinned and shown
+     */
+    public boolean isSkinningNormals() { return vertexNormals != null; }
+
+    /**
+     * Shows the imported normals of the mesh, skinned with the points, with the
+     * vertex format POINT_NORMAL_TEXCOORD, instead of the normals JavaFX
+     * computes from the smoothing groups every time the points change. Only
+     * applies without subdivision, and if the mesh has normals
+     * @param useNormals true to skin the imported normals
+     */
+    public void setSkinningNormals(boolean useNormals){
+        if(useNormals != this.useNormals){
+            this.useNormals = useNormals;
+            updateTopology();
+        }
+    }
+
+    /*
+    Vertex format, points, faces and texture coordinates for the subdivision
+    level and the normals
+    */
+    private void updateTopology(){
+        final SubdivisionStencils stencils = subdivisionLevel > 0 ? mesh.getSubdivision(subdivisionLevel) : null;
+        this.stencils = stencils;
+        vertexNormals = stencils == null && useNormals ? mesh.getVertexNormals() : null;
+        if(stencils != null){
+            subdivider = stencils.createEvaluator(new float[3 * stencils.getNumPoints()]);
+            subdivider.apply(skinnedPoints);
+            setVertexFormat(VertexFormat.POINT_TEXCOORD);
+            getPoints().setAll(subdivider.getTarget());
+            getNormals().clear();
+            getTexCoords().setAll(stencils.getTexCoords());
+            getFaces().setAll(stencils.getFaces());
+            getFaceSmoothingGroups().setAll(stencils.getFaceSmoothingGroups());
+            return;
+        }
+        subdivider = null;
+        getPoints().setAll(skinnedPoints);
+        getTexCoords().setAll(mesh.texCoords);
+        if(vertexNormals != null){
+            skinnedNormals = vertexNormals.getNormals().clone();
+            skinNormals();
+            setVertexFormat(VertexFormat.POINT_NORMAL_TEXCOORD);
+            getNormals().setAll(skinnedNormals);
+            getFaces().setAll(vertexNormals.getFaces());
+            // ignored with normals
+            getFaceSmoothingGroups().clear();
+        } else {
+            skinnedNormals = null;
+            setVertexFormat(VertexFormat.POINT_TEXCOORD);
+            getNormals().clear();
+            getFaces().setAll(mesh.faces);
+            getFaceSmoothingGroups().setAll(mesh.faceSmoothingGroups);
+        }
+    }
+
+    /**
+     * @return morph targets of the mesh, or null if it has none
+     */
+    public MorphTargets getMorphTargets() { return morphTargets; }
+
+    /**
+     * Sets the weight of a morph target, blended in the next update. Ignored
+     * if the mesh has no targets
+     * @param target index of the target
+     * @param weight usually from 0 to 1
+     */
+    public void setMorphWeight(int target, float weight){
+        if(morphTargets == null){
+            return;
+        }
+        morphTargets.setWeight(target, weight);
+        morphsDirty = true;
+    }
+
+    /**
+     * @return hierarchy of the skinned triangles, built on first use and refit
+     * on every update, in the coordinates of the mesh
+     */
+    public TriangleBvh getBvh(){
+        if(bvh == null){
+            update();
+            bvh = new TriangleBvh(mesh.faces, skinnedPoints);
+        }
+        return bvh;
+    }
+
+    /**
+     * @return capsules of the bones, built on first use and moved on every
+     * update, in the coordinates of the mesh
+     */
+    public BoneCapsules getCapsules(){
+        if(capsules == null){
+            update();
+            capsules = new BoneCapsules(mesh, skinnedPoints, parents, globalTransforms);
+        }
+        return capsules;
+    }
+
+    /**
+     * Blends the morph targets and skins the points if any joint or weight has changed
+     */
+    public void update(){
+        boolean jointsMoved = false;
+        for (int j = 0; j < joints.length; j++) {
+            jointsMoved |= updateLocalTransform(j);
+        }
+        if(!jointsMoved && !morphsDirty){
+            return;
+        }
+        if(morphTargets != null && morphTargets.hasDrivers()){
+            for (int j = 0; j < joints.length; j++) {
+                jointAngles[j] = flexion(joints[j]);
+            }
+        }
+        skinner.skin(localTransforms, jointAngles, skinnedPoints, globalTransforms);
+        setSkinned(null, null);
+    }
+
+    /**
+     * Shows a buffer skinned by a {@link Skinner} in another thread, for the
+     * pose the joints have now. Only copies, unless the subdivision level or
+     * the normals changed since it was skinned
+     * @param skinned skinned buffer of this mesh, copied
+     */
+    public void setSkinned(Skinned skinned){
+        System.arraycopy(skinned.points, 0, skinnedPoints, 0, skinnedPoints.length);
+        System.arraycopy(skinned.globals, 0, globalTransforms, 0, globalTransforms.length);
+        // so update() knows the joints are already skinned
+        for (int j = 0; j < joints.length; j++) {
+            updateLocalTransform(j);
+        }
+        setSkinned(skinned.subdivider != null && skinned.stencils == stencils ? skinned.subdivider.getTarget() : null,
+                   skinned.vertexNormals != null && skinned.vertexNormals == vertexNormals ? skinned.normals : null);
+    }
+
+    /**
+     * @return new skinner of this mesh, to skin it from another thread
+     */
+    public Skinner createSkinner(){
+        return new Skinner(morphTargets != null ? morphTargets.copy() : null);
+    }
+
+    /**
+     * @return new buffer for a {@link Skinner} of this mesh
+     */
+    public Skinned createSkinned(){
+        return new Skinned();
+    }
+
+    /*
+    Shows the skinned points, with the subdivided points and the normals given,
+    or computed here if they are null
+    */
+    private void setSkinned(float[] subdivided, float[] normals){
+        if(subdivider != null){
+            if(subdivided == null){
+                subdivider.apply(skinnedPoints);
+                subdivided = subdivider.getTarget();
+            }
+            getPoints().set(0, subdivided, 0, subdivided.length);
+        } else {
+            getPoints().set(0, skinnedPoints, 0, skinnedPoints.length);
+        }
+        if(vertexNormals != null){
+            if(normals == null){
+                skinNormals();
+                normals = skinnedNormals;
+            }
+            getNormals().set(0, normals, 0, normals.length);
+        }
+        morphsDirty = false;
+        if(bvh != null){
+            bvh.refit();
+        }
+        if(capsules != null){
+            capsules.update(globalTransforms);
+        }
+    }
+
+    /**
+     * Linear blend skinning of the mesh from the local transforms of the joints,
+     * with its own scratch arrays and morph weights, so every thread uses its
+     * own skinner. Weights set on the mesh are read on every skin
+     */
+    public class Skinner {
+
+        private final double[] palette = new double[12 * joints.length];
+        private final MorphTargets morphs;
+        private final float[] blendedPoints;
+
+        private Skinner(MorphTargets morphs){
+            this.morphs = morphs;
+            blendedPoints = morphs != null ? mesh.points.clone() : null;
+        }
+
+        /**
+         * @param locals 3x4 row major local transform of every joint
+         * @param jointAngles flexion of every joint in degrees, for the driven
+         * morph targets, see {@link HandSkinningMesh#flexion(double[], int)}
+         * @param points skinned points
+         * @param globals global transform of every joint
+         */
+        public void skin(double[] locals, double[] jointAngles, float[] points, double[] globals){
+            for (int j : order) {
+                if(parents[j] < 0){
+                    System.arraycopy(locals, 12 * j, globals, 12 * j, 12);
+                } else {
+                    multiply(globals, 12 * parents[j], locals, 12 * j, globals, 12 * j);
+                }
+                multiply(globals, 12 * j, bindTransforms, 12 * j, palette, 12 * j);
+            }
+            float[] source = mesh.points;
+            if(morphs != null){
+                if(morphs != morphTargets){
+                    morphs.copyWeights(morphTargets);
+                }
+                if(morphs.hasDrivers()){
+                    morphs.drive(jointAngles);
+                }
+                morphs.blend(mesh.points, blendedPoints);
+                source = blendedPoints;
+            }
+            mesh.skin(source, palette, points);
+        }
+
+        /**
+         * Skins into a buffer, and computes from it what the mesh shows: the
+         * subdivided points and the skinned normals, for the subdivision level
+         * and normals the mesh has now
+         * @param locals 3x4 row major local transform of every joint
+         * @param jointAngles flexion of every joint in degrees, for the driven
+         * morph targets
+         * @param target buffer of this mesh
+         */
+        public void skin(double[] locals, double[] jointAngles, Skinned target){
+            skin(locals, jointAngles, target.points, target.globals);
+            SubdivisionStencils shown = stencils;
+            if(shown != target.stencils){
+                target.stencils = shown;
+                target.subdivider = shown != null ? shown.createEvaluator(new float[3 * shown.getNumPoints()]) : null;
+            }
+            if(target.subdivider != null){
+                target.subdivider.apply(target.points);
+            }
+            VertexNormals normals = vertexNormals;
+            if(normals != target.vertexNormals){
+                target.vertexNormals = normals;
+                target.normals = normals != null ? new float[3 * normals.getNumNormals()] : null;
+            }
+            if(normals != null){
+                // the palette of this skinning
+                normals.skin(palette, target.normals);
+            }
+        }
+    }
+
+    /**
+     * Skinned points and joints, and the subdivided points and skinned normals
+     * of the topology the mesh had when they were skinned, written by a
+     * {@link Skinner} and shown with {@link #setSkinned(Skinned)}
+     */
+    public final class Skinned {
+
+        private final float[] points = mesh.points.clone();
+        private final double[] globals = new double[12 * joints.length];
+        private SubdivisionStencils stencils;
+        private SubdivisionStencils.Evaluator subdivider;
+        private VertexNormals vertexNormals;
+        private float[] normals;
+
+        private Skinned(){
+        }
+    }
+
+    /*
+    Normals with the palette of the global transforms of the last skinning,
+    wherever it was skinned
+    */
+    private void skinNormals(){
+        for (int j = 0; j < joints.length; j++) {
+            multiply(globalTransforms, 12 * j, bindTransforms, 12 * j, palette, 12 * j);
+        }
+        vertexNormals.skin(palette, skinnedNormals);
+    }
+
+    /*
+    Product of the transforms of the joint, true if it changed since the last update
+    */
+    private boolean updateLocalTransform(int j){
+        final double[] m = matrix;
+        identity(m, 0);
+        ObservableList<Transform> transforms = joints[j].getTransforms();
+        for (int i = 0; i < transforms.size(); i++) {
+            concatenate(m, 0, transforms.get(i), m, 0);
+        }
+        boolean changed = false;
+        for (int k = 0; k < 12; k++) {
+            if(localTransforms[12 * j + k] != m[k]){
+                localTransforms[12 * j + k] = m[k];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /*
+    Flexion of the rotation rz ry rx of the joint, in degrees
+    */
+    private double flexion(Joint joint){
+        final double[] m = matrix;
+        identity(m, 0);
+        concatenate(m, 0, joint.rz, m, 0);
+        concatenate(m, 0, joint.ry, m, 0);
+        concatenate(m, 0, joint.rx, m, 0);
+        return flexion(m, 0);
+    }
+
+    /**
+     * Flexion of a joint, the quantity that drives the morph targets: signed
+     * angle in degrees of the twist of its local rotation about -X, the axis
+     * fingers curl about in the rotations of {@link utils.HandPose}, so it is
+     * positive when the finger curls, and abduction (about Y) or twist (about
+     * Z) don't change it. With the rotation as a quaternion (x, y, z, w), it
+     * is 2 atan2(-x, w), taken from the matrix
+     * @param m 3x4 row major rotation
+     * @param offset of the matrix in m
+     * @return flexion in degrees, from -180 to 180
+     */
+    static double flexion(double[] m, int offset){
+        // 4 w x = m21 - m12 and 4 w^2 = 1 + trace, with w >= 0
+        return Math.toDegrees(2d * Math.atan2(m[offset + 6] - m[offset + 9], 1d + m[offset] + m[offset + 5] + m[offset + 10]));
+    }
+
+    /*
+    3x4 row major matrices
+    */
+    static void identity(double[] m, int offset){
+        Arrays.fill(m, offset, offset + 12, 0d);
+        m[offset] = m[offset + 5] = m[offset + 10] = 1d;
+    }
+
+    private static double[] toArray(Affine[] transforms){
+        double[] m = new double[12 * transforms.length];
+        for (int j = 0; j < transforms.length; j++) {
+            toArray(transforms[j], m, 12 * j);
+        }
+        return m;
+    }
+
+    private static void toArray(Transform t, double[] m, int offset){
+        m[offset] = t.getMxx(); m[offset + 1] = t.getMxy(); m[offset + 2] = t.getMxz(); m[offset + 3] = t.getTx();
+        m[offset + 4] = t.getMyx(); m[offset + 5] = t.getMyy(); m[offset + 6] = t.getMyz(); m[offset + 7] = t.getTy();
+        m[offset + 8] = t.getMzx(); m[offset + 9] = t.getMzy(); m[offset + 10] = t.getMzz(); m[offset + 11] = t.getTz();
+    }
+
+    static void concatenate(double[] a, int ao, Transform t, double[] r, int ro){
+        double bxx = t.getMxx(), bxy = t.getMxy(), bxz = t.getMxz(), btx = t.getTx();
+        double byx = t.getMyx(), byy = t.getMyy(), byz = t.getMyz(), bty = t.getTy();
+        double bzx = t.getMzx(), bzy = t.getMzy(), bzz = t.getMzz(), btz = t.getTz();
+        for (int row = 0; row < 3; row++) {
+            double ax = a[ao + 4 * row], ay = a[ao + 4 * row + 1], az = a[ao + 4 * row + 2], at = a[ao + 4 * row + 3];
+            r[ro + 4 * row] = ax * bxx + ay * byx + az * bzx;
+            r[ro + 4 * row + 1] = ax * bxy + ay * byy + az * bzy;
+            r[ro + 4 * row + 2] = ax * bxz + ay * byz + az * bzz;
+            r[ro + 4 * row + 3] = ax * btx + ay * bty + az * btz + at;
+        }
+    }
+
+    static void multiply(double[] a, int ao, double[] b, int bo, double[] r, int ro){
+        for (int row = 0; row < 3; row++) {
+            double ax = a[ao + 4 * row], ay = a[ao + 4 * row + 1], az = a[ao + 4 * row + 2], at = a[ao + 4 * row + 3];
+            r[ro + 4 * row] = ax * b[bo] + ay * b[bo + 4] + az * b[bo + 8];
+            r[ro + 4 * row + 1] = ax * b[bo + 1] + ay * b[bo + 5] + az * b[bo + 9];
+            r[ro + 4 * row + 2] = ax * b[bo + 2] + ay * b[bo + 6] + az * b[bo + 10];
+            r[ro + 4 * row + 3] = ax * b[bo + 3] + ay * b[bo + 7] + az * b[bo + 11] + at;
+        }
+    }
+}
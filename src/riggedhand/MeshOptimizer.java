@@ -0,0 +1,453 @@
+package riggedhand;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Import time optimization of a {@link FlatMesh}, before its smoothing groups
+ * are computed:
+ *
+ * - influences: merges repeated joints, prunes negligible weights, renormalizes
+ *   them, and shrinks the number of influences per point to the needed ones
+ * - welds points with the same position and influences, and drops the faces
+ *   that become degenerate and the unused points
+ * - reorders faces for the vertex cache (Tom Forsyth, "Linear-Speed Vertex
+ *   Cache Optimisation"), and then points in order of first use, so skinning
+ *   and rendering walk memory sequentially
+ */
+public class MeshOptimizer {
+
+    public static final float MIN_WEIGHT = 0.01f;
+
+    private static final int CACHE_SIZE = 32;
+    private static final double CACHE_DECAY_POWER = 1.5;
+    private static final double LAST_TRI_SCORE = 0.75;
+    private static final double VALENCE_BOOST_SCALE = 2.0;
+    private static final double VALENCE_BOOST_POWER = 0.5;
+    private static final int FIFO_SIZE = 16;
+
+    private int weldedPoints;
+    private int unusedPoints;
+    private int degenerateFaces;
+    private int prunedInfluences;
+    private int influencesBefore;
+    private int influencesAfter;
+    private double acmrBefore;
+    private double acmrAfter;
+
+    private double skinningBefore;
+    private double skinningAfter;
+
+    private MeshOptimizer(){
+    }
+
+    /**
+     * Optimizes the mesh in place
+     * @param mesh mesh without smoothing groups yet
+     * @param nJoints number of joints of the influences
+     * @param report measure skinning before and after, and print the report:
+     * it takes longer than the optimization, see MeshOptimizerBenchmark,
+     * in the test tree
+     * @return the report of the changes
+     */
+    public static MeshOptimizer optimize(FlatMesh mesh, int nJoints, boolean report){
+        MeshOptimizer optimizer = new MeshOptimizer();
+        if(report){
+            optimizer.skinningBefore = skinningTime(mesh, nJoints);
+        }
+        optimizer.influencesBefore = mesh.influences;
+        optimizer.acmrBefore = acmr(mesh.faces);
+        final int nPoints = mesh.getNumPoints();
+        optimizer.pruneInfluences(mesh);
+        optimizer.weld(mesh);
+        optimizer.removeDegenerateFaces(mesh);
+        reorderFaces(mesh, forsythOrder(mesh.faces, nPoints));
+        optimizer.reorderPoints(mesh);
+        optimizer.influencesAfter = mesh.influences;
+        optimizer.acmrAfter = acmr(mesh.faces);
+        if(report){
+            optimizer.skinningAfter = skinningTime(mesh, nJoints);
+            System.out.println(optimizer);
+        }
+        return optimizer;
+    }
+
+    public int getWeldedPoints() { return weldedPoints; }
+    public int getUnusedPoints() { return unusedPoints; }
+    public int getDegenerateFaces() { return degenerateFaces; }
+    public int getPrunedInfluences() { return prunedInfluences; }
+
+    /**
+     * @return average cache miss ratio, misses per triangle with a FIFO cache of
+     * 16 points, before and after the optimization (0.5 is ideal, 3 is the worst)
+     */
+    public double getAcmrBefore() { return acmrBefore; }
+    public double getAcmrAfter() { return acmrAfter; }
+
+    /**
+     * @return time to skin all the points, in microseconds, before and after the
+     * optimization, only if it was reported
+     */
+    public double getSkinningBefore() { return skinningBefore; }
+    public double getSkinningAfter() { return skinningAfter; }
+
+    @Override
+    public String toString() {
+        return "MeshOptimizer{" + "weldedPoints=" + weldedPoints + ", unusedPoints=" + unusedPoints +
+                ", degenerateFaces=" + degenerateFaces + ", prunedInfluences=" + prunedInfluences +
+                ", influences=" + influencesBefore + "->" + influencesAfter +
+                ", acmr=" + String.format("%.3f->%.3f", acmrBefore, acmrAfter) +
+                (skinningBefore > 0 ? ", skinning=" + String.format("%.1f->%.1f us", skinningBefore, skinningAfter) : "") + '}';
+    }
+
+    /*
+    Merges repeated joints, drops weights below MIN_WEIGHT (keeping at least the
+    largest one), renormalizes, and sorts influences by weight
+    */
+    private void pruneInfluences(FlatMesh mesh){
+        final int nPoints = mesh.getNumPoints();
+        final int stride = mesh.influences;
+        int[] joints = mesh.influenceJoints;
+        float[] weights = mesh.influenceWeights;
+        int used = 1;
+        for (int p = 0; p < nPoints; p++) {
+            int start = p * stride;
+            for (int k = start; k < start + stride; k++) {
+                for (int l = k + 1; l < start + stride; l++) {
+                    if(weights[l] > 0 && weights[k] > 0 && joints[l] == joints[k]){
+                        weights[k] += weights[l];
+                        weights[l] = 0;
+                    }
+                }
+            }
+            // selection sort, influences are just a few
+            for (int k = start; k < start + stride; k++) {
+                int max = k;
+                for (int l = k + 1; l < start + stride; l++) {
+                    if(weights[l] > weights[max]){
+                        max = l;
+                    }
+                }
+                float w = weights[k]; weights[k] = weights[max]; weights[max] = w;
+                int j = joints[k]; joints[k] = joints[max]; joints[max] = j;
+            }
+            float total = 0;
+            int count = 0;
+            for (int k = start; k < start + stride; k++) {
+                if(weights[k] > 0 && (weights[k] < MIN_WEIGHT && k > start)){
+                    weights[k] = 0;
+                    prunedInfluences++;
+                }
+                if(weights[k] > 0){
+                    total += weights[k];
+                    count++;
+                } else {
+                    joints[k] = 0;
+                }
+            }
+            if(total > 0){
+                for (int k = start; k < start + count; k++) {
+                    weights[k] /= total;
+                }
+            }
+            used = Math.max(used, count);
+        }
+        if(used < stride){
+            int[] newJoints = new int[used * nPoints];
+            float[] newWeights = new float[used * nPoints];
+            for (int p = 0; p < nPoints; p++) {
+                System.arraycopy(joints, p * stride, newJoints, p * used, used);
+                System.arraycopy(weights, p * stride, newWeights, p * used, used);
+            }
+            mesh.influences = used;
+            mesh.influenceJoints = newJoints;
+            mesh.influenceWeights = newWeights;
+        }
+    }
+
+    /*
+    Points with the same position and influences get the index of the first one
+    */
+    private void weld(FlatMesh mesh){
+        final int nPoints = mesh.getNumPoints();
+        final int[] hashes = mesh.morphTargets != null ? mesh.morphTargets.pointHashes(nPoints) : new int[nPoints];
+        Integer[] sorted = new Integer[nPoints];
+        for (int p = 0; p < nPoints; p++) {
+            sorted[p] = p;
+        }
+        Arrays.sort(sorted, (p1, p2) -> {
+            int c = compare(mesh, hashes, p1, p2);
+            return c != 0 ? c : Integer.compare(p1, p2);
+        });
+        int[] remap = new int[nPoints];
+        for (int i = 0; i < nPoints; i++) {
+            int p = sorted[i];
+            remap[p] = (i > 0 && compare(mesh, hashes, sorted[i - 1], p) == 0) ? remap[sorted[i - 1]] : p;
+            if(remap[p] != p){
+                weldedPoints++;
+            }
+        }
+        for (int i = 0; i < mesh.faces.length; i += 2) {
+            mesh.faces[i] = remap[mesh.faces[i]];
+        }
+        if(mesh.morphTargets != null && weldedPoints > 0){
+            // welded points have the same offsets: keep the ones of the remaining point
+            for (int p = 0; p < nPoints; p++) {
+                remap[p] = remap[p] == p ? p : -1;
+            }
+            mesh.morphTargets.remap(remap);
+        }
+    }
+
+    private static int compare(FlatMesh mesh, int[] hashes, int p1, int p2){
+        if(hashes[p1] != hashes[p2]){
+            return Integer.compare(hashes[p1], hashes[p2]);
+        }
+        for (int i = 0; i < FlatMesh.POINT_SIZE; i++) {
+            int c = Float.compare(mesh.points[3 * p1 + i], mesh.points[3 * p2 + i]);
+            if(c != 0){
+                return c;
+            }
+        }
+        for (int k = 0; k < mesh.influences; k++) {
+            int c = Integer.compare(mesh.influenceJoints[p1 * mesh.influences + k], mesh.influenceJoints[p2 * mesh.influences + k]);
+            if(c == 0){
+                c = Float.compare(mesh.influenceWeights[p1 * mesh.influences + k], mesh.influenceWeights[p2 * mesh.influences + k]);
+            }
+            if(c != 0){
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private void removeDegenerateFaces(FlatMesh mesh){
+        final int nFaces = mesh.getNumFaces();
+        int[] order = new int[nFaces];
+        int count = 0;
+        for (int f = 0; f < nFaces; f++) {
+            int a = mesh.faces[6 * f], b = mesh.faces[6 * f + 2], c = mesh.faces[6 * f + 4];
+            if(a != b && b != c && a != c){
+                order[count++] = f;
+            }
+        }
+        degenerateFaces = nFaces - count;
+        if(degenerateFaces > 0){
+            reorderFaces(mesh, Arrays.copyOf(order, count));
+        }
+    }
+
+    private static void reorderFaces(FlatMesh mesh, int[] order){
+        int[] faces = new int[FlatMesh.FACE_SIZE * order.length];
+        int[] faceNormals = new int[3 * order.length];
+        int[] smGroups = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int f = order[i];
+            System.arraycopy(mesh.faces, FlatMesh.FACE_SIZE * f, faces, FlatMesh.FACE_SIZE * i, FlatMesh.FACE_SIZE);
+            System.arraycopy(mesh.faceNormals, 3 * f, faceNormals, 3 * i, 3);
+            smGroups[i] = mesh.faceSmoothingGroups[f];
+        }
+        mesh.faces = faces;
+        mesh.faceNormals = faceNormals;
+        mesh.faceSmoothingGroups = smGroups;
+    }
+
+    /*
+    Points in order of first use by the faces, dropping unused ones
+    */
+    private void reorderPoints(FlatMesh mesh){
+        final int nPoints = mesh.getNumPoints();
+        final int stride = mesh.influences;
+        int[] newIndex = new int[nPoints];
+        Arrays.fill(newIndex, -1);
+        int count = 0;
+        for (int i = 0; i < mesh.faces.length; i += 2) {
+            int p = mesh.faces[i];
+            if(newIndex[p] < 0){
+                newIndex[p] = count++;
+            }
+            mesh.faces[i] = newIndex[p];
+        }
+        unusedPoints = nPoints - count - weldedPoints;
+        float[] points = new float[FlatMesh.POINT_SIZE * count];
+        int[] joints = new int[stride * count];
+        float[] weights = new float[stride * count];
+        for (int p = 0; p < nPoints; p++) {
+            int n = newIndex[p];
+            if(n >= 0){
+                System.arraycopy(mesh.points, 3 * p, points, 3 * n, 3);
+                System.arraycopy(mesh.influenceJoints, stride * p, joints, stride * n, stride);
+                System.arraycopy(mesh.influenceWeights, stride * p, weights, stride * n, stride);
+            }
+        }
+        mesh.points = points;
+        mesh.influenceJoints = joints;
+        mesh.influenceWeights = weights;
+        if(mesh.morphTargets != null){
+            mesh.morphTargets.remap(newIndex);
+        }
+    }
+
+    /*
+    Tom Forsyth's greedy ordering: emits next the triangle with the best score,
+    where points score higher if they are recently used and have few triangles left
+    */
+    static int[] forsythOrder(int[] faces, int nPoints){
+        final int nFaces = faces.length / FlatMesh.FACE_SIZE;
+        // triangles of every point
+        int[] offsets = new int[nPoints + 1];
+        for (int i = 0; i < faces.length; i += 2) {
+            offsets[faces[i] + 1]++;
+        }
+        for (int p = 0; p < nPoints; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+        int[] pointFaces = new int[3 * nFaces];
+        int[] valence = new int[nPoints];
+        for (int f = 0; f < nFaces; f++) {
+            for (int c = 0; c < 3; c++) {
+                int p = faces[6 * f + 2 * c];
+                pointFaces[offsets[p] + valence[p]++] = f;
+            }
+        }
+        int[] cachePosition = new int[nPoints];
+        Arrays.fill(cachePosition, -1);
+        double[] pointScore = new double[nPoints];
+        for (int p = 0; p < nPoints; p++) {
+            pointScore[p] = score(-1, valence[p]);
+        }
+        double[] faceScore = new double[nFaces];
+        for (int f = 0; f < nFaces; f++) {
+            faceScore[f] = pointScore[faces[6 * f]] + pointScore[faces[6 * f + 2]] + pointScore[faces[6 * f + 4]];
+        }
+        boolean[] added = new boolean[nFaces];
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] order = new int[nFaces];
+        int cursor = 0;
+        int best = -1;
+        for (int i = 0; i < nFaces; i++) {
+            if(best < 0){
+                while(added[cursor]){
+                    cursor++;
+                }
+                best = cursor;
+            }
+            order[i] = best;
+            added[best] = true;
+            // the triangle points go to the front of the cache
+            int newCount = 0;
+            for (int c = 0; c < 3; c++) {
+                int p = faces[6 * best + 2 * c];
+                newCache[newCount++] = p;
+                valence[p]--;
+                for (int k = offsets[p]; k < offsets[p] + valence[p] + 1; k++) {
+                    if(pointFaces[k] == best){
+                        pointFaces[k] = pointFaces[offsets[p] + valence[p]];
+                        pointFaces[offsets[p] + valence[p]] = best;
+                        break;
+                    }
+                }
+            }
+            for (int k = 0; k < cacheCount; k++) {
+                int p = cache[k];
+                if(p != newCache[0] && p != newCache[1] && p != newCache[2]){
+                    newCache[newCount++] = p;
+                }
+            }
+            // update scores of cached and evicted points, and of their triangles
+            best = -1;
+            double bestScore = -1;
+            for (int k = 0; k < newCount; k++) {
+                int p = newCache[k];
+                cachePosition[p] = k < CACHE_SIZE ? k : -1;
+                double s = score(cachePosition[p], valence[p]);
+                double delta = s - pointScore[p];
+                pointScore[p] = s;
+                for (int l = offsets[p]; l < offsets[p] + valence[p]; l++) {
+                    int f = pointFaces[l];
+                    faceScore[f] += delta;
+                }
+            }
+            for (int k = 0; k < Math.min(newCount, CACHE_SIZE); k++) {
+                int p = newCache[k];
+                for (int l = offsets[p]; l < offsets[p] + valence[p]; l++) {
+                    int f = pointFaces[l];
+                    if(faceScore[f] > bestScore){
+                        bestScore = faceScore[f];
+                        best = f;
+                    }
+                }
+            }
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+            int[] swap = cache; cache = newCache; newCache = swap;
+        }
+        return order;
+    }
+
+    private static double score(int position, int valence){
+        if(valence == 0){
+            return -1;
+        }
+        double s = 0;
+        if(position >= 0){
+            s = position < 3 ? LAST_TRI_SCORE :
+                Math.pow(1.0 - (position - 3) / (double)(CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+        return s + VALENCE_BOOST_SCALE * Math.pow(valence, -VALENCE_BOOST_POWER);
+    }
+
+    /*
+    Average time of skinning with a palette of small random rotations, in microseconds
+    */
+    static double skinningTime(FlatMesh mesh, int nJoints){
+        final int WARMUP = 200, ITERATIONS = 500;
+        Random random = new Random(0);
+        double[] palette = new double[12 * nJoints];
+        for (int j = 0; j < nJoints; j++) {
+            double a = 0.2 * random.nextDouble(), c = Math.cos(a), s = Math.sin(a);
+            palette[12 * j] = c; palette[12 * j + 1] = -s; palette[12 * j + 3] = random.nextDouble();
+            palette[12 * j + 4] = s; palette[12 * j + 5] = c; palette[12 * j + 7] = random.nextDouble();
+            palette[12 * j + 10] = 1; palette[12 * j + 11] = random.nextDouble();
+        }
+        float[] target = new float[mesh.points.length];
+        for (int i = 0; i < WARMUP; i++) {
+            mesh.skin(palette, target);
+        }
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mesh.skin(palette, target);
+        }
+        return (System.nanoTime() - time) / 1000d / ITERATIONS;
+    }
+
+    /*
+    Average cache miss ratio with a FIFO cache
+    */
+    static double acmr(int[] faces){
+        final int nFaces = faces.length / FlatMesh.FACE_SIZE;
+        if(nFaces == 0){
+            return 0;
+        }
+        int[] fifo = new int[FIFO_SIZE];
+        Arrays.fill(fifo, -1);
+        int head = 0, misses = 0;
+        for (int i = 0; i < faces.length; i += 2) {
+            int p = faces[i];
+            boolean hit = false;
+            for (int k = 0; k < FIFO_SIZE; k++) {
+                if(fifo[k] == p){
+                    hit = true;
+                    break;
+                }
+            }
+            if(!hit){
+                misses++;
+                fifo[head] = p;
+                head = (head + 1) % FIFO_SIZE;
+            }
+        }
+        return misses / (double)nFaces;
+    }
+}
@@ -0,0 +1,291 @@
+package riggedhand;
+
+import java.util.Arrays;
+
+/**
+ * Morph targets (blend shapes) of a {@link FlatMesh}, stored as sparse deltas:
+ * for every target only the points it moves, with their x, y, z offsets, in
+ * primitive arrays (compressed rows: the points of target i go from
+ * <code>starts[i]</code> to <code>starts[i+1]</code>).
+ *
+ * Blending is done before skinning, over a copy of the points that is kept
+ * between frames: the points moved by the previous blend are restored and the
+ * active targets are added again, so the cost is proportional to the points the
+ * targets touch, not to the size of the mesh.
+ *
+ * Weights can be set directly, or driven by the flexion of a joint, for
+ * corrective shapes like knuckle and palm creases: the signed angle, in
+ * degrees, of the local rotation of the joint about its -X axis, positive when
+ * the finger curls, the convention of the joint rotations of {@link utils.HandPose}.
+ * Abduction and twist don't drive the targets, see
+ * {@link HandSkinningMesh#flexion(double[], int)}.
+ */
+public class MorphTargets {
+
+    public static final float EPSILON = 1e-6f;
+
+    private String[] names = new String[0];
+    private int[] starts = {0};
+    private int[] indices = new int[0];
+    private float[] deltas = new float[0];
+    private float[] weights = new float[0];
+
+    // drivers: weight of the target from the flexion of the joint, linear between from and to
+    private int[] driverTargets = new int[0];
+    private int[] driverJoints = new int[0];
+    private float[] driverFrom = new float[0];
+    private float[] driverTo = new float[0];
+
+    // points moved by the last blend
+    private int[] touched;
+    private int nTouched;
+    private boolean[] isTouched;
+
+    public int getNumTargets() { return names.length; }
+
+    public String getName(int target) { return names[target]; }
+
+    public int indexOf(String name){
+        for (int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of points moved by the target
+     */
+    public int getNumPoints(int target) { return starts[target + 1] - starts[target]; }
+
+    public float getWeight(int target) { return weights[target]; }
+    public void setWeight(int target, float weight) { weights[target] = weight; }
+
+    /**
+     * Adds a target from the offset of every point
+     * @param name name of the target
+     * @param dense x, y, z offset of every point, only the ones over EPSILON are kept
+     * @return index of the target
+     */
+    public int addTarget(String name, float[] dense){
+        int n = 0;
+        for (int p = 0; p < dense.length / 3; p++) {
+            if(moves(dense, 3 * p)){
+                n++;
+            }
+        }
+        int[] points = new int[n];
+        float[] offsets = new float[3 * n];
+        for (int p = 0, i = 0; p < dense.length / 3; p++) {
+            if(moves(dense, 3 * p)){
+                points[i] = p;
+                System.arraycopy(dense, 3 * p, offsets, 3 * i++, 3);
+            }
+        }
+        return addTarget(name, points, offsets, n);
+    }
+
+    /**
+     * Adds a target from the offsets of the points that move
+     * @param name name of the target
+     * @param points indices of the points, in increasing order
+     * @param offsets x, y, z offset of every point in points
+     * @param n number of points
+     * @return index of the target
+     */
+    public int addTarget(String name, int[] points, float[] offsets, int n){
+        final int t = names.length;
+        names = Arrays.copyOf(names, t + 1);
+        names[t] = name;
+        weights = Arrays.copyOf(weights, t + 1);
+        starts = Arrays.copyOf(starts, t + 2);
+        starts[t + 1] = starts[t] + n;
+        indices = Arrays.copyOf(indices, starts[t + 1]);
+        deltas = Arrays.copyOf(deltas, 3 * starts[t + 1]);
+        System.arraycopy(points, 0, indices, starts[t], n);
+        System.arraycopy(offsets, 0, deltas, 3 * starts[t], 3 * n);
+        return t;
+    }
+
+    /**
+     * Drives the weight of a target with the flexion of a joint: 0 up to
+     * <code>from</code> degrees, and 1 from <code>to</code> degrees
+     * @param target index of the target
+     * @param joint index of the joint, in the order of the influences
+     */
+    public void addDriver(int target, int joint, float from, float to){
+        final int d = driverTargets.length;
+        driverTargets = Arrays.copyOf(driverTargets, d + 1);
+        driverJoints = Arrays.copyOf(driverJoints, d + 1);
+        driverFrom = Arrays.copyOf(driverFrom, d + 1);
+        driverTo = Arrays.copyOf(driverTo, d + 1);
+        driverTargets[d] = target;
+        driverJoints[d] = joint;
+        driverFrom[d] = from;
+        driverTo[d] = to;
+    }
+
+    /**
+     * Drives every target named like a joint, or like a joint followed by an
+     * underscore ("Finger_11_crease"), with the flexion of that joint
+     * @param jointNames name of every joint, in the order of the influences
+     */
+    public void addDriversByName(String[] jointNames, float from, float to){
+        for (int t = 0; t < names.length; t++) {
+            int joint = -1;
+            for (int j = 0; j < jointNames.length; j++) {
+                if(jointNames[j] != null && (names[t].equals(jointNames[j]) || names[t].startsWith(jointNames[j] + "_")) &&
+                   (joint < 0 || jointNames[j].length() > jointNames[joint].length())){
+                    joint = j;
+                }
+            }
+            if(joint >= 0){
+                addDriver(t, joint, from, to);
+            }
+        }
+    }
+
+    public boolean hasDrivers() { return driverTargets.length > 0; }
+
+    /**
+     * Sets the weights of the driven targets
+     * @param jointAngles flexion of every joint, in degrees
+     */
+    public void drive(double[] jointAngles){
+        for (int d = 0; d < driverTargets.length; d++) {
+            double a = jointAngles[driverJoints[d]];
+            double w = (a - driverFrom[d]) / (driverTo[d] - driverFrom[d]);
+            weights[driverTargets[d]] = (float)Math.max(0, Math.min(1, w));
+        }
+    }
+
+    /**
+     * Adds the active targets to the points
+     * @param base points without targets
+     * @param target points with the last blend, or a copy of base the first
+     * time, that get the new blend
+     */
+    public void blend(float[] base, float[] target){
+        if(isTouched == null){
+            isTouched = new boolean[base.length / 3];
+            touched = new int[base.length / 3];
+        }
+        for (int i = 0; i < nTouched; i++) {
+            int p = 3 * touched[i];
+            target[p] = base[p];
+            target[p + 1] = base[p + 1];
+            target[p + 2] = base[p + 2];
+            isTouched[touched[i]] = false;
+        }
+        nTouched = 0;
+        for (int t = 0; t < names.length; t++) {
+            float w = weights[t];
+            if(w == 0f){
+                continue;
+            }
+            for (int i = starts[t]; i < starts[t + 1]; i++) {
+                int p = indices[i];
+                target[3 * p] += w * deltas[3 * i];
+                target[3 * p + 1] += w * deltas[3 * i + 1];
+                target[3 * p + 2] += w * deltas[3 * i + 2];
+                if(!isTouched[p]){
+                    isTouched[p] = true;
+                    touched[nTouched++] = p;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return targets and drivers shared with this one, with their own weights,
+     * to blend another instance of the same mesh
+     */
+    public MorphTargets copy(){
+        MorphTargets copy = new MorphTargets();
+        copy.names = names;
+        copy.starts = starts;
+        copy.indices = indices;
+        copy.deltas = deltas;
+        copy.weights = weights.clone();
+        copy.driverTargets = driverTargets;
+        copy.driverJoints = driverJoints;
+        copy.driverFrom = driverFrom;
+        copy.driverTo = driverTo;
+        return copy;
+    }
+
+    /**
+     * @param from copy of the same targets
+     */
+    public void copyWeights(MorphTargets from){
+        System.arraycopy(from.weights, 0, weights, 0, weights.length);
+    }
+
+    /**
+     * @return number of points moved by the last blend
+     */
+    public int getNumTouched() { return nTouched; }
+
+    /**
+     * @param nPoints number of points of the mesh
+     * @return hash of the offsets of every point in all the targets, so points
+     * with different offsets are not welded
+     */
+    int[] pointHashes(int nPoints){
+        int[] hashes = new int[nPoints];
+        for (int t = 0; t < names.length; t++) {
+            for (int i = starts[t]; i < starts[t + 1]; i++) {
+                int p = indices[i];
+                hashes[p] = 31 * (31 * (31 * (31 * hashes[p] + t) + Float.floatToIntBits(deltas[3 * i])) +
+                        Float.floatToIntBits(deltas[3 * i + 1])) + Float.floatToIntBits(deltas[3 * i + 2]);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Renumbers the points, after they are welded or reordered
+     * @param map new index of every point, -1 to drop its offsets
+     */
+    void remap(int[] map){
+        int[] newStarts = new int[starts.length];
+        long[] keys = new long[indices.length];
+        int n = 0;
+        for (int t = 0; t < names.length; t++) {
+            int first = n;
+            for (int i = starts[t]; i < starts[t + 1]; i++) {
+                if(map[indices[i]] >= 0){
+                    // sorted by new index, so blending walks the points in order
+                    keys[n++] = ((long)map[indices[i]] << 32) | i;
+                }
+            }
+            Arrays.sort(keys, first, n);
+            newStarts[t + 1] = n;
+        }
+        int[] newIndices = new int[n];
+        float[] newDeltas = new float[3 * n];
+        for (int k = 0; k < n; k++) {
+            int i = (int)keys[k];
+            newIndices[k] = (int)(keys[k] >>> 32);
+            System.arraycopy(deltas, 3 * i, newDeltas, 3 * k, 3);
+        }
+        starts = newStarts;
+        indices = newIndices;
+        deltas = newDeltas;
+        isTouched = null;
+        nTouched = 0;
+    }
+
+    /**
+     * @return estimated heap used by the arrays of the targets, in bytes
+     */
+    public long estimateBytes(){
+        return FlatMesh.arrayBytes(starts.length) + FlatMesh.arrayBytes(indices.length) +
+               FlatMesh.arrayBytes(deltas.length) + FlatMesh.arrayBytes(weights.length);
+    }
+
+    private static boolean moves(float[] dense, int p){
+        return Math.abs(dense[p]) > EPSILON || Math.abs(dense[p + 1]) > EPSILON || Math.abs(dense[p + 2]) > EPSILON;
+    }
+}
@@ -2,31 +2,34 @@ package riggedhand;
 
 import utils.LeapListener;
 import com.javafx.experiments.importers.maya.Joint;
-import com.javafx.experiments.shape3d.PolygonMeshView;
-import com.javafx.experiments.shape3d.SkinningMesh;
-import com.leapmotion.leap.Bone;
 import com.leapmotion.leap.Controller;
-import com.leapmotion.leap.Finger;
-import com.leapmotion.leap.Vector;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Stream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import static javafx.application.Application.launch;
 import javafx.application.Platform;
-import javafx.geometry.Orientation;
-import javafx.geometry.Point3D;
 import javafx.scene.Group;
-import javafx.scene.Parent;
 import javafx.scene.PerspectiveCamera;
 import javafx.scene.Scene;
 import javafx.scene.SceneAntialiasing;
-import javafx.scene.input.MouseButton;
-import javafx.scene.shape.DrawMode;
-import javafx.scene.transform.Rotate;
-import javafx.scene.transform.Translate;
+import javafx.scene.input.KeyCode;
 import javafx.stage.Stage;
-import utils.DragSupport;
+import utils.CameraController;
+import utils.HandPose;
+import utils.HandPoseSource;
+import utils.PoseBroadcaster;
+import utils.PoseGate;
+import utils.PoseProducer;
+import utils.PoseRecorder;
+import utils.PoseSampler;
+import utils.RemotePoseSource;
+import utils.SharedMemoryPoseSource;
+import utils.SyntheticPoseSource;
 
 /** JavaFX Application displaying hands 3D models, and performing 
  * mesh deformations (skinning) through the Leap Motion controller and its
@@ -44,217 +47,274 @@ import utils.DragSupport;
  */
 public class RiggedHand extends Application {
 
-    private final Translate translate = new Translate(0, 0, 0);
-    private final Translate translateZ = new Translate(0, 0, -1070);
-    private final Rotate rotateX = new Rotate(-120, 0, 0, 0, Rotate.X_AXIS);
-    private final Rotate rotateY = new Rotate(180, 0, 0, 0, Rotate.Y_AXIS);
-    private final Translate translateY = new Translate(0, 0, 0);
+    private CameraController cameraController;
     
-    private PolygonMeshView skinningRight;
-    private List<Parent> forestRight = new ArrayList<>();
-    private PolygonMeshView skinningLeft;
-    private List<Parent> forestLeft = new ArrayList<>();
+    private HandRig rigLeft;
+    private HandRig rigRight;
+    private final HandPose poseLeft = new HandPose(false);
+    private final HandPose poseRight = new HandPose(true);
     
+    private HandAssetCache assetCache;
+    private String[] modelsLeft;
+    private String[] modelsRight;
+    private int modelLeft = 0;
+    private int modelRight = 0;
+    private boolean skinningNormals = false;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "HandAssetLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private HandPoseSource poseSource = null;
+    private PoseGate poseGate = null;
+    private PoseSampler sampler = null;
+    private PoseRecorder recorder = null;
     private LeapListener listener = null;
     private Controller controller = null;
-    private Bone previousBone=null;
-    private final double leapScale=20d;
+    private PoseBroadcaster broadcaster = null;
+    private RemotePoseSource remoteSource = null;
+    private SharedMemoryPoseSource sharedSource = null;
+    private SyntheticPoseSource syntheticSource = null;
+    private SkinningPipeline pipeline = null;
+    private long fxFrames = 0;
+    private long fxNanos = 0;
     
     @Override
     public void start(Stage primaryStage) throws Exception {
-        listener = new LeapListener();
-        controller = new Controller();
-        controller.addListener(listener);
+        /*
+        --remote=host[:port] shows the hands streamed by another instance,
+        --broadcast[=port] streams the local Leap Motion hands to remote viewers,
+        --shm[=file] shows the hands tracked by a utils.PoseProducer process,
+        --synthetic[=rate] shows procedural hands, with --seed=n,
+        --pipelined skins the hands in a thread of their own, not in the pulse,
+        --features=palm,bones,...|all extracts more Leap Motion features than the
+        poses, to compare the cost of onFrame, printed on exit with --measure,
+        --interpolate[=ms] shows the poses interpolated at the frame time minus a
+        render delay, 20 ms by default, instead of the latest one,
+        --record=file records the Leap Motion poses, for utils.PoseReplay
+        */
+        Map<String,String> params = getParameters().getNamed();
+        if(params.containsKey("synthetic") || getParameters().getUnnamed().contains("--synthetic")){
+            String rate = params.get("synthetic");
+            syntheticSource = new SyntheticPoseSource(Long.parseLong(params.getOrDefault("seed", "0")),
+                    rate!=null && !rate.isEmpty()?Double.parseDouble(rate):120d);
+            syntheticSource.start();
+            poseSource = syntheticSource;
+        } else if(params.containsKey("shm") || getParameters().getUnnamed().contains("--shm")){
+            String file = params.get("shm");
+            sharedSource = new SharedMemoryPoseSource(new File(file!=null && !file.isEmpty()?
+                    file:PoseProducer.DEFAULT_FILE));
+            poseSource = sharedSource;
+        } else if(params.containsKey("remote")){
+            String[] remote = params.get("remote").split(":");
+            remoteSource = new RemotePoseSource(remote[0], 
+                    remote.length>1?Integer.parseInt(remote[1]):PoseBroadcaster.DEFAULT_PORT);
+            poseSource = remoteSource;
+        } else {
+            listener = new LeapListener();
+            String features = params.get("features");
+            if(features!=null){
+                for(String feature : features.split(",")){
+                    if(feature.equalsIgnoreCase("all")){
+                        listener.subscribe(LeapListener.Feature.values());
+                    } else {
+                        listener.subscribe(LeapListener.Feature.valueOf(feature.trim().toUpperCase()));
+                    }
+                }
+            }
+            listener.setMeasuring(getParameters().getUnnamed().contains("--measure"));
+            Consumer<HandPose> onPose = null;
+            if(params.containsKey("broadcast") || getParameters().getUnnamed().contains("--broadcast")){
+                String port = params.get("broadcast");
+                broadcaster = new PoseBroadcaster(port!=null && !port.isEmpty()?
+                        Integer.parseInt(port):PoseBroadcaster.DEFAULT_PORT);
+                onPose = broadcaster::publish;
+            }
+            if(params.containsKey("record")){
+                recorder = new PoseRecorder(new File(params.get("record")));
+                onPose = onPose!=null?onPose.andThen(recorder):recorder;
+            }
+            if(params.containsKey("interpolate") || getParameters().getUnnamed().contains("--interpolate")){
+                // every pose of the listener, not only the latest one in each pulse
+                sampler = new PoseSampler(null, interpolationDelay(params.get("interpolate")));
+                onPose = onPose!=null?onPose.andThen(sampler):sampler;
+            }
+            listener.setOnPose(onPose);
+            controller = new Controller();
+            controller.addListener(listener);
+            poseSource = listener;
+        }
+        if(sampler!=null){
+            poseSource = sampler;
+        } else if(params.containsKey("interpolate") || getParameters().getUnnamed().contains("--interpolate")){
+            sampler = new PoseSampler(poseSource, interpolationDelay(params.get("interpolate")));
+            poseSource = sampler;
+        }
+        // resting hands don't update joints nor skin
+        poseGate = new PoseGate(poseSource);
+        poseSource = poseGate;
         
 //        HandImporter handLeft=new HandImporter("modelLeft.json");
         /*
-        Model downloaded from
+        Models downloaded from
         https://github.com/leapmotion/leapjs-rigged-hand/tree/master/src/models
-        */
-//        HandImporter handLeft=new HandImporter("left_hand_terrence_3.js");
-        HandImporter handLeft=new HandImporter("modelLeft.json",true,false);
-        handLeft.readModel();
-
-        forestLeft=handLeft.getJointForest();
-        skinningLeft=handLeft.getSkinningMeshView();
-        
-        /* 
-        Model downloaded from 
         https://github.com/leapmotion/leapjs-rigged-hand/blob/master/src/models/hand_models_v1.js
         */
-        HandImporter handRight=new HandImporter("modelRight.json",false,false);
-        handRight.readModel();
-        forestRight=handRight.getJointForest();
-        skinningRight=handRight.getSkinningMeshView();
+        /*
+        --left=file[,file...], --right=file[,file...] select models in resources,
+        like modelLeft.glb, cycled with the keys L and R while tracking,
+        --cache=MB is the budget of parsed models kept in memory,
+        --subdivision=level subdivides the skinned meshes, 1 or 2,
+        --normals skins the imported normals, instead of letting JavaFX compute
+        them from the smoothing groups on every frame (without subdivision)
+        */
+        assetCache = new HandAssetCache(Long.parseLong(params.getOrDefault("cache", "16")) << 20);
+        assetCache.setSubdivisionLevel(Integer.parseInt(params.getOrDefault("subdivision", "0")));
+        skinningNormals = getParameters().getUnnamed().contains("--normals");
+        assetCache.setSkinningNormals(skinningNormals);
+        modelsLeft = params.getOrDefault("left", "modelLeft.json,left_hand_terrence_3.js").split(",");
+        modelsRight = params.getOrDefault("right", "modelRight.json").split(",");
+        rigLeft=new HandRig(assetCache.get(modelsLeft[0]).instantiate(true, false, assetCache.getSubdivisionLevel()), 2);
+        rigRight=new HandRig(assetCache.get(modelsRight[0]).instantiate(false, false, assetCache.getSubdivisionLevel()), -2);
+        rigLeft.getMesh().setSkinningNormals(skinningNormals);
+        rigRight.getMesh().setSkinningNormals(skinningNormals);
         
-        Group root = new Group(new Group(skinningLeft, forestLeft.get(0)),
-                               new Group(skinningRight, forestRight.get(0)));
+        Group root = new Group(rigLeft.getNode(), rigRight.getNode());
         
-        listener.doneLeftProperty().addListener((ov,b,b1)->{
-            if(b1){
-                List<Finger> fingersLeft=listener.getFingersLeft();
-                Platform.runLater(()->{
-                    fingersLeft.stream()
-                        .filter(finger -> finger.isValid())
-                        .forEach(finger -> {
-                            previousBone=null;
-                            Stream.of(Bone.Type.values()).map(finger::bone)
-                                .filter(bone -> bone.isValid() && bone.length()>0)
-                                .forEach(bone -> {
-                                    if(previousBone!=null){
-                                        Joint joint = getJoint(false,finger,bone);
-                                        Vector cross = bone.direction().cross(previousBone.direction());
-                                        double angle = bone.direction().angleTo(previousBone.direction());
-                                        joint.rx.setAngle(Math.toDegrees(angle));
-                                        joint.rx.setAxis(new Point3D(cross.getX(),-cross.getY(),cross.getZ()));
-                                    }
-                                    previousBone=bone;
-                            });
-                    });
-                    matrixRotateNode(false, listener.rollLeftProperty().get(),
-                            listener.pitchLeftProperty().get(),
-                            listener.yawLeftProperty().get());
-                    
-                    Point3D moveLeft = listener.posHandLeftProperty().getValue().multiply(1d/leapScale);
-                    ((Joint)forestLeft.get(0)).t.setX(2-moveLeft.getX());
-                    ((Joint)forestLeft.get(0)).t.setY(moveLeft.getY());
-                    ((Joint)forestLeft.get(0)).t.setZ(-moveLeft.getZ());
-                    
-                    ((SkinningMesh)skinningLeft.getMesh()).update();
-                });
-            }
-        });
-        listener.doneRightProperty().addListener((ov,b,b1)->{
-            if(b1){
-                List<Finger> fingersRight=listener.getFingersRight();
-                Platform.runLater(()->{
-                    fingersRight.stream()
-                        .filter(finger -> finger.isValid())
-                        .forEach(finger -> {
-                            previousBone=null;
-                            Stream.of(Bone.Type.values()).map(finger::bone)
-                                .filter(bone -> bone.isValid() && bone.length()>0)
-                                .forEach(bone -> {
-                                    if(previousBone!=null){
-                                        Joint joint = getJoint(true,finger,bone);
-                                        Vector cross = bone.direction().cross(previousBone.direction());
-                                        double angle = bone.direction().angleTo(previousBone.direction());
-                                        joint.rx.setAngle(Math.toDegrees(angle));
-                                        joint.rx.setAxis(new Point3D(cross.getX(),-cross.getY(),cross.getZ()));
-                                    }
-                                    previousBone=bone;
-                            });
-                        });
-
-                    matrixRotateNode(true, listener.rollRightProperty().get(),
-                            listener.pitchRightProperty().get(),
-                            listener.yawRightProperty().get());
-                    Point3D moveRight = listener.posHandRightProperty().getValue().multiply(1d/leapScale);
-                    ((Joint)forestRight.get(0)).t.setX(-2-moveRight.getX());
-                    ((Joint)forestRight.get(0)).t.setY(moveRight.getY());
-                    ((Joint)forestRight.get(0)).t.setZ(-moveRight.getZ());
-                    
-                    ((SkinningMesh)skinningRight.getMesh()).update();                    
-                });
+        if(getParameters().getUnnamed().contains("--pipelined")){
+            pipeline = new SkinningPipeline(poseSource, rigLeft, rigRight);
+            pipeline.start();
+        }
+        
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                long time = System.nanoTime();
+                if(sampler!=null){
+                    sampler.setFrameTime(now/1000);
+                }
+                if(pipeline!=null){
+                    pipeline.pulse();
+                } else {
+                    if(poseSource.poll(false, poseLeft)){
+                        rigLeft.apply(poseLeft);
+                    }
+                    if(poseSource.poll(true, poseRight)){
+                        rigRight.apply(poseRight);
+                    }
+                }
+                fxNanos += System.nanoTime()-time;
+                fxFrames++;
             }
-        });
+        }.start();
         
         Scene scene = new Scene(root, 800, 600, true, SceneAntialiasing.BALANCED);
         PerspectiveCamera perspectiveCamera = new PerspectiveCamera();
         perspectiveCamera.setNearClip(0.001);
         perspectiveCamera.setFarClip(10000);
         scene.setCamera(perspectiveCamera);
+        scene.setOnKeyPressed(e -> {
+            if(e.getCode()==KeyCode.L){
+                nextModel(false);
+            } else if(e.getCode()==KeyCode.R){
+                nextModel(true);
+            }
+        });
         primaryStage.setScene(scene);
         primaryStage.setTitle("RIGGED HANDS - JAVAFX 3D");
         primaryStage.show();
         
-        Translate centerTranslate = new Translate();
-        centerTranslate.xProperty().bind(scene.widthProperty().divide(2));
-        centerTranslate.yProperty().bind(scene.heightProperty().divide(2));
+        cameraController = new CameraController(scene);
+        cameraController.setRotate(-120, 180);
+        cameraController.setTranslate(0, 0, -1070);
+        scene.getRoot().getTransforms().add(cameraController.getTransform());
         
-        scene.getRoot().getTransforms().addAll(centerTranslate, translate, translateZ, rotateX, rotateY, translateY);
-        
-        DragSupport dragSupport = new DragSupport(scene, null, MouseButton.SECONDARY, Orientation.VERTICAL, translateZ.zProperty(), -3);
-        DragSupport dragSupport1 = new DragSupport(scene, null, Orientation.HORIZONTAL, rotateY.angleProperty());
-        DragSupport dragSupport2 = new DragSupport(scene, null, Orientation.VERTICAL, rotateX.angleProperty());
-        DragSupport dragSupport3 = new DragSupport(scene, null, MouseButton.MIDDLE, Orientation.HORIZONTAL, translate.xProperty());
-        DragSupport dragSupport4 = new DragSupport(scene, null, MouseButton.MIDDLE, Orientation.VERTICAL, translate.yProperty());
-        
-        ((Joint)forestLeft.get(0)).t.setX(4);
-        ((SkinningMesh)skinningLeft.getMesh()).update();  
-        ((Joint)forestRight.get(0)).t.setX(-4);
-        ((SkinningMesh)skinningRight.getMesh()).update();  
+        ((Joint)rigLeft.getJointForest().get(0)).t.setX(4);
+        rigLeft.getMesh().update();  
+        ((Joint)rigRight.getJointForest().get(0)).t.setX(-4);
+        rigRight.getMesh().update();  
     }
     
-    @Override
-    public void stop(){
-        controller.removeListener(listener);
-    }
-
     /*
-    Mapping between bones and fingers from Leap Motion and those from the js model
-    Checks two possible patterns
+    Loads the next model of a hand in the background, if it isn't cached, and
+    swaps it in the FX thread
     */
-    private Joint getJoint(boolean right, Finger finger, Bone bone){
-        int f = 0,b = 0;
-        String name="";
-        switch(finger.type()){
-            case TYPE_THUMB: name="thumb"; f=0; break;
-            case TYPE_INDEX: name="index"; f=1; break;
-            case TYPE_MIDDLE: name="middle"; f=2; break;
-            case TYPE_RING: name="ring"; f=3; break;
-            case TYPE_PINKY: name="pinky"; f=4; break;
-        }
-        switch(bone.type()){
-            case TYPE_METACARPAL: b=0; break;
-            case TYPE_PROXIMAL: b=1; break;
-            case TYPE_INTERMEDIATE: b=2; break;
-            case TYPE_DISTAL: b=3; break;
+    private void nextModel(boolean right){
+        String[] models = right?modelsRight:modelsLeft;
+        if(models.length<2){
+            return;
         }
-        String bonePattern1="#Finger_"+Integer.toString(f)+Integer.toString(b-1);
-        String bonePattern2="#"+name+"-"+Integer.toString(b-1);
+        String name;
         if(right){
-            Joint joint = (Joint)forestRight.get(0).lookup(bonePattern1);
-            if(joint==null){
-                joint = (Joint)forestRight.get(0).lookup(bonePattern2);
-            }
-            return joint;
-        } 
-        Joint joint = (Joint)forestLeft.get(0).lookup(bonePattern1);
-        if(joint==null){
-            joint = (Joint)forestLeft.get(0).lookup(bonePattern2);
+            modelRight = (modelRight+1)%models.length;
+            name = models[modelRight];
+        } else {
+            modelLeft = (modelLeft+1)%models.length;
+            name = models[modelLeft];
         }
-        return joint;
+        HandRig rig = right?rigRight:rigLeft;
+        loader.execute(() -> {
+            HandAsset asset = assetCache.get(name);
+            if(asset==null){
+                return;
+            }
+            HandAsset.Instance instance = asset.instantiate(!right, false, assetCache.getSubdivisionLevel());
+            ((HandSkinningMesh)instance.getSkinningMeshView().getMesh()).setSkinningNormals(skinningNormals);
+            Platform.runLater(() -> rig.swap(instance));
+        });
     }
     
+    @Override
+    public void stop() throws IOException {
+        if(controller!=null){
+            controller.removeListener(listener);
+            System.out.println(listener);
+        }
+        if(broadcaster!=null){
+            broadcaster.close();
+        }
+        if(remoteSource!=null){
+            remoteSource.close();
+        }
+        if(sharedSource!=null){
+            sharedSource.close();
+        }
+        if(syntheticSource!=null){
+            syntheticSource.close();
+        }
+        if(pipeline!=null){
+            pipeline.close();
+            System.out.println(pipeline);
+        }
+        if(recorder!=null){
+            recorder.close();
+            System.out.println("Recorded poses: "+recorder.getRecords());
+        }
+        if(sampler!=null){
+            System.out.println(sampler);
+        }
+        if(poseGate!=null){
+            System.out.println(poseGate);
+        }
+        if(fxFrames>0){
+            double micros = fxNanos/1000d/fxFrames;
+            System.out.println(String.format("%s: FX thread %.1f us per frame, up to %.0f Hz", 
+                    pipeline!=null?"pipelined":"in pulse", micros, 1e6/micros));
+        }
+        loader.shutdownNow();
+        if(assetCache!=null){
+            System.out.println(assetCache);
+        }
+    }
+
     /*
-    http://jperedadnr.blogspot.com/2013/06/leap-motion-controller-and-javafx-new.html
+    Render delay of --interpolate[=ms], in microseconds
     */
-    private void matrixRotateNode(boolean right, double alf, double bet, double gam){
-        double A11=Math.cos(alf)*Math.cos(gam);
-        double A12=Math.cos(bet)*Math.sin(alf)+Math.cos(alf)*Math.sin(bet)*Math.sin(gam);
-        double A13=Math.sin(alf)*Math.sin(bet)-Math.cos(alf)*Math.cos(bet)*Math.sin(gam);
-        double A21=-Math.cos(gam)*Math.sin(alf);
-        double A22=Math.cos(alf)*Math.cos(bet)-Math.sin(alf)*Math.sin(bet)*Math.sin(gam);
-        double A23=Math.cos(alf)*Math.sin(bet)+Math.cos(bet)*Math.sin(alf)*Math.sin(gam);
-        double A31=Math.sin(gam);
-        double A32=-Math.cos(gam)*Math.sin(bet);
-        double A33=Math.cos(bet)*Math.cos(gam);
-         
-        double d = Math.acos((A11+A22+A33-1d)/2d);
-        if(d!=0d){
-            double den=2d*Math.sin(d);
-            Point3D p= new Point3D((A32-A23)/den,(A13-A31)/den,(A21-A12)/den);
-            if(right){
-                ((Joint)forestRight.get(0)).rx.setAxis(p);
-                ((Joint)forestRight.get(0)).rx.setAngle(Math.toDegrees(d));                   
-            } else {
-                ((Joint)forestLeft.get(0)).rx.setAxis(p);
-                ((Joint)forestLeft.get(0)).rx.setAngle(Math.toDegrees(d));                   
-            }
-        }
+    private static long interpolationDelay(String millis){
+        return millis!=null && !millis.isEmpty()?(long)(1000d*Double.parseDouble(millis)):PoseSampler.DEFAULT_DELAY;
     }
-    
+
     /**
      * @param args the command line arguments
      */
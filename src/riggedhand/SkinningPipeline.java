@@ -0,0 +1,282 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.io.Closeable;
+import java.util.concurrent.locks.LockSupport;
+import javafx.collections.ObservableList;
+import javafx.scene.transform.Transform;
+import utils.HandPose;
+import utils.HandPoseSource;
+
+/**
+ * Skins the hands in a thread of its own, so skinning doesn't come out of the
+ * JavaFX pulse: the skinning thread takes the latest pose of every hand,
+ * evaluates the skeleton from it without touching the joints, that belong to
+ * the scene, and skins into one of two buffers, with the subdivided points and
+ * the skinned normals the mesh shows. On every pulse the FX thread only moves
+ * the joints to the pose of the finished buffer and copies it into the mesh.
+ *
+ * A hand isn't skinned again until its finished buffer is shown, so while the
+ * FX thread renders frame N the skinning thread computes frame N+1, and the
+ * points shown are at most one frame older than the pose.
+ */
+public class SkinningPipeline implements Closeable {
+
+    private static final long IDLE = 500_000L;  // ns without new poses
+
+    private final HandPoseSource source;
+    private final Hand[] hands;
+    private final Object lock = new Object();
+    private Thread thread;
+    private volatile boolean running;
+
+    private long pulses = 0;
+    private long pulseNanos = 0;
+    private long shown = 0;
+    private long skinned = 0;
+    private long skinNanos = 0;
+
+    /**
+     * @param source poses of the hands, polled from the skinning thread
+     */
+    public SkinningPipeline(HandPoseSource source, HandRig rigLeft, HandRig rigRight){
+        this.source = source;
+        hands = new Hand[]{new Hand(rigLeft, false), new Hand(rigRight, true)};
+    }
+
+    public synchronized void start(){
+        if(thread != null){
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "SkinningPipeline");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close(){
+        running = false;
+    }
+
+    /**
+     * Shows the finished buffers. Must be called from the FX thread on every
+     * pulse, instead of applying the poses
+     */
+    public void pulse(){
+        long time = System.nanoTime();
+        for (Hand hand : hands) {
+            synchronized (lock) {
+                if(hand.ready >= 0){
+                    Model model = hand.readyModel;
+                    // dropped if the model was swapped meanwhile
+                    if(model.mesh == hand.rig.getMesh()){
+                        hand.rig.moveJoints(model.poses[hand.ready]);
+                        model.mesh.setSkinned(model.buffers[hand.ready]);
+                        shown++;
+                    }
+                    hand.ready = -1;
+                }
+                if(hand.model.mesh != hand.rig.getMesh()){
+                    hand.model = new Model(hand.rig);
+                }
+            }
+        }
+        synchronized (lock) {
+            pulses++;
+            pulseNanos += System.nanoTime() - time;
+        }
+    }
+
+    /**
+     * @return average time of a pulse in the FX thread, in microseconds
+     */
+    public double getPulseMicros() {
+        synchronized (lock) {
+            return pulses > 0 ? pulseNanos / 1000d / pulses : 0d;
+        }
+    }
+
+    /**
+     * @return average time to evaluate and skin a hand, in microseconds
+     */
+    public double getSkinMicros() {
+        synchronized (lock) {
+            return skinned > 0 ? skinNanos / 1000d / skinned : 0d;
+        }
+    }
+
+    public long getPulses() { synchronized (lock) { return pulses; } }
+    public long getShown() { synchronized (lock) { return shown; } }
+    public long getSkinned() { synchronized (lock) { return skinned; } }
+
+    @Override
+    public String toString() {
+        double pulse = getPulseMicros(), skin = getSkinMicros();
+        return "SkinningPipeline{" + "pulses=" + getPulses() + ", shown=" + getShown() + ", skinned=" + getSkinned() +
+                String.format(", fxMicros=%.1f, skinMicros=%.1f, maxFxRate=%.0f Hz, maxSkinRate=%.0f Hz}",
+                        pulse, skin, pulse > 0 ? 1e6 / pulse : 0d, skin > 0 ? 1e6 / (hands.length * skin) : 0d);
+    }
+
+    private void run(){
+        while(running){
+            boolean work = false;
+            for (Hand hand : hands) {
+                Model model;
+                int back;
+                synchronized (lock) {
+                    if(hand.ready >= 0){
+                        // not shown yet
+                        continue;
+                    }
+                    model = hand.model;
+                    back = hand.back;
+                }
+                if(!source.poll(hand.right, hand.latest)){
+                    continue;
+                }
+                long time = System.nanoTime();
+                model.poses[back].copyFrom(hand.latest);
+                model.evaluate(model.poses[back]);
+                model.skinner.skin(model.locals, model.angles, model.buffers[back]);
+                synchronized (lock) {
+                    hand.ready = back;
+                    hand.readyModel = model;
+                    hand.back = 1 - back;
+                    skinned++;
+                    skinNanos += System.nanoTime() - time;
+                }
+                work = true;
+            }
+            if(!work){
+                LockSupport.parkNanos(IDLE);
+            }
+        }
+    }
+
+    private static final class Hand {
+
+        private final HandRig rig;
+        private final boolean right;
+        private final HandPose latest;
+        private Model model;
+        private Model readyModel;
+        private int ready = -1;
+        private int back = 0;
+
+        private Hand(HandRig rig, boolean right){
+            this.rig = rig;
+            this.right = right;
+            latest = new HandPose(right);
+            model = new Model(rig);
+        }
+    }
+
+    /*
+    Skeleton of a model, evaluated from poses in the skinning thread: the local
+    transform of every joint is pre * rz ry rx * post, with pre and post taken
+    from its transforms when the model is set. The translation of the root comes
+    from the pose
+    */
+    private static final class Model {
+
+        private final HandSkinningMesh mesh;
+        private final HandSkinningMesh.Skinner skinner;
+        private final int root;
+        private final int[] slots;
+        private final double[] pre;
+        private final double[] post;
+        private final double[] rotations;
+        private final double[] locals;
+        private final double[] angles;
+        private final double[] matrix = new double[12];
+        private final double offsetX;
+        private final double leapScale;
+        private final HandPose[] poses = {new HandPose(false), new HandPose(false)};
+        private final HandSkinningMesh.Skinned[] buffers;
+
+        private Model(HandRig rig){
+            mesh = rig.getMesh();
+            skinner = mesh.createSkinner();
+            offsetX = rig.getOffsetX();
+            leapScale = rig.getLeapScale();
+            Joint[] joints = mesh.getJoints();
+            final int nJoints = joints.length;
+            Joint rootJoint = (Joint)rig.getJointForest().get(0);
+            Joint[] poseJoints = rig.getPoseJoints();
+            int rootIndex = -1;
+            slots = new int[nJoints];
+            pre = new double[12 * nJoints];
+            post = new double[12 * nJoints];
+            rotations = new double[12 * nJoints];
+            locals = new double[12 * nJoints];
+            angles = new double[nJoints];
+            for (int j = 0; j < nJoints; j++) {
+                Joint joint = joints[j];
+                if(joint == rootJoint){
+                    rootIndex = j;
+                }
+                slots[j] = -1;
+                for (int i = 0; i < poseJoints.length; i++) {
+                    if(poseJoints[i] == joint){
+                        slots[j] = i;
+                    }
+                }
+                // pre: up to rz, without the translation of the root; rotation: rz ry rx; post: after rx
+                ObservableList<Transform> transforms = joint.getTransforms();
+                int z = transforms.indexOf(joint.rz), x = transforms.indexOf(joint.rx);
+                if(z < 0 || x < z){
+                    z = x = transforms.size();
+                }
+                HandSkinningMesh.identity(pre, 12 * j);
+                HandSkinningMesh.identity(rotations, 12 * j);
+                HandSkinningMesh.identity(post, 12 * j);
+                for (int i = 0; i < transforms.size(); i++) {
+                    Transform t = transforms.get(i);
+                    if(i < z){
+                        if(joint != rootJoint || t != joint.t){
+                            HandSkinningMesh.concatenate(pre, 12 * j, t, pre, 12 * j);
+                        }
+                    } else if(i <= x){
+                        HandSkinningMesh.concatenate(rotations, 12 * j, t, rotations, 12 * j);
+                    } else {
+                        HandSkinningMesh.concatenate(post, 12 * j, t, post, 12 * j);
+                    }
+                }
+            }
+            root = rootIndex;
+            buffers = new HandSkinningMesh.Skinned[]{mesh.createSkinned(), mesh.createSkinned()};
+        }
+
+        private void evaluate(HandPose pose){
+            float[] jointRotations = pose.getRotations();
+            for (int j = 0; j < slots.length; j++) {
+                if(j == root){
+                    rotation(pose.getPalmRotation(), 0, rotations, 12 * j);
+                } else if(slots[j] >= 0 && pose.isJointValid(slots[j])){
+                    rotation(jointRotations, 4 * slots[j], rotations, 12 * j);
+                }
+                HandSkinningMesh.multiply(pre, 12 * j, rotations, 12 * j, matrix, 0);
+                HandSkinningMesh.multiply(matrix, 0, post, 12 * j, locals, 12 * j);
+                angles[j] = HandSkinningMesh.flexion(rotations, 12 * j);
+            }
+            if(root >= 0){
+                float[] position = pose.getPosition();
+                locals[12 * root + 3] += offsetX - position[0] / leapScale;
+                locals[12 * root + 7] += position[1] / leapScale;
+                locals[12 * root + 11] += -position[2] / leapScale;
+            }
+        }
+
+        /*
+        Quaternion (x, y, z, w) to a 3x4 rotation matrix, the same as rz ry rx
+        with the angles HandRig sets
+        */
+        private static void rotation(float[] q, int offset, double[] m, int mo){
+            double x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+            m[mo] = 1d - 2d * (y * y + z * z); m[mo + 1] = 2d * (x * y - w * z); m[mo + 2] = 2d * (x * z + w * y); m[mo + 3] = 0d;
+            m[mo + 4] = 2d * (x * y + w * z); m[mo + 5] = 1d - 2d * (x * x + z * z); m[mo + 6] = 2d * (y * z - w * x); m[mo + 7] = 0d;
+            m[mo + 8] = 2d * (x * z - w * y); m[mo + 9] = 2d * (y * z + w * x); m[mo + 10] = 1d - 2d * (x * x + y * y); m[mo + 11] = 0d;
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package riggedhand;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Catmull-Clark subdivision of a {@link FlatMesh} as sparse stencils: every
+ * subdivided point is a fixed linear combination of the control points, so
+ * it can be computed from the skinned points of the coarse mesh (the cage)
+ * instead of skinning the subdivided mesh. The weights only depend on the
+ * topology, and are computed once per model and level, composing the levels.
+ *
+ * The rules are the ones of the 3DViewer SubdivisionMesh:
+ * - face point: average of the points of the face
+ * - edge point: midpoint of a boundary edge, or the average of its two points
+ *   and the face points around it
+ * - vertex point: ((n-3) V + 2 R + F) / n for n faces around, with R and F
+ *   the averages of the edge midpoints and the face points, and
+ *   V/2 + 1/4 of the boundary edge points at the boundary (BoundaryMode
+ *   CREASE_EDGES, or CREASE_ALL for points with an internal edge; with
+ *   CREASE_ALL points with only boundary edges don't move)
+ *
+ * Texture coordinates are interpolated, not smoothed (MapBorderMode
+ * NOT_SMOOTH), so seams stay where they are. Faces are quads after the first
+ * level; they are split in two triangles at the end, for the TriangleMesh.
+ *
+ * Weights are stored in compressed rows: the control points of the point p go
+ * from <code>starts[p]</code> to <code>starts[p+1]</code>.
+ */
+public class SubdivisionStencils {
+
+    public enum BoundaryMode { CREASE_EDGES, CREASE_ALL }
+
+    // points per chunk when evaluating in parallel
+    private static final int CHUNK = 4096;
+
+    private final int level;
+    private final int nControlPoints;
+    private final int[] starts;
+    private final int[] indices;
+    private final float[] weights;
+    private final float[] texCoords;
+    private final int[] faces;
+    private final int[] faceSmoothingGroups;
+
+    private SubdivisionStencils(int level, int nControlPoints, int[] starts, int[] indices, float[] weights,
+            float[] texCoords, int[] faces, int[] faceSmoothingGroups){
+        this.level = level;
+        this.nControlPoints = nControlPoints;
+        this.starts = starts;
+        this.indices = indices;
+        this.weights = weights;
+        this.texCoords = texCoords;
+        this.faces = faces;
+        this.faceSmoothingGroups = faceSmoothingGroups;
+    }
+
+    /**
+     * @param mesh triangle mesh, not modified
+     * @param level subdivision level, 1 or more
+     * @param boundaryMode rule for the boundary points
+     * @return stencils, faces and texture coordinates of the subdivided mesh
+     */
+    public static SubdivisionStencils build(FlatMesh mesh, int level, BoundaryMode boundaryMode){
+        if(level < 1){
+            throw new IllegalArgumentException("Subdivision level must be 1 or more: " + level);
+        }
+        final int nFaces = mesh.getNumFaces();
+        Polygons polygons = new Polygons(mesh.getNumPoints(), nFaces, 3 * nFaces, mesh.texCoords);
+        for (int f = 0; f < nFaces; f++) {
+            for (int k = 0; k < 3; k++) {
+                polygons.points[3 * f + k] = mesh.faces[FlatMesh.FACE_SIZE * f + 2 * k];
+                polygons.texIndices[3 * f + k] = mesh.faces[FlatMesh.FACE_SIZE * f + 2 * k + 1];
+            }
+            polygons.starts[f + 1] = 3 * (f + 1);
+            polygons.smoothingGroups[f] = mesh.faceSmoothingGroups[f];
+        }
+        // level 0: every point is its control point
+        final int nControlPoints = mesh.getNumPoints();
+        int[] starts = new int[nControlPoints + 1];
+        int[] indices = new int[nControlPoints];
+        float[] weights = new float[nControlPoints];
+        for (int p = 0; p < nControlPoints; p++) {
+            starts[p + 1] = p + 1;
+            indices[p] = p;
+            weights[p] = 1f;
+        }
+        Stencil stencil = new Stencil(nControlPoints, starts, indices, weights);
+        for (int l = 0; l < level; l++) {
+            Polygons next = polygons.subdivide(stencil, boundaryMode);
+            polygons = next;
+            stencil = next.stencil;
+        }
+
+        // quads to triangles
+        int nTriangles = 0;
+        for (int f = 0; f < polygons.nFaces; f++) {
+            nTriangles += polygons.size(f) - 2;
+        }
+        int[] faces = new int[FlatMesh.FACE_SIZE * nTriangles];
+        int[] smoothingGroups = new int[nTriangles];
+        for (int f = 0, t = 0; f < polygons.nFaces; f++) {
+            int s = polygons.starts[f];
+            for (int k = 1; k < polygons.size(f) - 1; k++, t++) {
+                int o = FlatMesh.FACE_SIZE * t;
+                faces[o] = polygons.points[s];
+                faces[o + 1] = polygons.texIndices[s];
+                faces[o + 2] = polygons.points[s + k];
+                faces[o + 3] = polygons.texIndices[s + k];
+                faces[o + 4] = polygons.points[s + k + 1];
+                faces[o + 5] = polygons.texIndices[s + k + 1];
+                smoothingGroups[t] = polygons.smoothingGroups[f];
+            }
+        }
+        return new SubdivisionStencils(level, nControlPoints, stencil.starts, stencil.indices, stencil.weights,
+                polygons.texCoords, faces, smoothingGroups);
+    }
+
+    public int getLevel() { return level; }
+    public int getNumControlPoints() { return nControlPoints; }
+    public int getNumPoints() { return starts.length - 1; }
+    public int getNumFaces() { return faces.length / FlatMesh.FACE_SIZE; }
+
+    /**
+     * @return number of weights of all the stencils
+     */
+    public int getNumWeights() { return indices.length; }
+
+    /**
+     * @return texture coordinates of the subdivided mesh, not to be modified
+     */
+    public float[] getTexCoords() { return texCoords; }
+
+    /**
+     * @return triangles of the subdivided mesh, in the layout of the
+     * TriangleMesh, not to be modified
+     */
+    public int[] getFaces() { return faces; }
+
+    public int[] getFaceSmoothingGroups() { return faceSmoothingGroups; }
+
+    /**
+     * @return estimated heap used by the stencils and the subdivided faces, in bytes
+     */
+    public long estimateBytes(){
+        return FlatMesh.arrayBytes(starts.length) + FlatMesh.arrayBytes(indices.length) +
+               FlatMesh.arrayBytes(weights.length) + FlatMesh.arrayBytes(texCoords.length) +
+               FlatMesh.arrayBytes(faces.length) + FlatMesh.arrayBytes(faceSmoothingGroups.length);
+    }
+
+    /**
+     * Subdivided points from the control points
+     * @param cage x, y, z of every control point
+     * @param target x, y, z of every subdivided point
+     */
+    public void apply(float[] cage, float[] target){
+        apply(cage, target, 0, getNumPoints());
+    }
+
+    /**
+     * Subdivided points from the control points, from one point to another
+     * @param cage x, y, z of every control point
+     * @param target x, y, z of every subdivided point
+     * @param from first point, inclusive
+     * @param to last point, exclusive
+     */
+    public void apply(float[] cage, float[] target, int from, int to){
+        for (int p = from; p < to; p++) {
+            float x = 0f, y = 0f, z = 0f;
+            for (int k = starts[p]; k < starts[p + 1]; k++) {
+                final int c = 3 * indices[k];
+                final float w = weights[k];
+                x += w * cage[c];
+                y += w * cage[c + 1];
+                z += w * cage[c + 2];
+            }
+            target[3 * p] = x;
+            target[3 * p + 1] = y;
+            target[3 * p + 2] = z;
+        }
+    }
+
+    /**
+     * @param target x, y, z of every subdivided point, written by the evaluator
+     * @return evaluator of the stencils into the target, in parallel
+     */
+    public Evaluator createEvaluator(float[] target){
+        return new Evaluator(target, Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), getNumPoints() / CHUNK)));
+    }
+
+    /**
+     * Applies the stencils into a fixed target, split in chunks of points that
+     * run in the common ForkJoinPool. The tasks are created once and reused,
+     * so evaluating doesn't allocate. With a single chunk (small meshes or a
+     * single core) it runs in the calling thread
+     */
+    public class Evaluator {
+
+        private final float[] target;
+        private final Chunk[] chunks;
+        private float[] cage;
+
+        private Evaluator(float[] target, int nChunks){
+            this.target = target;
+            chunks = new Chunk[nChunks];
+            final int nPoints = getNumPoints();
+            for (int i = 0; i < nChunks; i++) {
+                chunks[i] = new Chunk((int)((long)nPoints * i / nChunks), (int)((long)nPoints * (i + 1) / nChunks));
+            }
+        }
+
+        public float[] getTarget() { return target; }
+        public int getNumChunks() { return chunks.length; }
+
+        /**
+         * @param cage x, y, z of every control point
+         */
+        public void apply(float[] cage){
+            if(chunks.length == 1){
+                SubdivisionStencils.this.apply(cage, target);
+                return;
+            }
+            this.cage = cage;
+            for (int i = 1; i < chunks.length; i++) {
+                chunks[i].reinitialize();
+                chunks[i].fork();
+            }
+            chunks[0].reinitialize();
+            chunks[0].invoke();
+            for (int i = 1; i < chunks.length; i++) {
+                chunks[i].join();
+            }
+            this.cage = null;
+        }
+
+        private final class Chunk extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            private Chunk(int from, int to){
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute(){
+                SubdivisionStencils.this.apply(cage, target, from, to);
+            }
+        }
+    }
+
+    /*
+    Weights of the points of a level over the control points
+    */
+    private static final class Stencil {
+
+        private final int nControlPoints;
+        private final int[] starts;
+        private final int[] indices;
+        private final float[] weights;
+
+        private Stencil(int nControlPoints, int[] starts, int[] indices, float[] weights){
+            this.nControlPoints = nControlPoints;
+            this.starts = starts;
+            this.indices = indices;
+            this.weights = weights;
+        }
+    }
+
+    /*
+    Polygons of a level, in compressed rows of point and texture coordinate
+    indices, and the stencils of its points
+    */
+    private static final class Polygons {
+
+        private final int nPoints;
+        private final int nFaces;
+        private final int[] starts;
+        private final int[] points;
+        private final int[] texIndices;
+        private final float[] texCoords;
+        private final int[] smoothingGroups;
+        private Stencil stencil;
+
+        private Polygons(int nPoints, int nFaces, int nCorners, float[] texCoords){
+            this.nPoints = nPoints;
+            this.nFaces = nFaces;
+            starts = new int[nFaces + 1];
+            points = new int[nCorners];
+            texIndices = new int[nCorners];
+            this.texCoords = texCoords;
+            smoothingGroups = new int[nFaces];
+        }
+
+        private int size(int f) { return starts[f + 1] - starts[f]; }
+
+        /*
+        Next level: the points of this level first, then one per face and one
+        per edge. Every face of n points becomes n quads
+        */
+        private Polygons subdivide(Stencil stencil, BoundaryMode boundaryMode){
+            final int nCorners = points.length;
+            // edges, by their points
+            HashMap<Long,Integer> edgeIds = new HashMap<>(2 * nCorners);
+            int[] cornerEdges = new int[nCorners];
+            int[] edgeFrom = new int[nCorners], edgeTo = new int[nCorners];
+            int nEdges = 0;
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = starts[f]; c < starts[f + 1]; c++) {
+                    int a = points[c], b = points[c + 1 < starts[f + 1] ? c + 1 : starts[f]];
+                    Long key = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+                    Integer id = edgeIds.get(key);
+                    if(id == null){
+                        id = nEdges;
+                        edgeIds.put(key, id);
+                        edgeFrom[nEdges] = a;
+                        edgeTo[nEdges++] = b;
+                    }
+                    cornerEdges[c] = id;
+                }
+            }
+            // faces of every edge
+            int[] edgeFaceStarts = new int[nEdges + 1];
+            for (int c = 0; c < nCorners; c++) {
+                edgeFaceStarts[cornerEdges[c] + 1]++;
+            }
+            for (int e = 0; e < nEdges; e++) {
+                edgeFaceStarts[e + 1] += edgeFaceStarts[e];
+            }
+            int[] edgeFaces = new int[nCorners];
+            int[] fill = Arrays.copyOf(edgeFaceStarts, nEdges);
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = starts[f]; c < starts[f + 1]; c++) {
+                    edgeFaces[fill[cornerEdges[c]]++] = f;
+                }
+            }
+            // faces and edges of every point
+            int[] pointFaceStarts = new int[nPoints + 1];
+            for (int c = 0; c < nCorners; c++) {
+                pointFaceStarts[points[c] + 1]++;
+            }
+            for (int p = 0; p < nPoints; p++) {
+                pointFaceStarts[p + 1] += pointFaceStarts[p];
+            }
+            int[] pointFaces = new int[nCorners];
+            fill = Arrays.copyOf(pointFaceStarts, nPoints);
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = starts[f]; c < starts[f + 1]; c++) {
+                    pointFaces[fill[points[c]]++] = f;
+                }
+            }
+            int[] pointEdgeStarts = new int[nPoints + 1];
+            for (int e = 0; e < nEdges; e++) {
+                pointEdgeStarts[edgeFrom[e] + 1]++;
+                pointEdgeStarts[edgeTo[e] + 1]++;
+            }
+            for (int p = 0; p < nPoints; p++) {
+                pointEdgeStarts[p + 1] += pointEdgeStarts[p];
+            }
+            int[] pointEdges = new int[2 * nEdges];
+            fill = Arrays.copyOf(pointEdgeStarts, nPoints);
+            for (int e = 0; e < nEdges; e++) {
+                pointEdges[fill[edgeFrom[e]]++] = e;
+                pointEdges[fill[edgeTo[e]]++] = e;
+            }
+
+            // stencils of the new points
+            final int nNewPoints = nPoints + nFaces + nEdges;
+            Accumulator acc = new Accumulator(stencil);
+            int[] newStarts = new int[nNewPoints + 1];
+            IntArray newIndices = new IntArray(8 * nNewPoints);
+            FloatArray newWeights = new FloatArray(8 * nNewPoints);
+            int p = 0;
+            for (int v = 0; v < nPoints; v++, p++) {
+                int faceCount = pointFaceStarts[v + 1] - pointFaceStarts[v];
+                boolean boundary = false, internal = false;
+                for (int i = pointEdgeStarts[v]; i < pointEdgeStarts[v + 1]; i++) {
+                    int e = pointEdges[i];
+                    if(edgeFaceStarts[e + 1] - edgeFaceStarts[e] == 1){
+                        boundary = true;
+                    } else {
+                        internal = true;
+                    }
+                }
+                if(faceCount == 0 || (boundary && boundaryMode == BoundaryMode.CREASE_ALL && !internal)){
+                    acc.add(v, 1d);
+                } else if(boundary){
+                    acc.add(v, 0.5d);
+                    for (int i = pointEdgeStarts[v]; i < pointEdgeStarts[v + 1]; i++) {
+                        int e = pointEdges[i];
+                        if(edgeFaceStarts[e + 1] - edgeFaceStarts[e] == 1){
+                            acc.add(edgeFrom[e], 0.125d);
+                            acc.add(edgeTo[e], 0.125d);
+                        }
+                    }
+                } else {
+                    final double n = faceCount;
+                    acc.add(v, (n - 3d) / n);
+                    for (int i = pointEdgeStarts[v]; i < pointEdgeStarts[v + 1]; i++) {
+                        int e = pointEdges[i];
+                        acc.add(edgeFrom[e], 1d / (n * n));
+                        acc.add(edgeTo[e], 1d / (n * n));
+                    }
+                    for (int i = pointFaceStarts[v]; i < pointFaceStarts[v + 1]; i++) {
+                        addFacePoint(acc, pointFaces[i], 1d / (n * n));
+                    }
+                }
+                newStarts[p + 1] = acc.flush(newIndices, newWeights);
+            }
+            for (int f = 0; f < nFaces; f++, p++) {
+                addFacePoint(acc, f, 1d);
+                newStarts[p + 1] = acc.flush(newIndices, newWeights);
+            }
+            for (int e = 0; e < nEdges; e++, p++) {
+                int faceCount = edgeFaceStarts[e + 1] - edgeFaceStarts[e];
+                if(faceCount == 1){
+                    acc.add(edgeFrom[e], 0.5d);
+                    acc.add(edgeTo[e], 0.5d);
+                } else {
+                    final double w = 1d / (faceCount + 2);
+                    acc.add(edgeFrom[e], w);
+                    acc.add(edgeTo[e], w);
+                    for (int i = edgeFaceStarts[e]; i < edgeFaceStarts[e + 1]; i++) {
+                        addFacePoint(acc, edgeFaces[i], w);
+                    }
+                }
+                newStarts[p + 1] = acc.flush(newIndices, newWeights);
+            }
+
+            // texture coordinates: the ones of this level, then one per face,
+            // then one per pair of texture coordinates along an edge. Faces and
+            // edges with a single texture coordinate (models without them) reuse it
+            HashMap<Long,Integer> edgeTexIds = new HashMap<>(2 * nCorners);
+            FloatArray newTexCoords = new FloatArray(texCoords.length + 2 * nFaces + 2 * nCorners);
+            newTexCoords.addAll(texCoords);
+            int[] faceTexIndices = new int[nFaces];
+            for (int f = 0; f < nFaces; f++) {
+                float u = 0f, v = 0f;
+                boolean single = true;
+                for (int c = starts[f]; c < starts[f + 1]; c++) {
+                    u += texCoords[2 * texIndices[c]];
+                    v += texCoords[2 * texIndices[c] + 1];
+                    single &= texIndices[c] == texIndices[starts[f]];
+                }
+                if(single){
+                    faceTexIndices[f] = texIndices[starts[f]];
+                } else {
+                    faceTexIndices[f] = newTexCoords.size() / 2;
+                    newTexCoords.add(u / size(f));
+                    newTexCoords.add(v / size(f));
+                }
+            }
+            int[] cornerTexEdges = new int[nCorners];
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = starts[f]; c < starts[f + 1]; c++) {
+                    int a = texIndices[c], b = texIndices[c + 1 < starts[f + 1] ? c + 1 : starts[f]];
+                    Long key = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+                    Integer id = a == b ? Integer.valueOf(a) : edgeTexIds.get(key);
+                    if(id == null){
+                        id = newTexCoords.size() / 2;
+                        edgeTexIds.put(key, id);
+                        newTexCoords.add(0.5f * (texCoords[2 * a] + texCoords[2 * b]));
+                        newTexCoords.add(0.5f * (texCoords[2 * a + 1] + texCoords[2 * b + 1]));
+                    }
+                    cornerTexEdges[c] = id;
+                }
+            }
+
+            // quads: point, edge point after it, face point, edge point before it
+            Polygons next = new Polygons(nNewPoints, nCorners, 4 * nCorners, newTexCoords.toArray());
+            for (int f = 0, q = 0; f < nFaces; f++) {
+                for (int c = starts[f]; c < starts[f + 1]; c++, q++) {
+                    int previous = c > starts[f] ? c - 1 : starts[f + 1] - 1;
+                    next.points[4 * q] = points[c];
+                    next.points[4 * q + 1] = nPoints + nFaces + cornerEdges[c];
+                    next.points[4 * q + 2] = nPoints + f;
+                    next.points[4 * q + 3] = nPoints + nFaces + cornerEdges[previous];
+                    next.texIndices[4 * q] = texIndices[c];
+                    next.texIndices[4 * q + 1] = cornerTexEdges[c];
+                    next.texIndices[4 * q + 2] = faceTexIndices[f];
+                    next.texIndices[4 * q + 3] = cornerTexEdges[previous];
+                    next.starts[q + 1] = 4 * (q + 1);
+                    next.smoothingGroups[q] = smoothingGroups[f];
+                }
+            }
+            next.stencil = new Stencil(stencil.nControlPoints, newStarts, newIndices.toArray(), newWeights.toArray());
+            return next;
+        }
+
+        private void addFacePoint(Accumulator acc, int f, double w){
+            final double wp = w / size(f);
+            for (int c = starts[f]; c < starts[f + 1]; c++) {
+                acc.add(points[c], wp);
+            }
+        }
+    }
+
+    /*
+    Sum of weighted points of the previous level, expanded over the control
+    points with the stencils of that level
+    */
+    private static final class Accumulator {
+
+        private final Stencil stencil;
+        private final double[] sums;
+        private final int[] touched;
+        private int nTouched;
+        private int total;
+
+        private Accumulator(Stencil stencil){
+            this.stencil = stencil;
+            sums = new double[stencil.nControlPoints];
+            touched = new int[stencil.nControlPoints];
+        }
+
+        private void add(int point, double w){
+            for (int k = stencil.starts[point]; k < stencil.starts[point + 1]; k++) {
+                int c = stencil.indices[k];
+                if(sums[c] == 0d){
+                    touched[nTouched++] = c;
+                }
+                sums[c] += w * stencil.weights[k];
+                if(sums[c] == 0d){
+                    // keeps it touched
+                    sums[c] = Double.MIN_VALUE;
+                }
+            }
+        }
+
+        /*
+        Appends the weights, by control point, and clears the sum
+        @return number of weights appended so far
+        */
+        private int flush(IntArray indices, FloatArray weights){
+            Arrays.sort(touched, 0, nTouched);
+            for (int i = 0; i < nTouched; i++) {
+                int c = touched[i];
+                // weights that cancel out are dropped
+                if((float)sums[c] != 0f){
+                    indices.add(c);
+                    weights.add((float)sums[c]);
+                    total++;
+                }
+                sums[c] = 0d;
+            }
+            nTouched = 0;
+            return total;
+        }
+    }
+
+    private static final class IntArray {
+
+        private int[] values;
+        private int size;
+
+        private IntArray(int capacity) { values = new int[Math.max(16, capacity)]; }
+
+        private void add(int v){
+            if(size == values.length){
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = v;
+        }
+
+        private int[] toArray() { return Arrays.copyOf(values, size); }
+    }
+
+    private static final class FloatArray {
+
+        private float[] values;
+        private int size;
+
+        private FloatArray(int capacity) { values = new float[Math.max(16, capacity)]; }
+
+        private int size() { return size; }
+
+        private void add(float v){
+            if(size == values.length){
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = v;
+        }
+
+        private void addAll(float[] v){
+            for (float f : v) {
+                add(f);
+            }
+        }
+
+        private float[] toArray() { return Arrays.copyOf(values, size); }
+    }
+}
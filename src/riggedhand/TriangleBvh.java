@@ -0,0 +1,331 @@
+package riggedhand;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy of axis aligned boxes over the triangles of a
+ * {@link FlatMesh}, for picking and collisions against the skinned hand.
+ *
+ * The tree is built once, splitting by the median of the triangle centroids,
+ * and then only refit: skinning moves the points but keeps the topology, so
+ * the boxes are recomputed bottom up with the same triangles in every node.
+ * The tree gets looser with extreme poses, but refitting is linear and much
+ * cheaper than rebuilding every frame.
+ *
+ * Nodes are stored in flat arrays, in depth first order, so children always
+ * come after their parent. Queries reuse a traversal stack, so they are meant
+ * to be done from one thread, like the skinning.
+ */
+public class TriangleBvh {
+
+    public static final int LEAF_SIZE = 4;
+
+    private final int[] faces;
+    private final int[] order;          // triangles, grouped by leaf
+    private float[] bounds;             // minX, minY, minZ, maxX, maxY, maxZ per node
+    private int[] start;                // leaf: first triangle in order, inner: -1
+    private int[] count;                // leaf: number of triangles, inner: right child
+    private int nNodes;
+    private float[] points;
+    private final int[] stack = new int[64];
+
+    /**
+     * @param faces 6 ints per face: point, texCoord, point, texCoord, point, texCoord
+     * @param points x, y, z per point, used to build the tree and to refit it
+     * later, so they should be updated in place
+     */
+    public TriangleBvh(int[] faces, float[] points){
+        this.faces = faces;
+        this.points = points;
+        final int nFaces = faces.length / FlatMesh.FACE_SIZE;
+        order = new int[nFaces];
+        float[] centroids = new float[3 * nFaces];
+        for (int f = 0; f < nFaces; f++) {
+            order[f] = f;
+            for (int c = 0; c < 3; c++) {
+                int p = 3 * faces[FlatMesh.FACE_SIZE * f + 2 * c];
+                centroids[3 * f] += points[p] / 3f;
+                centroids[3 * f + 1] += points[p + 1] / 3f;
+                centroids[3 * f + 2] += points[p + 2] / 3f;
+            }
+        }
+        int maxNodes = Math.max(1, 2 * nFaces - 1);
+        bounds = new float[6 * maxNodes];
+        start = new int[maxNodes];
+        count = new int[maxNodes];
+        build(centroids, 0, nFaces, new long[nFaces]);
+        bounds = Arrays.copyOf(bounds, 6 * nNodes);
+        start = Arrays.copyOf(start, nNodes);
+        count = Arrays.copyOf(count, nNodes);
+        refit();
+    }
+
+    public int getNumNodes() { return nNodes; }
+
+    /**
+     * Recomputes the boxes from the points given in the constructor
+     */
+    public final void refit(){
+        refit(points);
+    }
+
+    /**
+     * Recomputes the boxes
+     * @param points new position of the points, same number of them
+     */
+    public void refit(float[] points){
+        this.points = points;
+        for (int n = nNodes - 1; n >= 0; n--) {
+            int b = 6 * n;
+            if(start[n] >= 0){
+                bounds[b] = bounds[b + 1] = bounds[b + 2] = Float.POSITIVE_INFINITY;
+                bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = Float.NEGATIVE_INFINITY;
+                for (int i = start[n]; i < start[n] + count[n]; i++) {
+                    int face = FlatMesh.FACE_SIZE * order[i];
+                    for (int c = 0; c < 3; c++) {
+                        int p = 3 * faces[face + 2 * c];
+                        for (int k = 0; k < 3; k++) {
+                            bounds[b + k] = Math.min(bounds[b + k], points[p + k]);
+                            bounds[b + 3 + k] = Math.max(bounds[b + 3 + k], points[p + k]);
+                        }
+                    }
+                }
+            } else {
+                int l = 6 * (n + 1), r = 6 * count[n];
+                for (int k = 0; k < 3; k++) {
+                    bounds[b + k] = Math.min(bounds[l + k], bounds[r + k]);
+                    bounds[b + 3 + k] = Math.max(bounds[l + 3 + k], bounds[r + 3 + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closest triangle hit by a ray, in the coordinates of the points
+     * @param result if not null, gets the distance along the ray (in units of
+     * the direction) and the barycentric coordinates u, v of the hit in the triangle
+     * @return index of the face, or -1 if there's no hit
+     */
+    public int intersectRay(double ox, double oy, double oz, double dx, double dy, double dz, double[] result){
+        double ix = 1d / dx, iy = 1d / dy, iz = 1d / dz;
+        double closest = Double.POSITIVE_INFINITY;
+        int hit = -1;
+        double hitU = 0, hitV = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int n = stack[--top];
+            if(rayBox(n, ox, oy, oz, ix, iy, iz) >= closest){
+                continue;
+            }
+            if(start[n] < 0){
+                stack[top++] = count[n];
+                stack[top++] = n + 1;
+                continue;
+            }
+            for (int i = start[n]; i < start[n] + count[n]; i++) {
+                // Moller-Trumbore
+                int face = FlatMesh.FACE_SIZE * order[i];
+                int p0 = 3 * faces[face], p1 = 3 * faces[face + 2], p2 = 3 * faces[face + 4];
+                double e1x = points[p1] - points[p0], e1y = points[p1 + 1] - points[p0 + 1], e1z = points[p1 + 2] - points[p0 + 2];
+                double e2x = points[p2] - points[p0], e2y = points[p2 + 1] - points[p0 + 1], e2z = points[p2 + 2] - points[p0 + 2];
+                double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+                double det = e1x * px + e1y * py + e1z * pz;
+                if(Math.abs(det) < 1e-12){
+                    continue;
+                }
+                double inv = 1d / det;
+                double tx = ox - points[p0], ty = oy - points[p0 + 1], tz = oz - points[p0 + 2];
+                double u = (tx * px + ty * py + tz * pz) * inv;
+                if(u < 0 || u > 1){
+                    continue;
+                }
+                double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+                double v = (dx * qx + dy * qy + dz * qz) * inv;
+                if(v < 0 || u + v > 1){
+                    continue;
+                }
+                double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+                if(t >= 0 && t < closest){
+                    closest = t;
+                    hit = order[i];
+                    hitU = u;
+                    hitV = v;
+                }
+            }
+        }
+        if(hit >= 0 && result != null){
+            result[0] = closest;
+            result[1] = hitU;
+            result[2] = hitV;
+        }
+        return hit;
+    }
+
+    /**
+     * Triangles that intersect a sphere, in the coordinates of the points
+     * @param result indices of the faces found, up to its length
+     * @return number of faces found, that can be more than the length of result
+     */
+    public int intersectSphere(double cx, double cy, double cz, double radius, int[] result){
+        final double r2 = radius * radius;
+        int found = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int n = stack[--top];
+            int b = 6 * n;
+            double dx = Math.max(0, Math.max(bounds[b] - cx, cx - bounds[b + 3]));
+            double dy = Math.max(0, Math.max(bounds[b + 1] - cy, cy - bounds[b + 4]));
+            double dz = Math.max(0, Math.max(bounds[b + 2] - cz, cz - bounds[b + 5]));
+            if(dx * dx + dy * dy + dz * dz > r2){
+                continue;
+            }
+            if(start[n] < 0){
+                stack[top++] = count[n];
+                stack[top++] = n + 1;
+                continue;
+            }
+            for (int i = start[n]; i < start[n] + count[n]; i++) {
+                int face = FlatMesh.FACE_SIZE * order[i];
+                if(distance2(cx, cy, cz, 3 * faces[face], 3 * faces[face + 2], 3 * faces[face + 4]) <= r2){
+                    if(found < result.length){
+                        result[found] = order[i];
+                    }
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true if any triangle intersects the sphere
+     */
+    public boolean intersectsSphere(double cx, double cy, double cz, double radius){
+        return intersectSphere(cx, cy, cz, radius, EMPTY) > 0;
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    /*
+    Median split of the centroids along the longest axis. The depth of the
+    stack is bounded since both halves have the same size
+    */
+    private int build(float[] centroids, int from, int to, long[] keys){
+        int n = nNodes++;
+        if(to - from <= LEAF_SIZE){
+            start[n] = from;
+            count[n] = to - from;
+            return n;
+        }
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int i = from; i < to; i++) {
+            for (int k = 0; k < 3; k++) {
+                min[k] = Math.min(min[k], centroids[3 * order[i] + k]);
+                max[k] = Math.max(max[k], centroids[3 * order[i] + k]);
+            }
+        }
+        int axis = 0;
+        for (int k = 1; k < 3; k++) {
+            if(max[k] - min[k] > max[axis] - min[axis]){
+                axis = k;
+            }
+        }
+        // sort by (centroid, face) packed in longs
+        for (int i = from; i < to; i++) {
+            keys[i] = ((long)sortable(centroids[3 * order[i] + axis]) << 32) | order[i];
+        }
+        Arrays.sort(keys, from, to);
+        for (int i = from; i < to; i++) {
+            order[i] = (int)keys[i];
+        }
+        int mid = (from + to) >>> 1;
+        start[n] = -1;
+        build(centroids, from, mid, keys);
+        count[n] = build(centroids, mid, to, keys);
+        return n;
+    }
+
+    /*
+    Float bits with the same order as the float values, as signed int
+    */
+    private static int sortable(float f){
+        int bits = Float.floatToIntBits(f);
+        return bits >= 0 ? bits : bits ^ 0x7fffffff;
+    }
+
+    /*
+    Distance to the entry of the box, infinite if the ray misses it. An axis
+    parallel to the ray doesn't bound the distance, it only needs the origin
+    within the slab: (bound - o) * inverse would give NaN for an origin on its
+    plane, and NaN turns the box into a miss
+    */
+    private double rayBox(int n, double ox, double oy, double oz, double ix, double iy, double iz){
+        int b = 6 * n;
+        double near = 0, far = Double.POSITIVE_INFINITY, t1, t2;
+        if(Double.isInfinite(ix)){
+            if(ox < bounds[b] || ox > bounds[b + 3]){
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (bounds[b] - ox) * ix; t2 = (bounds[b + 3] - ox) * ix;
+            near = Math.max(near, Math.min(t1, t2)); far = Math.min(far, Math.max(t1, t2));
+        }
+        if(Double.isInfinite(iy)){
+            if(oy < bounds[b + 1] || oy > bounds[b + 4]){
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (bounds[b + 1] - oy) * iy; t2 = (bounds[b + 4] - oy) * iy;
+            near = Math.max(near, Math.min(t1, t2)); far = Math.min(far, Math.max(t1, t2));
+        }
+        if(Double.isInfinite(iz)){
+            if(oz < bounds[b + 2] || oz > bounds[b + 5]){
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (bounds[b + 2] - oz) * iz; t2 = (bounds[b + 5] - oz) * iz;
+            near = Math.max(near, Math.min(t1, t2)); far = Math.min(far, Math.max(t1, t2));
+        }
+        return far >= near ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /*
+    Squared distance from a point to a triangle (Ericson, Real-Time Collision Detection 5.1.5)
+    */
+    private double distance2(double px, double py, double pz, int a, int b, int c){
+        double ax = points[a], ay = points[a + 1], az = points[a + 2];
+        double abx = points[b] - ax, aby = points[b + 1] - ay, abz = points[b + 2] - az;
+        double acx = points[c] - ax, acy = points[c + 1] - ay, acz = points[c + 2] - az;
+        double apx = px - ax, apy = py - ay, apz = pz - az;
+        double d1 = abx * apx + aby * apy + abz * apz, d2 = acx * apx + acy * apy + acz * apz;
+        double u, v;
+        if(d1 <= 0 && d2 <= 0){
+            u = 0; v = 0;
+        } else {
+            double bpx = px - points[b], bpy = py - points[b + 1], bpz = pz - points[b + 2];
+            double d3 = abx * bpx + aby * bpy + abz * bpz, d4 = acx * bpx + acy * bpy + acz * bpz;
+            double cpx = px - points[c], cpy = py - points[c + 1], cpz = pz - points[c + 2];
+            double d5 = abx * cpx + aby * cpy + abz * cpz, d6 = acx * cpx + acy * cpy + acz * cpz;
+            double vc = d1 * d4 - d3 * d2, vb = d5 * d2 - d1 * d6, va = d3 * d6 - d5 * d4;
+            if(d3 >= 0 && d4 <= d3){
+                u = 1; v = 0;
+            } else if(d6 >= 0 && d5 <= d6){
+                u = 0; v = 1;
+            } else if(vc <= 0 && d1 >= 0 && d3 <= 0){
+                u = d1 / (d1 - d3); v = 0;
+            } else if(vb <= 0 && d2 >= 0 && d6 <= 0){
+                u = 0; v = d2 / (d2 - d6);
+            } else if(va <= 0 && d4 - d3 >= 0 && d5 - d6 >= 0){
+                v = (d4 - d3) / ((d4 - d3) + (d5 - d6)); u = 1 - v;
+            } else {
+                double denom = 1d / (va + vb + vc);
+                u = vb * denom; v = vc * denom;
+            }
+        }
+        double qx = ax + abx * u + acx * v - px, qy = ay + aby * u + acy * v - py, qz = az + abz * u + acz * v - pz;
+        return qx * qx + qy * qy + qz * qz;
+    }
+}
@@ -0,0 +1,125 @@
+package riggedhand;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Imported normals of a {@link FlatMesh}, for a TriangleMesh with the vertex
+ * format POINT_NORMAL_TEXCOORD: one normal per distinct pair of point and
+ * imported normal, skinned with the influences of its point, so JavaFX uses
+ * them as they are instead of computing normals from the smoothing groups
+ * every time the points change.
+ *
+ * Normals are skinned with the rotation of the palette only, and normalized,
+ * which is right for the rotations and uniform scales of the joints.
+ */
+public class VertexNormals {
+
+    public static final int FACE_SIZE = 9;
+
+    private final FlatMesh mesh;
+    private final float[] normals;
+    private final int[] points;
+    private final int[] faces;
+
+    private VertexNormals(FlatMesh mesh, float[] normals, int[] points, int[] faces){
+        this.mesh = mesh;
+        this.normals = normals;
+        this.points = points;
+        this.faces = faces;
+    }
+
+    /**
+     * @param mesh mesh with normals, not modified
+     * @return the normals of the mesh, or null if it has none
+     */
+    public static VertexNormals build(FlatMesh mesh){
+        if(mesh.normals == null || mesh.normals.length == 0){
+            return null;
+        }
+        final int nFaces = mesh.getNumFaces();
+        HashMap<Long,Integer> ids = new HashMap<>(2 * mesh.getNumPoints());
+        int[] faces = new int[FACE_SIZE * nFaces];
+        int[] points = new int[3 * nFaces];
+        float[] normals = new float[9 * nFaces];
+        int n = 0;
+        for (int f = 0; f < nFaces; f++) {
+            for (int c = 0; c < 3; c++) {
+                int p = mesh.faces[FlatMesh.FACE_SIZE * f + 2 * c];
+                int normal = mesh.faceNormals[3 * f + c];
+                Long key = ((long)p << 32) | normal;
+                Integer id = ids.get(key);
+                if(id == null){
+                    id = n;
+                    ids.put(key, id);
+                    points[n] = p;
+                    double x = mesh.normals[3 * normal], y = mesh.normals[3 * normal + 1], z = mesh.normals[3 * normal + 2];
+                    double length = Math.sqrt(x * x + y * y + z * z);
+                    if(length > 0d){
+                        x /= length; y /= length; z /= length;
+                    }
+                    normals[3 * n] = (float)x;
+                    normals[3 * n + 1] = (float)y;
+                    normals[3 * n + 2] = (float)z;
+                    n++;
+                }
+                faces[FACE_SIZE * f + 3 * c] = p;
+                faces[FACE_SIZE * f + 3 * c + 1] = id;
+                faces[FACE_SIZE * f + 3 * c + 2] = mesh.faces[FlatMesh.FACE_SIZE * f + 2 * c + 1];
+            }
+        }
+        return new VertexNormals(mesh, Arrays.copyOf(normals, 3 * n), Arrays.copyOf(points, n), faces);
+    }
+
+    public int getNumNormals() { return points.length; }
+
+    /**
+     * @return x, y, z of every normal in bind pose, not to be modified
+     */
+    public float[] getNormals() { return normals; }
+
+    /**
+     * @return faces in the layout of a TriangleMesh with POINT_NORMAL_TEXCOORD:
+     * point, normal, texCoord per vertex, not to be modified
+     */
+    public int[] getFaces() { return faces; }
+
+    /**
+     * @return estimated heap used by the normals and their faces, in bytes
+     */
+    public long estimateBytes(){
+        return FlatMesh.arrayBytes(normals.length) + FlatMesh.arrayBytes(points.length) + FlatMesh.arrayBytes(faces.length);
+    }
+
+    /**
+     * Skins the normals with the influences of their points
+     * @param palette 3x4 row major matrix per joint: global transform times bind transform
+     * @param target x, y, z of every skinned normal
+     */
+    public void skin(double[] palette, float[] target){
+        final int influences = mesh.influences;
+        final int[] influenceJoints = mesh.influenceJoints;
+        final float[] influenceWeights = mesh.influenceWeights;
+        for (int i = 0; i < points.length; i++) {
+            double nx = normals[3 * i], ny = normals[3 * i + 1], nz = normals[3 * i + 2];
+            double x = 0, y = 0, z = 0;
+            for (int k = points[i] * influences, end = k + influences; k < end; k++) {
+                float w = influenceWeights[k];
+                if(w == 0f){
+                    continue;
+                }
+                int m = 12 * influenceJoints[k];
+                x += w * (palette[m] * nx + palette[m + 1] * ny + palette[m + 2] * nz);
+                y += w * (palette[m + 4] * nx + palette[m + 5] * ny + palette[m + 6] * nz);
+                z += w * (palette[m + 8] * nx + palette[m + 9] * ny + palette[m + 10] * nz);
+            }
+            double length = Math.sqrt(x * x + y * y + z * z);
+            if(length > 0d){
+                x /= length; y /= length; z /= length;
+            }
+            target[3 * i] = (float)x;
+            target[3 * i + 1] = (float)y;
+            target[3 * i + 2] = (float)z;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package utils;
+
+import javafx.animation.AnimationTimer;
+import javafx.event.EventHandler;
+import javafx.scene.Scene;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.transform.Affine;
+
+/**
+ * Orbit controller for the scene root, replacing a stack of transforms driven
+ * by one {@link DragSupport} per gesture:
+ *
+ * - primary button: rotates around the X and Y axes
+ * - middle button: pans
+ * - secondary button: moves forward and backward
+ * - shift slows down, control speeds up any gesture
+ *
+ * One mouse handler accumulates the deltas, and they are applied once per
+ * pulse to a single {@link Affine}: center · pan · distance · rotateX · rotateY.
+ * After releasing the button the view keeps moving with the last velocity,
+ * decaying with the damping, and the timer stops when it comes to rest.
+ */
+public class CameraController {
+
+    public static final double ROTATE_FACTOR = 1d;   // degrees per pixel
+    public static final double PAN_FACTOR = 1d;
+    public static final double DISTANCE_FACTOR = -3d;
+    private static final double SLOW = 0.1d;
+    private static final double FAST = 4d;
+    private static final double REST_VELOCITY = 1e-2;
+
+    private final Scene scene;
+    private final Affine transform = new Affine();
+    private final EventHandler<MouseEvent> mouseEventHandler = this::handle;
+    private final AnimationTimer timer;
+
+    private double angleX, angleY;
+    private double x, y, distance;
+    // accumulated since the last pulse: angleX, angleY, x, y, distance
+    private final double[] pending = new double[5];
+    private final double[] velocity = new double[5];
+    private double damping = 6d;
+    private double lastX, lastY;
+    private boolean dragging;
+    private boolean running;
+    private long lastPulse;
+
+    /**
+     * Attaches the controller to the scene. The transform still needs to be
+     * added to the node to control: <code>root.getTransforms().add(controller.getTransform())</code>
+     * @param scene scene with the events, whose size defines the center of the view
+     */
+    public CameraController(Scene scene){
+        this.scene = scene;
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                pulse(now);
+            }
+        };
+        scene.addEventHandler(MouseEvent.ANY, mouseEventHandler);
+        scene.widthProperty().addListener(o -> start());
+        scene.heightProperty().addListener(o -> start());
+        updateTransform();
+    }
+
+    /**
+     * Removes the event handler of this controller from the scene
+     */
+    public void detach(){
+        scene.removeEventHandler(MouseEvent.ANY, mouseEventHandler);
+        timer.stop();
+        running = false;
+    }
+
+    public Affine getTransform() { return transform; }
+
+    /**
+     * @param angleX degrees around the X axis
+     * @param angleY degrees around the Y axis
+     */
+    public void setRotate(double angleX, double angleY){
+        this.angleX = angleX;
+        this.angleY = angleY;
+        start();
+    }
+
+    /**
+     * @param x pan
+     * @param y pan
+     * @param distance translation in Z
+     */
+    public void setTranslate(double x, double y, double distance){
+        this.x = x;
+        this.y = y;
+        this.distance = distance;
+        start();
+    }
+
+    /**
+     * @param damping decay rate of the inertial motion, per second. 0 keeps
+     * moving forever, a large value stops right after releasing
+     */
+    public void setDamping(double damping) { this.damping = damping; }
+    public double getDamping() { return damping; }
+
+    private void handle(MouseEvent t){
+        if(t.getEventType() == MouseEvent.MOUSE_PRESSED){
+            lastX = t.getScreenX();
+            lastY = t.getScreenY();
+            dragging = true;
+            for (int i = 0; i < velocity.length; i++) {
+                velocity[i] = 0;
+            }
+            t.consume();
+        } else if(t.getEventType() == MouseEvent.MOUSE_DRAGGED && dragging){
+            double dx = t.getScreenX() - lastX, dy = t.getScreenY() - lastY;
+            lastX = t.getScreenX();
+            lastY = t.getScreenY();
+            double factor = t.isShiftDown() ? SLOW : t.isControlDown() ? FAST : 1d;
+            if(t.getButton() == MouseButton.PRIMARY){
+                pending[0] += factor * ROTATE_FACTOR * dy;
+                pending[1] += factor * ROTATE_FACTOR * dx;
+            } else if(t.getButton() == MouseButton.MIDDLE){
+                pending[2] += factor * PAN_FACTOR * dx;
+                pending[3] += factor * PAN_FACTOR * dy;
+            } else if(t.getButton() == MouseButton.SECONDARY){
+                pending[4] += factor * DISTANCE_FACTOR * dy;
+            }
+            start();
+            t.consume();
+        } else if(t.getEventType() == MouseEvent.MOUSE_RELEASED && dragging){
+            dragging = false;
+            t.consume();
+        }
+    }
+
+    private void start(){
+        if(!running){
+            running = true;
+            lastPulse = 0;
+            timer.start();
+        }
+    }
+
+    /*
+    Applies everything accumulated since the previous pulse, or the inertial
+    motion, with one update of the transform
+    */
+    private void pulse(long now){
+        double dt = lastPulse > 0 ? Math.min(0.1d, (now - lastPulse) / 1e9) : 1d / 60d;
+        lastPulse = now;
+        boolean moving = false;
+        for (int i = 0; i < pending.length; i++) {
+            double delta = pending[i];
+            pending[i] = 0;
+            if(dragging){
+                // smoothed velocity of the drag, for the inertia after release
+                velocity[i] = 0.5 * velocity[i] + 0.5 * delta / dt;
+            } else {
+                delta += velocity[i] * dt;
+                velocity[i] *= Math.exp(-damping * dt);
+                if(Math.abs(velocity[i]) < REST_VELOCITY){
+                    velocity[i] = 0;
+                }
+            }
+            moving |= velocity[i] != 0;
+            add(i, delta);
+        }
+        updateTransform();
+        if(!moving && !dragging){
+            timer.stop();
+            running = false;
+        }
+    }
+
+    private void add(int i, double delta){
+        switch (i) {
+            case 0: angleX += delta; break;
+            case 1: angleY += delta; break;
+            case 2: x += delta; break;
+            case 3: y += delta; break;
+            default: distance += delta; break;
+        }
+    }
+
+    /*
+    Translate(center + pan, distance) · Rotate(angleX, X axis) · Rotate(angleY, Y axis)
+    */
+    private void updateTransform(){
+        double ax = Math.toRadians(angleX), ay = Math.toRadians(angleY);
+        double cx = Math.cos(ax), sx = Math.sin(ax), cy = Math.cos(ay), sy = Math.sin(ay);
+        transform.setToTransform(
+                cy,       0,  sy,       scene.getWidth() / 2 + x,
+                sx * sy,  cx, -sx * cy, scene.getHeight() / 2 + y,
+                -cx * sy, sx, cx * cy,  distance);
+    }
+}
@@ -0,0 +1,161 @@
+package utils;
+
+/**
+ * Snapshot of a tracked hand, stored in primitive arrays so it can be copied,
+ * serialized or shared without creating garbage.
+ *
+ * - palm position, in Leap Motion coordinates (mm)
+ * - palm rotation, as a unit quaternion (x, y, z, w)
+ * - one rotation for each of the 3 driven joints of the 5 fingers, as unit
+ *   quaternions in model space, relative to the previous bone of the finger
+ *
+ * Joint slot <code>finger*3+joint</code> maps to the model bone
+ * <code>Finger_{finger}{joint}</code> (or <code>{name}-{joint}</code>).
+ */
+public class HandPose {
+
+    public static final int FINGERS = 5;
+    public static final int JOINTS_PER_FINGER = 3;
+    public static final int JOINTS = FINGERS * JOINTS_PER_FINGER;
+
+    private final boolean right;
+    private long sequence;
+    private long timestamp;
+    private int validJoints;
+    private final float[] position = new float[3];
+    private final float[] palmRotation = new float[]{0f, 0f, 0f, 1f};
+    private final float[] rotations = new float[4 * JOINTS];
+
+    public HandPose(boolean right){
+        this.right=right;
+        for(int i=0; i<JOINTS; i++){
+            rotations[4*i+3]=1f;
+        }
+    }
+
+    public static int jointIndex(int finger, int joint){
+        return finger * JOINTS_PER_FINGER + joint;
+    }
+
+    public boolean isRight() { return right; }
+
+    /**
+     * @return counter increased by the producer every time a new pose is published
+     */
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+
+    /**
+     * @return time of the pose, in microseconds, in the clock of the producer
+     */
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    /**
+     * @return bit mask with the joint slots that have a valid rotation
+     */
+    public int getValidJoints() { return validJoints; }
+    public void setValidJoints(int validJoints) { this.validJoints = validJoints & ((1 << JOINTS) - 1); }
+    public boolean isJointValid(int index) { return (validJoints & (1 << index)) != 0; }
+
+    public float[] getPosition() { return position; }
+    public void setPosition(float x, float y, float z){
+        position[0]=x;
+        position[1]=y;
+        position[2]=z;
+    }
+
+    public float[] getPalmRotation() { return palmRotation; }
+
+    /**
+     * Sets the palm rotation from the Leap Motion roll, pitch and yaw angles
+     * http://jperedadnr.blogspot.com/2013/06/leap-motion-controller-and-javafx-new.html
+     */
+    public void setPalmRotation(double alf, double bet, double gam){
+        double A11=Math.cos(alf)*Math.cos(gam);
+        double A12=Math.cos(bet)*Math.sin(alf)+Math.cos(alf)*Math.sin(bet)*Math.sin(gam);
+        double A13=Math.sin(alf)*Math.sin(bet)-Math.cos(alf)*Math.cos(bet)*Math.sin(gam);
+        double A21=-Math.cos(gam)*Math.sin(alf);
+        double A22=Math.cos(alf)*Math.cos(bet)-Math.sin(alf)*Math.sin(bet)*Math.sin(gam);
+        double A23=Math.cos(alf)*Math.sin(bet)+Math.cos(bet)*Math.sin(alf)*Math.sin(gam);
+        double A31=Math.sin(gam);
+        double A32=-Math.cos(gam)*Math.sin(bet);
+        double A33=Math.cos(bet)*Math.cos(gam);
+
+        double d = Math.acos(Math.max(-1d, Math.min(1d, (A11+A22+A33-1d)/2d)));
+        if(d==0d){
+            setQuaternion(palmRotation, 0, 0d, 0d, 0d, 1d);
+            return;
+        }
+        double den=2d*Math.sin(d);
+        setAxisAngle(palmRotation, 0, d, (A32-A23)/den, (A13-A31)/den, (A21-A12)/den);
+    }
+
+    /**
+     * @return rotations of all joint slots, 4 floats (x, y, z, w) per slot
+     */
+    public float[] getRotations() { return rotations; }
+
+    /**
+     * Sets the rotation of a joint slot from an angle and a non normalized axis
+     * @param index joint slot
+     * @param angle in radians
+     */
+    public void setJointRotation(int index, double angle, double ax, double ay, double az){
+        setAxisAngle(rotations, 4*index, angle, ax, ay, az);
+        validJoints |= 1 << index;
+    }
+
+    /**
+     * Sets the rotation of a joint slot that takes a bone direction onto
+     * another, from their cross product and the sum of the product of their
+     * lengths and their dot product: the quaternion at half the angle, with
+     * no trigonometric functions
+     * @param index joint slot
+     */
+    public void setJointRotation(int index, double cx, double cy, double cz, double lengths, double dot){
+        double norm = cx*cx+cy*cy+cz*cz;
+        if(norm<1e-18){
+            setQuaternion(rotations, 4*index, 0d, 0d, 0d, 1d);
+        } else {
+            // lengths^2-dot^2 is norm: no cancellation when the bones are almost opposite
+            double w = dot>=0d ? lengths+dot : norm/(lengths-dot);
+            double s = 1d/Math.sqrt(norm+w*w);
+            setQuaternion(rotations, 4*index, cx*s, cy*s, cz*s, w*s);
+        }
+        validJoints |= 1 << index;
+    }
+
+    public void copyFrom(HandPose pose){
+        sequence=pose.sequence;
+        timestamp=pose.timestamp;
+        validJoints=pose.validJoints;
+        System.arraycopy(pose.position, 0, position, 0, 3);
+        System.arraycopy(pose.palmRotation, 0, palmRotation, 0, 4);
+        System.arraycopy(pose.rotations, 0, rotations, 0, 4*JOINTS);
+    }
+
+    private static void setAxisAngle(float[] q, int offset, double angle, double ax, double ay, double az){
+        double norm = Math.sqrt(ax*ax+ay*ay+az*az);
+        if(norm<1e-9 || angle==0d){
+            setQuaternion(q, offset, 0d, 0d, 0d, 1d);
+            return;
+        }
+        double s = Math.sin(angle/2d)/norm;
+        setQuaternion(q, offset, ax*s, ay*s, az*s, Math.cos(angle/2d));
+    }
+
+    private static void setQuaternion(float[] q, int offset, double x, double y, double z, double w){
+        q[offset]=(float)x;
+        q[offset+1]=(float)y;
+        q[offset+2]=(float)z;
+        q[offset+3]=(float)w;
+    }
+
+    @Override
+    public String toString() {
+        return "HandPose{" + "right=" + right + ", sequence=" + sequence + ", timestamp=" + timestamp +
+                ", position=[" + position[0] + ", " + position[1] + ", " + position[2] + "]}";
+    }
+
+}
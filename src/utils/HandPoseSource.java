@@ -0,0 +1,19 @@
+package utils;
+
+/**
+ * Provider of hand poses: the Leap Motion listener, a remote pose stream...
+ * Sources are polled from the JavaFX thread, and producers may publish from
+ * any other thread.
+ */
+public interface HandPoseSource {
+
+    /**
+     * Copies the latest pose of one hand into the target
+     * @param right true for the right hand, false for the left one
+     * @param target pose to fill
+     * @return true if the target was updated with a pose newer than the one it had,
+     * false if there's nothing new
+     */
+    boolean poll(boolean right, HandPose target);
+
+}
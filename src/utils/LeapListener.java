@@ -7,13 +7,15 @@ import com.leapmotion.leap.Finger;
 import com.leapmotion.leap.FingerList;
 import com.leapmotion.leap.Frame;
 import com.leapmotion.leap.Hand;
+import com.leapmotion.leap.HandList;
 import com.leapmotion.leap.Listener;
 import com.leapmotion.leap.Screen;
 import com.leapmotion.leap.Vector;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
@@ -24,19 +26,59 @@ import javafx.beans.value.ObservableValue;
 import javafx.geometry.Point3D;
 
 /**
+ * Extracts from every Leap Motion frame only the features that consumers
+ * subscribed to: the {@link HandPose}s, the palm properties, fingers, bones,
+ * arms, knuckle pairs or the screen intersection of the palm. Only
+ * {@link Feature#POSE} is subscribed by default, that's all RiggedHand uses.
+ *
+ * Features are written into buffers that are reused from frame to frame, and
+ * published to other threads by swapping them under a lock: the getters copy
+ * the last published frame into a list or array of the caller.
  *
  * @author Jose Pereda - June 2014 -  @JPeredaDnr
 */
-public class LeapListener extends Listener {
+public class LeapListener extends Listener implements HandPoseSource {
+
+    public enum Feature {
+        /** smoothed hand poses, for {@link #poll} and {@link #setOnPose}, and the done properties */
+        POSE,
+        /** palm position, pitch, roll and yaw properties, and the done properties */
+        PALM,
+        /** valid fingers of each hand */
+        FINGERS,
+        /** bones of every finger, but the metacarpals of middle and ring */
+        BONES,
+        ARMS,
+        /** pairs of knuckles between fingers */
+        KNUCKLES,
+        /** intersection of the palm direction with the located screen */
+        SCREEN;
+
+        int bit() { return 1<<ordinal(); }
+    }
+    
+    private static final Bone.Type[] BONE_TYPES = Bone.Type.values();
+    private static final int KNUCKLES_PER_HAND = 4;
     
     private final BooleanProperty doneLeft= new SimpleBooleanProperty(false);
     private final BooleanProperty doneRight= new SimpleBooleanProperty(false);
-   
-    private final List<Finger> fingersLeft=new ArrayList<>();
-    private final List<Finger> fingersRight=new ArrayList<>();
-    private final List<Bone> bones=new ArrayList<>();
-    private final List<Arm> arms=new ArrayList<>();
-    private final List<Pair> joints=new ArrayList<>();
+    
+    // back buffers are filled by onFrame, front buffers are read by the getters
+    private List<Finger> fingersLeft=new ArrayList<>();
+    private List<Finger> fingersRight=new ArrayList<>();
+    private List<Bone> bones=new ArrayList<>();
+    private List<Arm> arms=new ArrayList<>();
+    private List<Finger> backFingersLeft=new ArrayList<>();
+    private List<Finger> backFingersRight=new ArrayList<>();
+    private List<Bone> backBones=new ArrayList<>();
+    private List<Arm> backArms=new ArrayList<>();
+    // x, y, z of both ends of every pair
+    private float[] knuckles=new float[2*6*KNUCKLES_PER_HAND];
+    private float[] backKnuckles=new float[2*6*KNUCKLES_PER_HAND];
+    private int nKnuckles=0;
+    private int nBackKnuckles=0;
+    // normalized x, y on the screen, NaN if the hand isn't tracked
+    private final float[] screenPositions={Float.NaN, Float.NaN, Float.NaN, Float.NaN};
     private final List<Vector> palmsPosition=new ArrayList<>();
     
     private final ObjectProperty<Point3D> posHandLeft=new SimpleObjectProperty<>(Point3D.ZERO);
@@ -48,14 +90,54 @@ public class LeapListener extends Listener {
     private final DoubleProperty rollRight=new SimpleDoubleProperty(0d);
     private final DoubleProperty yawRight=new SimpleDoubleProperty(0d);
     
-    private final LimitQueue<Vector> posLeftAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> pitchLeftAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> rollLeftAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> yawLeftAverage = new LimitQueue<>(30);
-    private final LimitQueue<Vector> posRightAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> pitchRightAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> rollRightAverage = new LimitQueue<>(30);
-    private final LimitQueue<Double> yawRightAverage = new LimitQueue<>(30);
+    private final HandSmoothing handLeft = new HandSmoothing(false);
+    private final HandSmoothing handRight = new HandSmoothing(true);
+    private long sequence = 0;
+    private Consumer<HandPose> onPose;
+    // capture time of the frame in the clock of System.nanoTime(), in microseconds:
+    // the time of the device plus the lowest offset seen, so poses are spaced as
+    // they were captured, not as they arrived
+    private long captureOffset = Long.MAX_VALUE;
+    private long frameTimestamp = 0;
+    
+    private final int[] subscribers = new int[Feature.values().length];
+    private volatile int features = 0;
+    
+    // cost of onFrame, in the Leap Motion thread, only counted when measuring
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean allocationSupported;
+    private volatile boolean measuring = false;
+    private long frames = 0;
+    private long frameNanos = 0;
+    private long frameBytes = 0;
+    
+    public LeapListener(){
+        subscribe(Feature.POSE);
+        allocationSupported = threads instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported() &&
+                ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemoryEnabled();
+    }
+    
+    /**
+     * Features are extracted while they have at least one subscriber
+     */
+    public synchronized void subscribe(Feature... subscribed){
+        for(Feature feature : subscribed){
+            subscribers[feature.ordinal()]++;
+        }
+        updateFeatures();
+    }
+    
+    public synchronized void unsubscribe(Feature... unsubscribed){
+        for(Feature feature : unsubscribed){
+            subscribers[feature.ordinal()] = Math.max(0, subscribers[feature.ordinal()]-1);
+        }
+        updateFeatures();
+    }
+    
+    public boolean isSubscribed(Feature feature){
+        return (features & feature.bit())!=0;
+    }
     
     public ObservableValue<Point3D> posHandLeftProperty(){ return posHandLeft; }
     public DoubleProperty yawLeftProperty(){ return yawLeft; }
@@ -68,167 +150,445 @@ public class LeapListener extends Listener {
     
     @Override
     public void onFrame(Controller controller) {
+        final long time = System.nanoTime();
+        final boolean measure = measuring;
+        final long bytes = measure ? allocatedBytes() : 0L;
+        final int f = features;
         Frame frame = controller.frame();
-        doneLeft.set(false);
-        doneRight.set(false);
-        bones.clear();
-        arms.clear();
-        joints.clear();
-        fingersRight.clear();
-        fingersLeft.clear();
-        if (!frame.hands().isEmpty()) {
-            Screen screen = controller.locatedScreens().get(0);
-            if (screen != null && screen.isValid()){
+        captureOffset = Math.min(captureOffset, time/1000 - frame.timestamp());
+        frameTimestamp = frame.timestamp() + captureOffset;
+        backBones.clear();
+        backArms.clear();
+        backFingersRight.clear();
+        backFingersLeft.clear();
+        nBackKnuckles = 0;
+        // valid fingers detected in each hand, for the done properties
+        boolean left = false, right = false;
+        float screenLeftX = Float.NaN, screenLeftY = Float.NaN, screenRightX = Float.NaN, screenRightY = Float.NaN;
+        HandList hands = frame.hands();
+        if (!hands.isEmpty()) {
+            Screen screen = null;
+            if((f & Feature.SCREEN.bit())!=0){
+                screen = controller.locatedScreens().get(0);
+                if(screen != null && !screen.isValid()){
+                    screen = null;
+                }
+            }
+            if((f & Feature.BONES.bit())!=0){
                 for(Finger finger : frame.fingers()){
                     if(finger.isValid()){
-                        for(Bone.Type b : Bone.Type.values()) {
-                            if((!finger.type().equals(Finger.Type.TYPE_RING) && 
-                                !finger.type().equals(Finger.Type.TYPE_MIDDLE)) || 
-                                !b.equals(Bone.Type.TYPE_METACARPAL)){
-                                bones.add(finger.bone(b));
+                        Finger.Type type = finger.type();
+                        for(Bone.Type b : BONE_TYPES) {
+                            if((type!=Finger.Type.TYPE_RING && type!=Finger.Type.TYPE_MIDDLE) ||
+                                b!=Bone.Type.TYPE_METACARPAL){
+                                backBones.add(finger.bone(b));
                             }
                         }
                     }
                 }
-                for(Hand h: frame.hands()){
-                    if(h.isValid()){
-                        // arm
-                        arms.add(h.arm());
-                        if(h.isLeft() && h.isValid()){
-                            pitchLeftAverage.add(new Double(h.direction().pitch()));
-                            rollLeftAverage.add(new Double(h.palmNormal().roll()));
-                            yawLeftAverage.add(new Double(h.direction().yaw()));                   
-                            pitchLeft.set(dAverage(pitchLeftAverage));
-                            rollLeft.set(dAverage(rollLeftAverage));
-                            yawLeft.set(dAverage(yawLeftAverage));
-
-//                            Vector intersect = screen.intersect(h.palmPosition(),h.direction(), true);
-                            posLeftAverage.add(h.palmPosition()); // intersect
-                            Vector avIntersect=vAverage(posLeftAverage);
-//                            posHandLeft.setValue(new Point3D(screen.widthPixels()*Math.min(1d,Math.max(0d,avIntersect.getX())),
-//                                    screen.heightPixels()*Math.min(1d,Math.max(0d,(1d-avIntersect.getY()))),
-//                                    h.palmPosition().getZ()));
-                            posHandLeft.setValue(new Point3D(avIntersect.getX(),avIntersect.getY(), avIntersect.getZ()));
-                        }
-                        if(h.isRight()&& h.isValid()){
-                            pitchRightAverage.add(new Double(h.direction().pitch()));
-                            rollRightAverage.add(new Double(h.palmNormal().roll()));
-                            yawRightAverage.add(new Double(h.direction().yaw()));                   
-                            pitchRight.set(dAverage(pitchRightAverage));
-                            rollRight.set(dAverage(rollRightAverage));
-                            yawRight.set(dAverage(yawRightAverage));
-
-//                            Vector intersect = screen.intersect(h.palmPosition(),h.direction(), true);
-                            posRightAverage.add(h.palmPosition()); // intersect
-                            Vector avIntersect=vAverage(posRightAverage);
-//                            posHandRight.setValue(new Point3D(screen.widthPixels()*Math.min(1d,Math.max(0d,avIntersect.getX())),
-//                                    screen.heightPixels()*Math.min(1d,Math.max(0d,(1d-avIntersect.getY()))),
-//                                    h.palmPosition().getZ()));
-                            posHandRight.setValue(new Point3D(avIntersect.getX(),avIntersect.getY(), avIntersect.getZ()));
-                        }
-                        
-                        FingerList fingers = h.fingers();
-                        Finger index=null, middle=null, ring=null, pinky=null;
-                        for(Finger f: fingers){
-                            if(f.isFinger() && f.isValid()){
-                                if(h.isRight()&& h.isValid()){
-                                    fingersRight.add(f);
-                                } 
-                                if(h.isLeft()&& h.isValid()){
-                                    fingersLeft.add(f);
-                                } 
-                                switch(f.type()){
-                                    case TYPE_INDEX: index=f; break;
-                                    case TYPE_MIDDLE: middle=f; break;
-                                    case TYPE_RING: ring=f; break;
-                                    case TYPE_PINKY: pinky=f; break;
-                                }
-                            }
-                        }
-                        // joints
-                        if(index!=null && middle!=null){
-                            Pair p=new Pair(index.bone(Bone.Type.TYPE_METACARPAL).nextJoint(),
-                                            middle.bone(Bone.Type.TYPE_METACARPAL).nextJoint());
-                            joints.add(p);
-                        }
-                        if(middle!=null && ring!=null){
-                            Pair p=new Pair(middle.bone(Bone.Type.TYPE_METACARPAL).nextJoint(),
-                                            ring.bone(Bone.Type.TYPE_METACARPAL).nextJoint());
-                            joints.add(p);
-                        }
-                        if(ring!=null && pinky!=null){
-                            Pair p=new Pair(ring.bone(Bone.Type.TYPE_METACARPAL).nextJoint(),
-                                            pinky.bone(Bone.Type.TYPE_METACARPAL).nextJoint());
-                            joints.add(p);
+            }
+            final boolean smooth = (f & (Feature.POSE.bit() | Feature.PALM.bit()))!=0;
+            for(Hand h: hands){
+                if(!h.isValid()){
+                    continue;
+                }
+                boolean isLeft = h.isLeft();
+                if((f & Feature.ARMS.bit())!=0){
+                    backArms.add(h.arm());
+                }
+                if(smooth){
+                    HandSmoothing hand = isLeft ? handLeft : handRight;
+                    Vector direction = h.direction();
+                    Vector palm = h.palmPosition();
+                    final boolean pose = (f & Feature.POSE.bit())!=0;
+                    if(pose){
+                        boolean fingers = readBones(h, hand);
+                        left |= isLeft && fingers;
+                        right |= !isLeft && fingers;
+                    }
+                    hand.smooth(palm.getX(), palm.getY(), palm.getZ(), direction.pitch(), h.palmNormal().roll(), direction.yaw());
+                    if((f & Feature.PALM.bit())!=0){
+                        (isLeft ? pitchLeft : pitchRight).set(hand.getPitch());
+                        (isLeft ? rollLeft : rollRight).set(hand.getRoll());
+                        (isLeft ? yawLeft : yawRight).set(hand.getYaw());
+                        (isLeft ? posHandLeft : posHandRight).setValue(new Point3D(hand.getX(), hand.getY(), hand.getZ()));
+                    }
+                    if(pose){
+                        hand.publishPose(++sequence, frameTimestamp);
+                        if(onPose != null){
+                            onPose.accept(hand.pose);
                         }
-                        if(index!=null && pinky!=null){
-                            Pair p=new Pair(index.bone(Bone.Type.TYPE_METACARPAL).prevJoint(),
-                                            pinky.bone(Bone.Type.TYPE_METACARPAL).prevJoint());
-                            joints.add(p);
-                        }        
                     }
                 }
+                if(screen != null){
+                    Vector intersect = screen.intersect(h.palmPosition(), h.direction(), true);
+                    if(isLeft){
+                        screenLeftX = intersect.getX();
+                        screenLeftY = intersect.getY();
+                    } else {
+                        screenRightX = intersect.getX();
+                        screenRightY = intersect.getY();
+                    }
+                }
+                if((f & (Feature.FINGERS.bit() | Feature.KNUCKLES.bit() | Feature.PALM.bit()))!=0){
+                    boolean fingers = extractFingers(h, isLeft, f);
+                    left |= isLeft && fingers;
+                    right |= !isLeft && fingers;
+                }
             }
         }
-        
-        doneLeft.set(!fingersLeft.isEmpty());
-        doneRight.set(!fingersRight.isEmpty());
+
+        synchronized (this) {
+            List<Finger> fingers = fingersLeft; fingersLeft = backFingersLeft; backFingersLeft = fingers;
+            fingers = fingersRight; fingersRight = backFingersRight; backFingersRight = fingers;
+            List<Bone> b = bones; bones = backBones; backBones = b;
+            List<Arm> a = arms; arms = backArms; backArms = a;
+            float[] k = knuckles; knuckles = backKnuckles; backKnuckles = k;
+            nKnuckles = nBackKnuckles;
+            screenPositions[0] = screenLeftX;
+            screenPositions[1] = screenLeftY;
+            screenPositions[2] = screenRightX;
+            screenPositions[3] = screenRightY;
+            if(measure){
+                frames++;
+                frameNanos += System.nanoTime()-time;
+                frameBytes += allocatedBytes()-bytes;
+            }
+        }
+        if((f & (Feature.POSE.bit() | Feature.FINGERS.bit() | Feature.KNUCKLES.bit() | Feature.PALM.bit()))!=0){
+            doneLeft.set(left);
+            doneRight.set(right);
+        }
+    }
+    
+    /*
+    Valid fingers of the hand, and the pairs of knuckles between them. True if
+    there's any valid finger
+    */
+    private boolean extractFingers(Hand h, boolean isLeft, int f){
+        FingerList fingers = h.fingers();
+        Finger index=null, middle=null, ring=null, pinky=null;
+        boolean found = false;
+        for(Finger finger: fingers){
+            if(finger.isFinger() && finger.isValid()){
+                found = true;
+                if((f & Feature.FINGERS.bit())!=0){
+                    (isLeft ? backFingersLeft : backFingersRight).add(finger);
+                }
+                switch(finger.type()){
+                    case TYPE_INDEX: index=finger; break;
+                    case TYPE_MIDDLE: middle=finger; break;
+                    case TYPE_RING: ring=finger; break;
+                    case TYPE_PINKY: pinky=finger; break;
+                }
+            }
+        }
+        if((f & Feature.KNUCKLES.bit())==0){
+            return found;
+        }
+        Bone indexBone = index!=null ? index.bone(Bone.Type.TYPE_METACARPAL) : null;
+        Bone middleBone = middle!=null ? middle.bone(Bone.Type.TYPE_METACARPAL) : null;
+        Bone ringBone = ring!=null ? ring.bone(Bone.Type.TYPE_METACARPAL) : null;
+        Bone pinkyBone = pinky!=null ? pinky.bone(Bone.Type.TYPE_METACARPAL) : null;
+        if(indexBone!=null && middleBone!=null){
+            addKnuckles(indexBone.nextJoint(), middleBone.nextJoint());
+        }
+        if(middleBone!=null && ringBone!=null){
+            addKnuckles(middleBone.nextJoint(), ringBone.nextJoint());
+        }
+        if(ringBone!=null && pinkyBone!=null){
+            addKnuckles(ringBone.nextJoint(), pinkyBone.nextJoint());
+        }
+        if(indexBone!=null && pinkyBone!=null){
+            addKnuckles(indexBone.prevJoint(), pinkyBone.prevJoint());
+        }
+        return found;
     }
     
-    public List<Finger> getFingersRight(){ 
-        return fingersRight.stream().collect(Collectors.toList());
+    private void addKnuckles(Vector v0, Vector v1){
+        if(6*(nBackKnuckles+1)>backKnuckles.length){
+            return;
+        }
+        int i = 6*nBackKnuckles++;
+        backKnuckles[i] = v0.getX();
+        backKnuckles[i+1] = v0.getY();
+        backKnuckles[i+2] = v0.getZ();
+        backKnuckles[i+3] = v1.getX();
+        backKnuckles[i+4] = v1.getY();
+        backKnuckles[i+5] = v1.getZ();
     }
-    public List<Finger> getFingersLeft(){ 
-        return fingersLeft.stream().collect(Collectors.toList());
+    
+    /**
+     * Copies the fingers of the last frame
+     * @param target cleared and filled with the fingers, needs {@link Feature#FINGERS}
+     */
+    public synchronized void getFingersRight(List<Finger> target){
+        target.clear();
+        target.addAll(fingersRight);
     }
-    public List<Bone> getBones(){ 
-        return bones.stream().collect(Collectors.toList());
+    public synchronized void getFingersLeft(List<Finger> target){
+        target.clear();
+        target.addAll(fingersLeft);
     }
-    public List<Arm> getArms(){ 
-        return arms.stream().collect(Collectors.toList());
+    public synchronized void getBones(List<Bone> target){
+        target.clear();
+        target.addAll(bones);
     }
-    public List<Pair> getJoints(){ 
-        return joints.stream().collect(Collectors.toList());
+    public synchronized void getArms(List<Arm> target){
+        target.clear();
+        target.addAll(arms);
     }
     
-    public BooleanProperty doneLeftProperty() { 
-        return doneLeft; 
+    public List<Finger> getFingersRight(){
+        List<Finger> list = new ArrayList<>();
+        getFingersRight(list);
+        return list;
     }
-    public BooleanProperty doneRightProperty() { 
-        return doneRight; 
+    public List<Finger> getFingersLeft(){
+        List<Finger> list = new ArrayList<>();
+        getFingersLeft(list);
+        return list;
+    }
+    public List<Bone> getBones(){
+        List<Bone> list = new ArrayList<>();
+        getBones(list);
+        return list;
+    }
+    public List<Arm> getArms(){
+        List<Arm> list = new ArrayList<>();
+        getArms(list);
+        return list;
     }
     
-    public List<Vector> getPalmsPosition(){ return palmsPosition; }
+    /**
+     * Copies the pairs of knuckles of the last frame, needs {@link Feature#KNUCKLES}
+     * @param target x, y, z of both knuckles of every pair, 6 floats per pair
+     * @return number of pairs
+     */
+    public synchronized int getKnuckles(float[] target){
+        int n = Math.min(nKnuckles, target.length/6);
+        System.arraycopy(knuckles, 0, target, 0, 6*n);
+        return n;
+    }
     
-    private Vector vAverage(LimitQueue<Vector> vectors){
-        float vx=0f, vy=0f, vz=0f;
-        for(Vector v:vectors){
-            vx=vx+v.getX(); 
-            vy=vy+v.getY(); 
-            vz=vz+v.getZ();
+    public List<Pair> getJoints(){
+        float[] k = new float[knuckles.length];
+        int n = getKnuckles(k);
+        List<Pair> list = new ArrayList<>(n);
+        for(int i=0; i<n; i++){
+            list.add(new Pair(new Vector(k[6*i], k[6*i+1], k[6*i+2]), new Vector(k[6*i+3], k[6*i+4], k[6*i+5])));
         }
-        return new Vector(vx/vectors.size(), vy/vectors.size(), vz/vectors.size());
+        return list;
+    }
+    
+    /**
+     * Intersection of the palm direction of a hand with the located screen, in
+     * the last frame, needs {@link Feature#SCREEN}
+     * @param target normalized x, y on the screen
+     * @return false if the hand or the screen weren't tracked
+     */
+    public synchronized boolean getScreenPosition(boolean right, float[] target){
+        int i = right ? 2 : 0;
+        target[0] = screenPositions[i];
+        target[1] = screenPositions[i+1];
+        return !Float.isNaN(target[0]);
     }
     
-    private Double dAverage(LimitQueue<Double> vectors){
-        double vx=0;
-        for(Double d:vectors){
-            vx=vx+d;
+    @Override
+    public boolean poll(boolean right, HandPose target) {
+        HandPose pose = (right ? handRight : handLeft).pose;
+        synchronized (pose) {
+            if(pose.getSequence()==0 || pose.getSequence()==target.getSequence()){
+                return false;
+            }
+            target.copyFrom(pose);
+            return true;
         }
-        return vx/vectors.size();
     }
     
-    private class LimitQueue<E> extends LinkedList<E> {
-        private final int limit;
-        public LimitQueue(int limit) {
-            this.limit = limit;
+    /**
+     * @param onPose called from the Leap Motion thread with every new hand pose
+     */
+    public void setOnPose(Consumer<HandPose> onPose) {
+        this.onPose = onPose;
+    }
+    
+    /*
+    Directions of the valid bones of the valid fingers of the hand. True if
+    there's any valid finger
+    */
+    private static boolean readBones(Hand h, HandSmoothing hand){
+        hand.clearBones();
+        boolean found = false;
+        for(Finger finger : h.fingers()){
+            if(!finger.isFinger() || !finger.isValid()){
+                continue;
+            }
+            found = true;
+            int f = finger.type().ordinal();
+            for(Bone.Type type : BONE_TYPES){
+                Bone bone = finger.bone(type);
+                if(bone.isValid() && bone.length()>0){
+                    Vector direction = bone.direction();
+                    hand.setBone(f, type.ordinal(), direction.getX(), direction.getY(), direction.getZ());
+                }
+            }
         }
-
-        @Override
-        public boolean add(E o) {
-            super.add(o);
-            while (size() > limit) { super.remove(); }
-            return true;
+        return found;
+    }
+    
+    /**
+     * Smoothing and pose of one hand: all that onFrame does with a hand but
+     * reading it from the Leap Motion objects, so it can run and be measured
+     * without the device
+     */
+    static final class HandSmoothing {
+        
+        static final int BONES = 4;
+        
+        final HandPose pose;
+        // x, y, z of the palm and pitch, roll, yaw of the hand, of the last frames
+        private final MovingAverage posAverage = new MovingAverage(30, 3);
+        private final MovingAverage anglesAverage = new MovingAverage(30, 3);
+        // x, y, z of the direction of every bone, from the metacarpal, and a bit per valid bone
+        private final float[] bones = new float[3*HandPose.FINGERS*BONES];
+        private int validBones = 0;
+        
+        HandSmoothing(boolean right){
+            pose = new HandPose(right);
+        }
+        
+        void clearBones(){
+            validBones = 0;
+        }
+        
+        void setBone(int finger, int bone, float x, float y, float z){
+            int b = BONES*finger+bone;
+            bones[3*b] = x;
+            bones[3*b+1] = y;
+            bones[3*b+2] = z;
+            validBones |= 1<<b;
         }
+        
+        void smooth(float x, float y, float z, double pitch, double roll, double yaw){
+            anglesAverage.add(pitch, roll, yaw);
+            posAverage.add(x, y, z);
+        }
+        
+        double getPitch() { return anglesAverage.get(0); }
+        double getRoll() { return anglesAverage.get(1); }
+        double getYaw() { return anglesAverage.get(2); }
+        float getX() { return (float)posAverage.get(0); }
+        float getY() { return (float)posAverage.get(1); }
+        float getZ() { return (float)posAverage.get(2); }
+        
+        /*
+        Joint rotations: angle and axis between each bone and the previous valid bone of the finger
+        */
+        void publishPose(long sequence, long timestamp){
+            synchronized (pose) {
+                pose.setSequence(sequence);
+                pose.setTimestamp(timestamp);
+                pose.setPosition(getX(), getY(), getZ());
+                pose.setPalmRotation(getRoll(), getPitch(), getYaw());
+                pose.setValidJoints(0);
+                for(int f=0; f<HandPose.FINGERS; f++){
+                    int previous = -1;
+                    for(int b=BONES*f; b<BONES*(f+1); b++){
+                        if((validBones & 1<<b)==0){
+                            continue;
+                        }
+                        if(previous >= 0){
+                            setJointRotation(HandPose.jointIndex(f, b-BONES*f-1), b, previous);
+                        }
+                        previous = b;
+                    }
+                }
+            }
+        }
+        
+        /*
+        Like bone.direction().cross(previous.direction()) and angleTo, without the
+        Vectors, and without the angle: acos, sin and cos were most of the frame
+        */
+        private void setJointRotation(int joint, int b, int previous){
+            float ax = bones[3*b], ay = bones[3*b+1], az = bones[3*b+2];
+            float bx = bones[3*previous], by = bones[3*previous+1], bz = bones[3*previous+2];
+            double cx = ay*bz-az*by, cy = az*bx-ax*bz, cz = ax*by-ay*bx;
+            double lengths = Math.sqrt((ax*ax+ay*ay+az*az)*(double)(bx*bx+by*by+bz*bz));
+            pose.setJointRotation(joint, cx, -cy, cz, lengths, ax*bx+ay*by+az*bz);
+        }
+    }
+    
+    /**
+     * @return valid fingers of the left hand detected in the last frame, updated
+     * while any of POSE, PALM, FINGERS or KNUCKLES is subscribed
+     */
+    public BooleanProperty doneLeftProperty() {
+        return doneLeft;
+    }
+    /**
+     * @return valid fingers of the right hand detected in the last frame
+     */
+    public BooleanProperty doneRightProperty() {
+        return doneRight;
+    }
+    
+    public List<Vector> getPalmsPosition(){ return palmsPosition; }
+    
+    /**
+     * @param measuring count the time and the allocations of onFrame, at the
+     * cost of two more clock and allocation counter reads per frame
+     */
+    public void setMeasuring(boolean measuring) { this.measuring = measuring; }
+    
+    public boolean isMeasuring() { return measuring; }
+    
+    /**
+     * @return frames measured since measuring was turned on
+     */
+    public synchronized long getFrames() { return frames; }
+    
+    /**
+     * @return average time of onFrame, in microseconds
+     */
+    public synchronized double getAverageFrameMicros() { return frames>0 ? frameNanos/1000d/frames : 0d; }
+    
+    /**
+     * @return average bytes allocated by onFrame, -1 if the JVM doesn't count them
+     */
+    public synchronized double getAverageFrameBytes() {
+        return !allocationSupported ? -1d : frames>0 ? (double)frameBytes/frames : 0d;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder subscribed = new StringBuilder();
+        for(Feature feature : Feature.values()){
+            if(isSubscribed(feature)){
+                subscribed.append(subscribed.length()>0 ? "," : "").append(feature);
+            }
+        }
+        if(!measuring){
+            return "LeapListener{" + "features=" + subscribed + '}';
+        }
+        return "LeapListener{" + "features=" + subscribed + ", frames=" + getFrames() +
+                ", frameMicros=" + String.format("%.1f", getAverageFrameMicros()) +
+                ", frameBytes=" + String.format("%.0f", getAverageFrameBytes()) + '}';
+    }
+    
+    private void updateFeatures(){
+        int mask = 0;
+        for(int i=0; i<subscribers.length; i++){
+            if(subscribers[i]>0){
+                mask |= 1<<i;
+            }
+        }
+        features = mask;
+    }
+    
+    private long allocatedBytes(){
+        return allocationSupported ?
+                ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0L;
     }
 }
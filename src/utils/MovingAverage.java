@@ -0,0 +1,85 @@
+package utils;
+
+/**
+ * Average of the last values of one or more components, like x, y, z, in a
+ * ring of primitives: adding a value doesn't box it, allocate a list node or
+ * sum the whole window again.
+ */
+public class MovingAverage {
+
+    private final int window;
+    private final int components;
+    private final double[] values;
+    private final double[] sums;
+    private int next;
+    private int size;
+
+    /**
+     * @param window number of values averaged
+     * @param components components of every value
+     */
+    public MovingAverage(int window, int components){
+        this.window = window;
+        this.components = components;
+        values = new double[window * components];
+        sums = new double[components];
+    }
+
+    public void add(double v){
+        add(0, v);
+        advance();
+    }
+
+    public void add(double x, double y, double z){
+        add(0, x);
+        add(1, y);
+        add(2, z);
+        advance();
+    }
+
+    /**
+     * @param component index of the component
+     * @return average of the values added, 0 if there are none
+     */
+    public double get(int component){
+        return size > 0 ? sums[component] / size : 0d;
+    }
+
+    public double get() { return get(0); }
+
+    public int size() { return size; }
+
+    public void clear(){
+        for (int c = 0; c < components; c++) {
+            sums[c] = 0d;
+        }
+        next = 0;
+        size = 0;
+    }
+
+    private void add(int component, double v){
+        int i = next * components + component;
+        if(size == window){
+            sums[component] -= values[i];
+        }
+        values[i] = v;
+        sums[component] += v;
+    }
+
+    private void advance(){
+        next = (next + 1) % window;
+        if(size < window){
+            size++;
+        }
+        if(next == 0){
+            // sum again once per window, so rounding errors don't build up
+            for (int c = 0; c < components; c++) {
+                double sum = 0d;
+                for (int i = c; i < values.length; i += components) {
+                    sum += values[i];
+                }
+                sums[c] = sum;
+            }
+        }
+    }
+}
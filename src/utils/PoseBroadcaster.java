@@ -0,0 +1,135 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams hand poses over UDP to remote viewers, using {@link PoseCodec}.
+ *
+ * Viewers subscribe by sending any datagram to the broadcaster port, and have
+ * to repeat it at least every {@link #SUBSCRIBER_TIMEOUT} ms to stay subscribed
+ * (see {@link RemotePoseSource}). The channel is non blocking, so
+ * {@link #publish(HandPose)} can be called straight from the Leap Motion thread.
+ */
+public class PoseBroadcaster implements Closeable {
+
+    public static final int DEFAULT_PORT = 41414;
+    public static final long SUBSCRIBER_TIMEOUT = 5000;
+    private static final int KEYFRAME_INTERVAL = 60;
+
+    private final DatagramChannel channel;
+    private final PoseCodec codec = new PoseCodec();
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(PoseCodec.MAX_PACKET_SIZE);
+    private final ByteBuffer incoming = ByteBuffer.allocateDirect(64);
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final int[] sinceKeyframe = new int[2];
+    // per hand, so a new viewer gets a keyframe of each hand
+    private final boolean[] forceKeyframe = new boolean[2];
+
+    private long packetsSent;
+    private long bytesSent;
+    private long keyframesSent;
+
+    public PoseBroadcaster(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(port));
+    }
+
+    /**
+     * Encodes the pose and sends it to every subscriber. Doesn't block.
+     */
+    public synchronized void publish(HandPose pose){
+        long now = System.currentTimeMillis();
+        acceptSubscribers(now);
+        if(subscribers.isEmpty()){
+            return;
+        }
+        int hand = pose.isRight()?1:0;
+        boolean keyframe = forceKeyframe[hand] || sinceKeyframe[hand]>=KEYFRAME_INTERVAL;
+        sinceKeyframe[hand] = keyframe ? 0 : sinceKeyframe[hand]+1;
+        if(keyframe){
+            keyframesSent++;
+        }
+        forceKeyframe[hand] = false;
+
+        packet.clear();
+        int size = codec.encode(pose, keyframe, packet);
+        packet.flip();
+        for(Subscriber subscriber : subscribers){
+            try {
+                packet.rewind();
+                if(channel.send(packet, subscriber.address)>0){
+                    packetsSent++;
+                    bytesSent += size;
+                }
+            } catch (IOException ex) {
+                System.out.println("Error sending pose to " + subscriber.address + ": " + ex);
+            }
+        }
+    }
+
+    private void acceptSubscribers(long now){
+        try {
+            SocketAddress address;
+            incoming.clear();
+            while((address = channel.receive(incoming))!=null){
+                incoming.clear();
+                Subscriber subscriber = null;
+                for(Subscriber s : subscribers){
+                    if(s.address.equals(address)){
+                        subscriber = s;
+                        break;
+                    }
+                }
+                if(subscriber == null){
+                    subscriber = new Subscriber(address);
+                    subscribers.add(subscriber);
+                    // new viewers can't decode deltas
+                    forceKeyframe[0] = forceKeyframe[1] = true;
+                }
+                subscriber.lastSeen = now;
+            }
+        } catch (IOException ex) {
+            System.out.println("Error reading subscriptions: " + ex);
+        }
+        for(Iterator<Subscriber> it = subscribers.iterator(); it.hasNext(); ){
+            if(now - it.next().lastSeen > SUBSCRIBER_TIMEOUT){
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return local port of the channel, the one bound if it was created with port 0
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress)channel.getLocalAddress()).getPort();
+    }
+
+    public synchronized int getSubscribers() { return subscribers.size(); }
+    public synchronized long getPacketsSent() { return packetsSent; }
+    public synchronized long getBytesSent() { return bytesSent; }
+    public synchronized long getKeyframesSent() { return keyframesSent; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Subscriber {
+        private final SocketAddress address;
+        private long lastSeen;
+
+        Subscriber(SocketAddress address){
+            this.address = address;
+        }
+    }
+}
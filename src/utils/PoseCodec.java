@@ -0,0 +1,308 @@
+package utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary wire format for {@link HandPose} streams, one packet per hand
+ * and frame.
+ *
+ * Rotations are quantized to 32 bits with the "smallest three" scheme: 2 bits
+ * for the index of the largest component and 10 bits for each of the other
+ * three. Positions are quantized to 0.1 mm.
+ *
+ * Header (8 bytes): magic, flags, sequence (u16), timestamp (u32, microseconds)
+ *
+ * Keyframe: valid joints mask (u16), position (3 x i16), palm rotation (u32),
+ * and one u32 rotation for each valid joint.
+ *
+ * Delta, against the previous packet of the same hand: [valid joints mask (u16)],
+ * position deltas (3 zigzag varints), [palm rotation (u32)], changed joints
+ * mask (u16), and for each changed joint the deltas of its three quantized
+ * components (zigzag varints), or a full u32 rotation if its largest component
+ * changed.
+ *
+ * A resting hand costs around 14 bytes per frame, a moving one around 60 bytes.
+ * Deltas are only decoded on top of the previous sequence, so after a lost
+ * packet the decoder waits for the next keyframe.
+ *
+ * Each instance keeps the state of one direction: use one for encoding and
+ * a different one for decoding.
+ */
+public class PoseCodec {
+
+    public static final int MAX_PACKET_SIZE = 512;
+
+    private static final byte MAGIC = (byte)0xA7;
+    private static final int FLAG_RIGHT = 1;
+    private static final int FLAG_KEYFRAME = 2;
+    private static final int FLAG_VALID = 4;
+    private static final int FLAG_PALM = 8;
+
+    private static final float POSITION_SCALE = 10f;
+    private static final int COMPONENT_BITS = 10;
+    private static final int COMPONENT_MAX = (1 << COMPONENT_BITS) - 1;
+    private static final double COMPONENT_RANGE = Math.sqrt(0.5d);
+    private static final int IDENTITY = quantize(0f, 0f, 0f, 1f);
+
+    private final HandState[] states = new HandState[]{ new HandState(false), new HandState(true) };
+
+    /**
+     * Encodes the pose as a keyframe or as a delta against the previous encoded pose
+     * of the same hand
+     * @param pose pose to encode
+     * @param keyframe forces a self contained packet
+     * @param out buffer, with at least {@link #MAX_PACKET_SIZE} bytes remaining
+     * @return number of bytes written
+     */
+    public int encode(HandPose pose, boolean keyframe, ByteBuffer out){
+        HandState state = states[pose.isRight()?1:0];
+        keyframe |= !state.synced;
+        int start = out.position();
+        int valid = pose.getValidJoints();
+        float[] position = pose.getPosition();
+        int px = Math.round(position[0]*POSITION_SCALE);
+        int py = Math.round(position[1]*POSITION_SCALE);
+        int pz = Math.round(position[2]*POSITION_SCALE);
+        int palm = quantize(pose.getPalmRotation(), 0);
+
+        int flags = (pose.isRight()?FLAG_RIGHT:0) | (keyframe?FLAG_KEYFRAME:0);
+        if(!keyframe){
+            flags |= (valid!=state.valid?FLAG_VALID:0) | (palm!=state.palm?FLAG_PALM:0);
+        }
+        state.sequence = (state.sequence + 1) & 0xffff;
+        out.put(MAGIC);
+        out.put((byte)flags);
+        out.putShort((short)state.sequence);
+        out.putInt((int)pose.getTimestamp());
+
+        float[] rotations = pose.getRotations();
+        if(keyframe){
+            px = clampShort(px);
+            py = clampShort(py);
+            pz = clampShort(pz);
+            out.putShort((short)valid);
+            out.putShort((short)px);
+            out.putShort((short)py);
+            out.putShort((short)pz);
+            out.putInt(palm);
+            for(int i=0; i<HandPose.JOINTS; i++){
+                if((valid & (1 << i))!=0){
+                    state.joints[i] = quantize(rotations, 4*i);
+                    out.putInt(state.joints[i]);
+                } else {
+                    state.joints[i] = IDENTITY;
+                }
+            }
+        } else {
+            if((flags & FLAG_VALID)!=0){
+                out.putShort((short)valid);
+            }
+            putVarInt(out, zigzag(px-state.x));
+            putVarInt(out, zigzag(py-state.y));
+            putVarInt(out, zigzag(pz-state.z));
+            if((flags & FLAG_PALM)!=0){
+                out.putInt(palm);
+            }
+            int changedPosition = out.position();
+            out.putShort((short)0);
+            int changed = 0;
+            for(int i=0; i<HandPose.JOINTS; i++){
+                if((valid & (1 << i))==0){
+                    continue;
+                }
+                int q = quantize(rotations, 4*i);
+                int previous = state.joints[i];
+                if(q==previous){
+                    continue;
+                }
+                changed |= 1 << i;
+                if((q >>> 30)!=(previous >>> 30)){
+                    putVarInt(out, 0);
+                    out.putInt(q);
+                } else {
+                    putVarInt(out, zigzag(component(q,0)-component(previous,0))+1);
+                    putVarInt(out, zigzag(component(q,1)-component(previous,1)));
+                    putVarInt(out, zigzag(component(q,2)-component(previous,2)));
+                }
+                state.joints[i] = q;
+            }
+            out.putShort(changedPosition, (short)changed);
+        }
+        state.valid = valid;
+        state.x = px;
+        state.y = py;
+        state.z = pz;
+        state.palm = palm;
+        state.synced = true;
+        return out.position()-start;
+    }
+
+    /**
+     * Decodes a packet into the pose of its hand
+     * @param in buffer with one packet
+     * @return the decoded pose, owned by this codec, or null if the packet was
+     * malformed or a delta that doesn't follow the last decoded packet
+     */
+    public HandPose decode(ByteBuffer in){
+        if(in.remaining()<8 || in.get()!=MAGIC){
+            return null;
+        }
+        int flags = in.get();
+        HandState state = states[(flags & FLAG_RIGHT)!=0?1:0];
+        int sequence = in.getShort() & 0xffff;
+        long time = in.getInt() & 0xffffffffL;
+        boolean keyframe = (flags & FLAG_KEYFRAME)!=0;
+        if(!keyframe && (!state.synced || sequence!=((state.sequence + 1) & 0xffff))){
+            state.synced = false;
+            return null;
+        }
+        try {
+            if(keyframe){
+                state.valid = in.getShort() & 0xffff;
+                state.x = in.getShort();
+                state.y = in.getShort();
+                state.z = in.getShort();
+                state.palm = in.getInt();
+                for(int i=0; i<HandPose.JOINTS; i++){
+                    state.joints[i] = (state.valid & (1 << i))!=0 ? in.getInt() : IDENTITY;
+                }
+            } else {
+                if((flags & FLAG_VALID)!=0){
+                    state.valid = in.getShort() & 0xffff;
+                }
+                state.x += unzigzag(getVarInt(in));
+                state.y += unzigzag(getVarInt(in));
+                state.z += unzigzag(getVarInt(in));
+                if((flags & FLAG_PALM)!=0){
+                    state.palm = in.getInt();
+                }
+                int changed = in.getShort() & 0xffff;
+                for(int i=0; i<HandPose.JOINTS; i++){
+                    if((changed & (1 << i))==0){
+                        continue;
+                    }
+                    int head = getVarInt(in);
+                    if(head==0){
+                        state.joints[i] = in.getInt();
+                    } else {
+                        int previous = state.joints[i];
+                        int c0 = component(previous,0) + unzigzag(head-1);
+                        int c1 = component(previous,1) + unzigzag(getVarInt(in));
+                        int c2 = component(previous,2) + unzigzag(getVarInt(in));
+                        state.joints[i] = (previous & 0xc0000000) | (c0 << 20) | (c1 << 10) | c2;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            state.synced = false;
+            return null;
+        }
+        state.sequence = sequence;
+        state.synced = true;
+        state.time += (time - state.time) & 0xffffffffL;
+
+        HandPose pose = state.pose;
+        pose.setSequence(pose.getSequence()+1);
+        pose.setTimestamp(state.time);
+        pose.setValidJoints(state.valid);
+        pose.setPosition(state.x/POSITION_SCALE, state.y/POSITION_SCALE, state.z/POSITION_SCALE);
+        dequantize(state.palm, pose.getPalmRotation(), 0);
+        float[] rotations = pose.getRotations();
+        for(int i=0; i<HandPose.JOINTS; i++){
+            dequantize(state.joints[i], rotations, 4*i);
+        }
+        return pose;
+    }
+
+    private static int quantize(float[] q, int offset){
+        return quantize(q[offset], q[offset+1], q[offset+2], q[offset+3]);
+    }
+
+    private static int quantize(float x, float y, float z, float w){
+        float ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z), aw = Math.abs(w);
+        if(ax>=ay && ax>=az && ax>=aw){
+            return pack(0, x<0?-1f:1f, y, z, w);
+        }
+        if(ay>=az && ay>=aw){
+            return pack(1, y<0?-1f:1f, x, z, w);
+        }
+        if(az>=aw){
+            return pack(2, z<0?-1f:1f, x, y, w);
+        }
+        return pack(3, w<0?-1f:1f, x, y, z);
+    }
+
+    private static int pack(int largest, float sign, float a, float b, float c){
+        return (largest << 30) | (quantize(sign*a) << 20) | (quantize(sign*b) << 10) | quantize(sign*c);
+    }
+
+    private static int quantize(float component){
+        double v = (component/COMPONENT_RANGE + 1d)/2d;
+        return (int)Math.round(Math.max(0d, Math.min(1d, v))*COMPONENT_MAX);
+    }
+
+    private static void dequantize(int packed, float[] q, int offset){
+        int largest = packed >>> 30;
+        double sum = 0d;
+        int j = 0;
+        for(int i=0; i<4; i++){
+            if(i!=largest){
+                double v = (component(packed,j++)/(double)COMPONENT_MAX*2d - 1d)*COMPONENT_RANGE;
+                q[offset+i] = (float)v;
+                sum += v*v;
+            }
+        }
+        q[offset+largest] = (float)Math.sqrt(Math.max(0d, 1d-sum));
+    }
+
+    private static int component(int packed, int index){
+        return (packed >>> (20 - COMPONENT_BITS*index)) & COMPONENT_MAX;
+    }
+
+    private static int clampShort(int value){
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    private static int zigzag(int value){
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarInt(ByteBuffer out, int value){
+        while((value & ~0x7f)!=0){
+            out.put((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+    private static int getVarInt(ByteBuffer in){
+        int value = 0;
+        for(int shift=0; shift<35; shift+=7){
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80)==0){
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static class HandState {
+        private final HandPose pose;
+        private final int[] joints = new int[HandPose.JOINTS];
+        private boolean synced;
+        private int sequence;
+        private long time;
+        private int valid;
+        private int x, y, z;
+        private int palm = IDENTITY;
+
+        HandState(boolean right){
+            pose = new HandPose(right);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package utils;
+
+/**
+ * {@link HandPoseSource} that filters the poses of another source, so a hand
+ * that hasn't moved meaningfully since the last applied pose doesn't cost
+ * joint updates and skinning.
+ *
+ * A new pose passes the gate if any joint rotation, the palm rotation or the
+ * palm position differ from the last applied pose more than their epsilons.
+ * With hysteresis: a resting hand needs to move WAKE_FACTOR times the epsilons
+ * to wake up, and a moving hand goes back to rest after REST_FRAMES poses in a
+ * row under the epsilons, so the noise of the tracking doesn't flicker between
+ * both states.
+ */
+public class PoseGate implements HandPoseSource {
+
+    public static final double WAKE_FACTOR = 3d;
+    public static final int REST_FRAMES = 15;
+
+    private final HandPoseSource source;
+    private final Gate gateLeft = new Gate(false);
+    private final Gate gateRight = new Gate(true);
+
+    // cosines of the half epsilon angles, to compare with the quaternion dot products
+    private final double[] jointCos = new double[HandPose.JOINTS];
+    private final double[] jointWakeCos = new double[HandPose.JOINTS];
+    private double palmCos;
+    private double palmWakeCos;
+    private double positionEpsilon;
+
+    private long framesApplied;
+    private long framesSkipped;
+
+    /**
+     * Gate with default epsilons: 1 degree per joint, 0.5 degrees for the palm
+     * and 1 mm for its position
+     * @param source poses to filter
+     */
+    public PoseGate(HandPoseSource source){
+        this.source = source;
+        for(int i=0; i<HandPose.JOINTS; i++){
+            setJointEpsilon(i, 1d);
+        }
+        setPalmEpsilon(0.5d, 1d);
+    }
+
+    /**
+     * @param index joint slot
+     * @param degrees minimum rotation of the joint that is applied
+     */
+    public final void setJointEpsilon(int index, double degrees){
+        jointCos[index] = halfCos(degrees);
+        jointWakeCos[index] = halfCos(WAKE_FACTOR*degrees);
+    }
+
+    /**
+     * @param degrees minimum rotation of the palm that is applied
+     * @param mm minimum translation of the palm that is applied, in Leap Motion coordinates
+     */
+    public final void setPalmEpsilon(double degrees, double mm){
+        palmCos = halfCos(degrees);
+        palmWakeCos = halfCos(WAKE_FACTOR*degrees);
+        positionEpsilon = mm;
+    }
+
+    @Override
+    public boolean poll(boolean right, HandPose target) {
+        Gate gate = right ? gateRight : gateLeft;
+        if(!source.poll(right, gate.candidate)){
+            return false;
+        }
+        if(hasMoved(gate)){
+            gate.quietFrames = 0;
+            gate.moving = true;
+        } else if(gate.moving && ++gate.quietFrames >= REST_FRAMES){
+            gate.moving = false;
+        }
+        if(!gate.moving || gate.quietFrames > 0){
+            framesSkipped++;
+            return false;
+        }
+        gate.applied.copyFrom(gate.candidate);
+        target.copyFrom(gate.candidate);
+        framesApplied++;
+        return true;
+    }
+
+    /**
+     * @return poses applied: a joint moved over its epsilon
+     */
+    public long getFramesApplied() { return framesApplied; }
+
+    /**
+     * @return poses skipped: new poses of the source that didn't move the hand
+     */
+    public long getFramesSkipped() { return framesSkipped; }
+
+    public boolean isMoving(boolean right) { return (right ? gateRight : gateLeft).moving; }
+
+    @Override
+    public String toString() {
+        return "PoseGate{" + "framesApplied=" + framesApplied + ", framesSkipped=" + framesSkipped + '}';
+    }
+
+    private boolean hasMoved(Gate gate){
+        HandPose pose = gate.candidate, applied = gate.applied;
+        if(applied.getSequence()==0 || pose.getValidJoints()!=applied.getValidJoints()){
+            return true;
+        }
+        boolean wake = !gate.moving;
+        double epsilon = wake ? WAKE_FACTOR*positionEpsilon : positionEpsilon;
+        float[] p = pose.getPosition(), a = applied.getPosition();
+        double dx = p[0]-a[0], dy = p[1]-a[1], dz = p[2]-a[2];
+        if(dx*dx+dy*dy+dz*dz > epsilon*epsilon){
+            return true;
+        }
+        if(dot(pose.getPalmRotation(), applied.getPalmRotation(), 0) < (wake ? palmWakeCos : palmCos)){
+            return true;
+        }
+        float[] r = pose.getRotations(), ra = applied.getRotations();
+        for(int i=0; i<HandPose.JOINTS; i++){
+            if(pose.isJointValid(i) && dot(r, ra, 4*i) < (wake ? jointWakeCos[i] : jointCos[i])){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    |q1.q2| is the cosine of half the angle between both rotations
+    */
+    private static double dot(float[] q1, float[] q2, int offset){
+        return Math.abs(q1[offset]*q2[offset]+q1[offset+1]*q2[offset+1]+
+                        q1[offset+2]*q2[offset+2]+q1[offset+3]*q2[offset+3]);
+    }
+
+    private static double halfCos(double degrees){
+        return Math.cos(Math.toRadians(degrees)/2d);
+    }
+
+    private static class Gate {
+        private final HandPose candidate;
+        private final HandPose applied;
+        private boolean moving;
+        private int quietFrames;
+
+        private Gate(boolean right){
+            candidate = new HandPose(right);
+            applied = new HandPose(right);
+        }
+    }
+}
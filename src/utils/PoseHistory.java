@@ -0,0 +1,207 @@
+package utils;
+
+/**
+ * Last poses of one hand with their timestamps, in a ring of primitive arrays,
+ * to get the pose at any time between them: joint and palm rotations are
+ * interpolated with slerp, and the palm position linearly.
+ *
+ * Every pose also keeps its arrival time in the local clock, so the offset
+ * between the clock of the producer and the local one can be estimated as the
+ * lowest difference seen, the one of the fastest delivery.
+ *
+ * Not thread safe.
+ */
+public class PoseHistory {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final int ROTATIONS = 4 * HandPose.JOINTS;
+    private static final double SLERP_THRESHOLD = 0.9995d;
+
+    private final int capacity;
+    private final long[] sequences;
+    private final long[] timestamps;
+    private final long[] arrivals;
+    private final int[] validJoints;
+    private final float[] positions;
+    private final float[] palmRotations;
+    private final float[] rotations;
+    private int newest = -1;
+    private int size;
+    private long clockOffset;
+
+    public PoseHistory(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of poses kept
+     */
+    public PoseHistory(int capacity){
+        this.capacity = capacity;
+        sequences = new long[capacity];
+        timestamps = new long[capacity];
+        arrivals = new long[capacity];
+        validJoints = new int[capacity];
+        positions = new float[3 * capacity];
+        palmRotations = new float[4 * capacity];
+        rotations = new float[ROTATIONS * capacity];
+    }
+
+    public int getCapacity() { return capacity; }
+    public int size() { return size; }
+
+    public void clear(){
+        newest = -1;
+        size = 0;
+    }
+
+    /**
+     * Adds a pose newer than the ones kept, replacing the oldest one if full
+     * @param pose pose, copied
+     * @param arrival time the pose arrived, in microseconds, in the local clock
+     * @return false if the pose isn't newer than the newest one, and wasn't added
+     */
+    public boolean add(HandPose pose, long arrival){
+        if(size > 0 && (pose.getSequence() == sequences[newest] || pose.getTimestamp() <= timestamps[newest])){
+            return false;
+        }
+        int i = (newest + 1) % capacity;
+        sequences[i] = pose.getSequence();
+        timestamps[i] = pose.getTimestamp();
+        arrivals[i] = arrival;
+        validJoints[i] = pose.getValidJoints();
+        System.arraycopy(pose.getPosition(), 0, positions, 3 * i, 3);
+        System.arraycopy(pose.getPalmRotation(), 0, palmRotations, 4 * i, 4);
+        System.arraycopy(pose.getRotations(), 0, rotations, ROTATIONS * i, ROTATIONS);
+        newest = i;
+        if(size < capacity){
+            size++;
+        }
+        // lowest delay over the poses kept, so it follows drifting clocks
+        clockOffset = Long.MAX_VALUE;
+        for (int k = 0; k < size; k++) {
+            int j = index(k);
+            clockOffset = Math.min(clockOffset, arrivals[j] - timestamps[j]);
+        }
+        return true;
+    }
+
+    /**
+     * @return timestamp of the newest pose, in the clock of the producer, or 0 if empty
+     */
+    public long getNewestTimestamp() { return size > 0 ? timestamps[newest] : 0L; }
+
+    /**
+     * @return timestamp of the oldest pose, in the clock of the producer, or 0 if empty
+     */
+    public long getOldestTimestamp() { return size > 0 ? timestamps[index(size - 1)] : 0L; }
+
+    /**
+     * @return sequence of the newest pose, or 0 if empty
+     */
+    public long getNewestSequence() { return size > 0 ? sequences[newest] : 0L; }
+
+    /**
+     * @return local time minus the time of the producer, in microseconds, for
+     * the pose that arrived first after being produced
+     */
+    public long getClockOffset() { return clockOffset; }
+
+    /**
+     * Pose at a time, interpolated between the poses before and after it, or
+     * the oldest or newest pose if the time is out of the history. Poses further
+     * apart than maxGap aren't interpolated, the time takes the newer one, so a
+     * hand tracked again doesn't sweep from where it was lost
+     * @param time in microseconds, in the clock of the producer
+     * @param maxGap maximum time between two poses to interpolate, in microseconds
+     * @param target pose to fill; its sequence isn't changed, its timestamp is the time
+     * @return false if there are no poses
+     */
+    public boolean sample(long time, long maxGap, HandPose target){
+        if(size == 0){
+            return false;
+        }
+        int after = newest, before = newest;
+        for (int k = 1; k < size && timestamps[before] > time; k++) {
+            after = before;
+            before = index(k);
+        }
+        if(timestamps[before] >= time || before == after){
+            // older than the history, or newer than the newest pose
+            set(timestamps[before] >= time ? before : after, target);
+        } else if(timestamps[after] - timestamps[before] > maxGap){
+            set(after, target);
+        } else {
+            double t = (double)(time - timestamps[before]) / (timestamps[after] - timestamps[before]);
+            interpolate(before, after, t, target);
+        }
+        target.setTimestamp(time);
+        return true;
+    }
+
+    /*
+    Ring index of the k-th newest pose
+    */
+    private int index(int k){
+        return (newest - k + capacity) % capacity;
+    }
+
+    private void set(int i, HandPose target){
+        target.setValidJoints(validJoints[i]);
+        float[] p = positions;
+        target.setPosition(p[3 * i], p[3 * i + 1], p[3 * i + 2]);
+        System.arraycopy(palmRotations, 4 * i, target.getPalmRotation(), 0, 4);
+        System.arraycopy(rotations, ROTATIONS * i, target.getRotations(), 0, ROTATIONS);
+    }
+
+    private void interpolate(int a, int b, double t, HandPose target){
+        float[] p = positions;
+        target.setPosition((float)(p[3 * a] + t * (p[3 * b] - p[3 * a])),
+                (float)(p[3 * a + 1] + t * (p[3 * b + 1] - p[3 * a + 1])),
+                (float)(p[3 * a + 2] + t * (p[3 * b + 2] - p[3 * a + 2])));
+        slerp(palmRotations, 4 * a, 4 * b, t, target.getPalmRotation(), 0);
+        // joints valid in one pose only take its rotation
+        int valid = validJoints[a] & validJoints[b];
+        float[] r = target.getRotations();
+        for (int j = 0; j < HandPose.JOINTS; j++) {
+            if((valid & (1 << j)) != 0){
+                slerp(rotations, ROTATIONS * a + 4 * j, ROTATIONS * b + 4 * j, t, r, 4 * j);
+            } else {
+                int from = (validJoints[b] & (1 << j)) != 0 ? b : a;
+                System.arraycopy(rotations, ROTATIONS * from + 4 * j, r, 4 * j, 4);
+            }
+        }
+        target.setValidJoints(validJoints[a] | validJoints[b]);
+    }
+
+    /*
+    Spherical interpolation of unit quaternions (x, y, z, w) by the shortest
+    path, linear and normalized when they are very close
+    */
+    static void slerp(float[] q, int a, int b, double t, float[] r, int ro){
+        double dot = q[a] * q[b] + q[a + 1] * q[b + 1] + q[a + 2] * q[b + 2] + q[a + 3] * q[b + 3];
+        double sign = 1d;
+        if(dot < 0d){
+            dot = -dot;
+            sign = -1d;
+        }
+        double wa, wb;
+        if(dot > SLERP_THRESHOLD){
+            wa = 1d - t;
+            wb = t;
+        } else {
+            double angle = Math.acos(dot), sin = Math.sin(angle);
+            wa = Math.sin((1d - t) * angle) / sin;
+            wb = Math.sin(t * angle) / sin;
+        }
+        wb *= sign;
+        double x = wa * q[a] + wb * q[b], y = wa * q[a + 1] + wb * q[b + 1];
+        double z = wa * q[a + 2] + wb * q[b + 2], w = wa * q[a + 3] + wb * q[b + 3];
+        double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+        r[ro] = (float)(x / norm);
+        r[ro + 1] = (float)(y / norm);
+        r[ro + 2] = (float)(z / norm);
+        r[ro + 3] = (float)(w / norm);
+    }
+}
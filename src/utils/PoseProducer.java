@@ -0,0 +1,77 @@
+package utils;
+
+import com.leapmotion.leap.Controller;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Standalone tracking process: runs the Leap Motion listener and publishes
+ * the hand poses into a {@link PoseRingBuffer}, so a crash in the native layer
+ * or a GC pause in tracking don't reach the renderer.
+ *
+ * With --synthetic[=rate] it publishes {@link SyntheticPoseSource} hands
+ * instead, 1 kHz by default, to test the ring without a device.
+ *
+ * Usage: java -cp RiggedHand.jar utils.PoseProducer [ring file] [--synthetic[=rate] --seed=0]
+ * and then run RiggedHand with --shm=[ring file]
+ */
+public class PoseProducer {
+
+    public static final String DEFAULT_FILE = "/dev/shm/riggedhand.poses";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String,String> params = new HashMap<>();
+        String file = DEFAULT_FILE;
+        for (String arg : args) {
+            if(arg.startsWith("--")){
+                String[] p = arg.replaceFirst("^--", "").split("=", 2);
+                params.put(p[0], p.length > 1 ? p[1] : "");
+            } else {
+                file = arg;
+            }
+        }
+        File path = new File(file);
+        PoseRingBuffer ring = new PoseRingBuffer(path, PoseRingBuffer.DEFAULT_CAPACITY);
+        Runnable stop;
+        if(params.containsKey("synthetic")){
+            String rate = params.get("synthetic");
+            SyntheticPoseSource source = new SyntheticPoseSource(Long.parseLong(params.getOrDefault("seed", "0")),
+                    !rate.isEmpty() ? Double.parseDouble(rate) : 1000d);
+            // only called from the thread of the source: single producer
+            source.setOnPose(ring::publish);
+            source.start();
+            stop = source::close;
+            System.out.println("Publishing synthetic hand poses at " + source.getRate() + " Hz to " + path);
+        } else {
+            stop = Leap.start(ring);
+            System.out.println("Publishing hand poses to " + path);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop.run();
+            try {
+                ring.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing " + path + ": " + ex);
+            }
+        }));
+        Thread.currentThread().join();
+    }
+
+    /*
+    Apart, so the synthetic mode doesn't load the Leap Motion classes
+    */
+    private static class Leap {
+
+        private static Runnable start(PoseRingBuffer ring){
+            LeapListener listener = new LeapListener();
+            // only called from the Leap Motion thread: single producer
+            listener.setOnPose(ring::publish);
+            Controller controller = new Controller();
+            controller.addListener(listener);
+            return () -> controller.removeListener(listener);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Records every hand pose with the time it arrived, to replay a tracking
+ * session with its exact timing (see {@link PoseReplay}). Poses are stored
+ * as they are, not quantized like {@link PoseCodec} does, one record per pose:
+ * arrival and timestamp (microseconds), right hand flag, sequence, valid
+ * joints, position, palm rotation and joint rotations.
+ *
+ * It can be set as the pose consumer of {@link LeapListener#setOnPose}.
+ */
+public class PoseRecorder implements Consumer<HandPose>, Closeable {
+
+    private static final int MAGIC = 0x48505231;    // HPR1
+
+    private final DataOutputStream out;
+    private long records;
+
+    public PoseRecorder(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * Records a pose that arrives now
+     */
+    @Override
+    public void accept(HandPose pose){
+        record(pose, System.nanoTime() / 1000);
+    }
+
+    /**
+     * @param pose pose to record
+     * @param arrival time the pose arrived, in microseconds, in the local clock
+     */
+    public synchronized void record(HandPose pose, long arrival){
+        try {
+            out.writeLong(arrival);
+            out.writeLong(pose.getTimestamp());
+            out.writeBoolean(pose.isRight());
+            out.writeLong(pose.getSequence());
+            out.writeInt(pose.getValidJoints());
+            for (float v : pose.getPosition()) {
+                out.writeFloat(v);
+            }
+            for (float v : pose.getPalmRotation()) {
+                out.writeFloat(v);
+            }
+            for (float v : pose.getRotations()) {
+                out.writeFloat(v);
+            }
+            records++;
+        } catch (IOException ex) {
+            System.out.println("Error: " + ex);
+        }
+    }
+
+    public synchronized long getRecords() { return records; }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Receiver of the poses of a recording
+     */
+    public interface Player {
+        /**
+         * @param arrival time the pose arrived, in microseconds
+         * @param pose pose, reused for the next record
+         */
+        void play(long arrival, HandPose pose);
+    }
+
+    /**
+     * Reads a recording
+     * @param file recorded file
+     * @param player receives every pose, in order
+     * @return number of poses read
+     */
+    public static long read(File file, Player player) throws IOException {
+        HandPose left = new HandPose(false), right = new HandPose(true);
+        long n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC){
+                throw new IOException("Not a pose recording: " + file);
+            }
+            while(true){
+                long arrival;
+                try {
+                    arrival = in.readLong();
+                } catch (EOFException ex) {
+                    break;
+                }
+                long timestamp = in.readLong();
+                HandPose pose = in.readBoolean() ? right : left;
+                pose.setTimestamp(timestamp);
+                pose.setSequence(in.readLong());
+                pose.setValidJoints(in.readInt());
+                pose.setPosition(in.readFloat(), in.readFloat(), in.readFloat());
+                float[] palm = pose.getPalmRotation();
+                for (int i = 0; i < palm.length; i++) {
+                    palm[i] = in.readFloat();
+                }
+                float[] rotations = pose.getRotations();
+                for (int i = 0; i < rotations.length; i++) {
+                    rotations[i] = in.readFloat();
+                }
+                player.play(arrival, pose);
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,236 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a recording of poses (see {@link PoseRecorder}) against a display
+ * running at a fixed rate, in simulated time, and compares applying the latest
+ * pose that arrived, as RiggedHand does by default, with a {@link PoseSampler}.
+ *
+ * For every hand and mode:
+ * - applied: poses applied per displayed frame, and frames where more than one
+ *   pose arrived, so all but the last one were wasted
+ * - age: time from the timestamp of the pose shown to the frame, its mean and
+ *   its standard deviation, the judder: a steady hand motion needs a steady age
+ * - step: standard deviation of the time the shown pose advances per frame,
+ *   against the frame period
+ * - accel: RMS of the second difference of the palm position per frame, in mm,
+ *   where judder shows up as uneven steps
+ *
+ * Without a recording it generates one with SyntheticPoseSource motion,
+ * captured at a regular rate and delivered with irregular delays and stalls,
+ * like the frames of the Leap Motion service.
+ *
+ * Usage: java -cp RiggedHand.jar utils.PoseReplay [--file=recording] [--fps=60]
+ * [--delay=20] (ms) [--seconds=60 --rate=110 --seed=0 --save=file] (generated)
+ */
+public class PoseReplay {
+
+    private static final int LATENCY = 6_000;       // us from capture to arrival
+    private static final int LATENCY_JITTER = 3_000;
+    private static final double STALL = 0.01d;      // probability per frame
+    private static final int STALL_TIME = 30_000;   // us
+
+    private long[] arrivals = new long[1024];
+    private final List<HandPose> poses = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        Map<String,String> params = new HashMap<>();
+        for (String arg : args) {
+            String[] p = arg.replaceFirst("^--", "").split("=", 2);
+            params.put(p[0], p.length > 1 ? p[1] : "");
+        }
+        double fps = Double.parseDouble(params.getOrDefault("fps", "60"));
+        long delay = (long)(1000d * Double.parseDouble(params.getOrDefault("delay", "20")));
+
+        PoseReplay replay = new PoseReplay();
+        if(params.containsKey("file")){
+            long n = PoseRecorder.read(new File(params.get("file")), replay::add);
+            System.out.println("recording " + params.get("file") + ": " + n + " poses");
+        } else {
+            double seconds = Double.parseDouble(params.getOrDefault("seconds", "60"));
+            double rate = Double.parseDouble(params.getOrDefault("rate", "110"));
+            replay.generate(Long.parseLong(params.getOrDefault("seed", "0")), rate, seconds);
+            System.out.println(String.format("generated: %d poses, %.0f Hz, %.0f s", replay.poses.size(), rate, seconds));
+            if(params.containsKey("save")){
+                try (PoseRecorder recorder = new PoseRecorder(new File(params.get("save")))) {
+                    for (int i = 0; i < replay.poses.size(); i++) {
+                        recorder.record(replay.poses.get(i), replay.arrivals[i]);
+                    }
+                }
+            }
+        }
+        if(replay.poses.isEmpty()){
+            System.out.println("Error: no poses");
+            return;
+        }
+        System.out.println(String.format("display %.0f Hz, render delay %.1f ms", fps, delay / 1000d));
+        replay.run(fps, -1, "latest");
+        replay.run(fps, delay, "sampler");
+    }
+
+    private void add(long arrival, HandPose pose){
+        HandPose copy = new HandPose(pose.isRight());
+        copy.copyFrom(pose);
+        addPose(arrival, copy);
+    }
+
+    private void addPose(long arrival, HandPose pose){
+        if(poses.size() == arrivals.length){
+            arrivals = Arrays.copyOf(arrivals, 2 * arrivals.length);
+        }
+        arrivals[poses.size()] = arrival;
+        poses.add(pose);
+    }
+
+    /*
+    Regular capture, delivered in order with a random latency, and stalls that
+    deliver several frames at once
+    */
+    private void generate(long seed, double rate, double seconds){
+        SyntheticPoseSource motion = new SyntheticPoseSource(seed, rate);
+        Random random = new Random(seed);
+        long last = 0, stall = 0;
+        for (long frame = 0; frame < (long)(seconds * rate); frame++) {
+            long capture = (long)(frame * 1e6 / rate);
+            if(random.nextDouble() < STALL){
+                stall = capture + STALL_TIME;
+            }
+            long arrival = Math.max(capture + LATENCY + (long)(LATENCY_JITTER * -Math.log(1d - random.nextDouble())), stall);
+            last = Math.max(last, arrival);
+            for (boolean right : new boolean[]{false, true}) {
+                HandPose pose = new HandPose(right);
+                motion.pose(frame, right, pose);
+                pose.setSequence(frame + 1);
+                pose.setTimestamp(capture);
+                addPose(last, pose);
+            }
+        }
+    }
+
+    private void run(double fps, long delay, String mode){
+        final double period = 1e6 / fps;
+        LatestSource latest = new LatestSource();
+        PoseSampler sampler = delay >= 0 ? new PoseSampler(null, delay) : null;
+        HandPoseSource source = sampler != null ? sampler : latest;
+        HandPose[] shown = {new HandPose(false), new HandPose(true)};
+        Stats[] stats = {new Stats(), new Stats()};
+        final long start = arrivals[0], end = arrivals[poses.size() - 1];
+        int[] arrived = new int[2];
+        int next = 0;
+        for (long frame = 0; ; frame++) {
+            long time = start + (long)(frame * period);
+            if(time > end){
+                break;
+            }
+            arrived[0] = arrived[1] = 0;
+            while(next < poses.size() && arrivals[next] <= time){
+                HandPose pose = poses.get(next);
+                latest.publish(pose);
+                if(sampler != null){
+                    sampler.accept(pose, arrivals[next]);
+                }
+                arrived[pose.isRight() ? 1 : 0]++;
+                next++;
+            }
+            if(sampler != null){
+                sampler.setFrameTime(time);
+            }
+            for (int h = 0; h < 2; h++) {
+                boolean applied = source.poll(h == 1, shown[h]);
+                stats[h].frame(time, shown[h], applied, arrived[h], period);
+            }
+        }
+        for (int h = 0; h < 2; h++) {
+            System.out.println(String.format("%-8s %-5s %s", mode, h == 1 ? "right" : "left", stats[h]));
+        }
+        if(sampler != null){
+            System.out.println(sampler);
+        }
+    }
+
+    /*
+    The latest pose of every hand, as the sources that RiggedHand polls
+    */
+    private static class LatestSource implements HandPoseSource {
+
+        private final HandPose[] latest = {new HandPose(false), new HandPose(true)};
+
+        private void publish(HandPose pose){
+            latest[pose.isRight() ? 1 : 0].copyFrom(pose);
+        }
+
+        @Override
+        public boolean poll(boolean right, HandPose target) {
+            HandPose pose = latest[right ? 1 : 0];
+            if(pose.getSequence() == 0 || pose.getSequence() == target.getSequence()){
+                return false;
+            }
+            target.copyFrom(pose);
+            return true;
+        }
+    }
+
+    private static class Stats {
+
+        private long frames, applied, crowded;
+        private long n;
+        private double age, age2, step2;
+        private long nAccel;
+        private double accel2;
+        private long lastTimestamp = -1;
+        private final double[] previous = new double[6];
+        private int nPrevious;
+
+        private void frame(long time, HandPose pose, boolean applied, int arrived, double period){
+            if(pose.getSequence() == 0){
+                return;
+            }
+            frames++;
+            if(applied){
+                this.applied++;
+            }
+            if(arrived > 1){
+                crowded++;
+            }
+            double a = time - pose.getTimestamp();
+            age += a;
+            age2 += a * a;
+            if(lastTimestamp >= 0){
+                double d = pose.getTimestamp() - lastTimestamp - period;
+                step2 += d * d;
+                n++;
+            }
+            lastTimestamp = pose.getTimestamp();
+            float[] p = pose.getPosition();
+            if(nPrevious == 2){
+                for (int c = 0; c < 3; c++) {
+                    double d2 = p[c] - 2d * previous[3 + c] + previous[c];
+                    accel2 += d2 * d2;
+                }
+                nAccel++;
+            }
+            System.arraycopy(previous, 3, previous, 0, 3);
+            for (int c = 0; c < 3; c++) {
+                previous[3 + c] = p[c];
+            }
+            nPrevious = Math.min(2, nPrevious + 1);
+        }
+
+        @Override
+        public String toString() {
+            double mean = age / frames;
+            return String.format("frames=%d, applied=%.2f/frame, crowded frames=%d, age=%.1f ms (sd %.2f ms), " +
+                    "step sd=%.2f ms, accel=%.3f mm", frames, (double)applied / frames, crowded, mean / 1000d,
+                    Math.sqrt(Math.max(0d, age2 / frames - mean * mean)) / 1000d,
+                    Math.sqrt(step2 / Math.max(1, n)) / 1000d, Math.sqrt(accel2 / Math.max(1, nAccel)));
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Single producer, multiple consumer ring of {@link HandPose} records in a
+ * memory mapped file, so tracking and rendering can run in different processes.
+ *
+ * Every record has a fixed layout, guarded by a seqlock: the producer makes its
+ * version odd, writes the fields and makes it even again. Readers check the
+ * version before and after reading, and discard the record if it changed or
+ * was odd ({@link #TORN}), or if it doesn't hold the expected index anymore
+ * ({@link #OVERWRITTEN}, the producer lapped the reader). Reads are plain memory
+ * accesses: no locks, no system calls.
+ *
+ * The producer creates the file and holds an exclusive lock on it while it is
+ * open, so a second producer fails instead of initializing a ring another
+ * process is writing. Consumers only map an initialized ring, and never lock.
+ *
+ * Header: magic, capacity, record size, and the head (number of published
+ * records) in its own cache line.
+ */
+public class PoseRingBuffer implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** the producer was writing the record while it was read */
+    public static final int TORN = -1;
+    /** the record holds a newer index: the producer lapped the reader */
+    public static final int OVERWRITTEN = -2;
+
+    private static final int MAGIC = 0x52485042;
+    private static final int HEADER_SIZE = 128;
+    private static final int HEAD = 64;
+    private static final int RECORD_SIZE = 320;
+
+    private static final int VERSION = 0;
+    private static final int INDEX = 8;
+    private static final int SEQUENCE = 16;
+    private static final int TIMESTAMP = 24;
+    private static final int RIGHT = 32;
+    private static final int VALID = 36;
+    private static final int POSITION = 40;
+    private static final int PALM = POSITION + 3 * 4;
+    private static final int ROTATIONS = PALM + 4 * 4;
+
+    private final RandomAccessFile file;
+    private final FileLock lock;        // of the producer, while open
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long head;
+    /*
+    Java 8 has no public memory fences: a store followed by a load of this
+    volatile field keep the mapped accesses before and after them in order,
+    as a full fence
+    */
+    private volatile int fence;
+
+    /**
+     * Maps the ring file for the producer, creating it if needed, or reusing
+     * the ring of a previous producer, whose head it continues
+     * @param path file, preferably in a memory backed file system (i.e. /dev/shm)
+     * @param capacity number of records, only used when the file is created
+     * @throws IOException if the file can't be mapped, is locked by another
+     * producer, or isn't a pose ring
+     */
+    public PoseRingBuffer(File path, int capacity) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        FileLock owner;
+        try {
+            owner = file.getChannel().tryLock();
+        } catch (OverlappingFileLockException ex) {
+            owner = null;
+        }
+        lock = owner;
+        if(lock == null){
+            file.close();
+            throw new IOException("Pose ring buffer in use by another producer: " + path);
+        }
+        // locked and empty or without magic: a producer died creating it
+        boolean create = file.length() < HEADER_SIZE || readMagic() == 0;
+        if(create){
+            file.setLength(HEADER_SIZE + (long)capacity * RECORD_SIZE);
+        }
+        buffer = map(path, create);
+        if(create){
+            buffer.putInt(4, capacity);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putLong(HEAD, 0L);
+            fence();
+            buffer.putInt(0, MAGIC);
+        }
+        this.capacity = buffer.getInt(4);
+        head = buffer.getLong(HEAD);
+    }
+
+    /**
+     * Maps the ring file of a running producer, for a consumer
+     * @param path file created by the producer
+     * @throws IOException if the file doesn't exist, isn't initialized yet, or
+     * isn't a pose ring
+     */
+    public PoseRingBuffer(File path) throws IOException {
+        if(!path.isFile()){
+            throw new IOException("No pose ring buffer, start utils.PoseProducer first: " + path);
+        }
+        file = new RandomAccessFile(path, "rw");
+        lock = null;
+        buffer = map(path, false);
+        capacity = buffer.getInt(4);
+        head = getHead();
+    }
+
+    /*
+    Maps the whole file, checking the header of an existing ring against its length
+    */
+    private MappedByteBuffer map(File path, boolean create) throws IOException {
+        final long length = file.length();
+        try {
+            if(length < HEADER_SIZE){
+                throw new IOException("Pose ring buffer not initialized: " + path);
+            }
+            MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            mapped.order(ByteOrder.nativeOrder());
+            if(create){
+                return mapped;
+            }
+            int magic = mapped.getInt(0);
+            fence();
+            if(magic == 0){
+                throw new IOException("Pose ring buffer not initialized: " + path);
+            }
+            int records = mapped.getInt(4);
+            if(magic != MAGIC || mapped.getInt(8) != RECORD_SIZE || records <= 0 ||
+                    HEADER_SIZE + (long)records * RECORD_SIZE > length || length > Integer.MAX_VALUE){
+                throw new IOException("Not a compatible pose ring buffer: " + path);
+            }
+            return mapped;
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    private int readMagic() throws IOException {
+        file.seek(0);
+        // the header is in native order
+        int magic = file.readInt();
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? magic : Integer.reverseBytes(magic);
+    }
+
+    private void fence(){
+        fence = 0;
+        int unused = fence;
+    }
+
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Writes a new record. Must be called always from the same producer thread.
+     */
+    public void publish(HandPose pose){
+        int record = offset(head);
+        long version = buffer.getLong(record + VERSION);
+        buffer.putLong(record + VERSION, version + 1);
+        fence();
+        buffer.putLong(record + INDEX, head);
+        buffer.putLong(record + SEQUENCE, pose.getSequence());
+        buffer.putLong(record + TIMESTAMP, pose.getTimestamp());
+        buffer.putInt(record + RIGHT, pose.isRight()?1:0);
+        buffer.putInt(record + VALID, pose.getValidJoints());
+        putFloats(record + POSITION, pose.getPosition(), 3);
+        putFloats(record + PALM, pose.getPalmRotation(), 4);
+        putFloats(record + ROTATIONS, pose.getRotations(), 4 * HandPose.JOINTS);
+        fence();
+        buffer.putLong(record + VERSION, version + 2);
+        head++;
+        fence();
+        buffer.putLong(HEAD, head);
+    }
+
+    /**
+     * @return number of records published so far
+     */
+    public long getHead(){
+        long value = buffer.getLong(HEAD);
+        fence();
+        return value;
+    }
+
+    /**
+     * @param index record index, below the head
+     * @return 1 for the right hand, 0 for the left one, or {@link #TORN} or
+     * {@link #OVERWRITTEN}
+     */
+    public int readHand(long index){
+        int record = offset(index);
+        long version = buffer.getLong(record + VERSION);
+        fence();
+        int right = buffer.getInt(record + RIGHT);
+        long recordIndex = buffer.getLong(record + INDEX);
+        fence();
+        return check(record, index, version, recordIndex, right);
+    }
+
+    /**
+     * Reads a record straight into the target pose
+     * @param index record index, below the head
+     * @param target pose of the same hand as the record
+     * @return 1 for the right hand, 0 for the left one, or {@link #TORN} or
+     * {@link #OVERWRITTEN}, and then the target holds inconsistent data
+     */
+    public int read(long index, HandPose target){
+        int record = offset(index);
+        long version = buffer.getLong(record + VERSION);
+        fence();
+        long recordIndex = buffer.getLong(record + INDEX);
+        if((version & 1) != 0 || recordIndex != index){
+            return check(record, index, version, recordIndex, 0);
+        }
+        target.setSequence(buffer.getLong(record + SEQUENCE));
+        target.setTimestamp(buffer.getLong(record + TIMESTAMP));
+        target.setValidJoints(buffer.getInt(record + VALID));
+        getFloats(record + POSITION, target.getPosition(), 3);
+        getFloats(record + PALM, target.getPalmRotation(), 4);
+        getFloats(record + ROTATIONS, target.getRotations(), 4 * HandPose.JOINTS);
+        int right = buffer.getInt(record + RIGHT);
+        fence();
+        return check(record, index, version, recordIndex, right);
+    }
+
+    /*
+    Seqlock check, after reading: a write during the read is a torn read, and
+    a newer complete record an overrun
+    */
+    private int check(int record, long index, long version, long recordIndex, int right){
+        if((version & 1) != 0 || buffer.getLong(record + VERSION) != version){
+            return TORN;
+        }
+        return recordIndex != index ? OVERWRITTEN : right;
+    }
+
+    private int offset(long index){
+        return HEADER_SIZE + (int)(index % capacity) * RECORD_SIZE;
+    }
+
+    private void putFloats(int offset, float[] values, int length){
+        for(int i=0; i<length; i++){
+            buffer.putFloat(offset + 4 * i, values[i]);
+        }
+    }
+
+    private void getFloats(int offset, float[] values, int length){
+        for(int i=0; i<length; i++){
+            values[i] = buffer.getFloat(offset + 4 * i);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,147 @@
+package utils;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link HandPoseSource} that gives the pose of every hand at the time of the
+ * frame shown, minus a small render delay, interpolated in a {@link PoseHistory}
+ * between the two poses around that time, instead of the pose that happened to
+ * arrive last. Tracking frames come at irregular intervals that don't match the
+ * display, so applying the latest one judders, and does redundant work when
+ * several arrive within one frame; with the delay there is almost always a pose
+ * after the sampled time, and the hand moves at the rate of the display.
+ *
+ * Poses come from the wrapped source, polled on every frame, and from
+ * {@link #accept} if the producer calls it with every pose (like
+ * {@link LeapListener#setOnPose}), so none is lost between frames.
+ *
+ * A hand is sampled at most once per frame: {@link #setFrameTime} starts a
+ * frame, or else every poll does. Poll returns false if the sampled pose
+ * wouldn't change, as for a hand no longer tracked.
+ */
+public class PoseSampler implements HandPoseSource, Consumer<HandPose> {
+
+    public static final long DEFAULT_DELAY = 20_000L;     // us
+    public static final long DEFAULT_MAX_GAP = 100_000L;  // us
+
+    private final HandPoseSource source;
+    private final long delay;
+    private final Hand left = new Hand(false);
+    private final Hand right = new Hand(true);
+    private long maxGap = DEFAULT_MAX_GAP;
+    private long frameTime = -1;
+
+    private long samples;
+    private long holds;
+    private long posesAdded;
+
+    /**
+     * @param source poses of the hands, polled on every frame, or null if
+     * they only come from {@link #accept}
+     * @param delay render delay, in microseconds
+     */
+    public PoseSampler(HandPoseSource source, long delay){
+        this.source = source;
+        this.delay = delay;
+    }
+
+    public long getDelay() { return delay; }
+
+    /**
+     * @param maxGap maximum time between two poses to interpolate, in microseconds
+     */
+    public synchronized void setMaxGap(long maxGap) { this.maxGap = maxGap; }
+
+    /**
+     * Starts a frame: both hands are sampled at this time, once
+     * @param micros time of the frame, in microseconds, in the clock of
+     * System.nanoTime()
+     */
+    public synchronized void setFrameTime(long micros) { frameTime = micros; }
+
+    /**
+     * Adds a pose as it is produced, from any thread
+     * @param pose new pose, copied
+     */
+    @Override
+    public void accept(HandPose pose){
+        accept(pose, System.nanoTime() / 1000);
+    }
+
+    /**
+     * Adds a pose that arrived at a given time, like the ones of a recording
+     * @param pose new pose, copied
+     * @param arrival time the pose arrived, in microseconds, in the clock of the frames
+     */
+    public synchronized void accept(HandPose pose, long arrival){
+        if((pose.isRight() ? right : left).history.add(pose, arrival)){
+            posesAdded++;
+        }
+    }
+
+    @Override
+    public synchronized boolean poll(boolean isRight, HandPose target) {
+        Hand hand = isRight ? right : left;
+        long now = frameTime >= 0 ? frameTime : System.nanoTime() / 1000;
+        if(source != null && source.poll(isRight, hand.polled) && hand.history.add(hand.polled, now)){
+            posesAdded++;
+        }
+        if(hand.history.size() == 0 || now == hand.lastFrame){
+            return false;
+        }
+        hand.lastFrame = now;
+        long time = now - hand.history.getClockOffset() - delay;
+        long newest = hand.history.getNewestTimestamp();
+        // no pose after the time yet: holds the newest one
+        boolean held = time >= newest;
+        time = Math.max(Math.min(time, newest), hand.history.getOldestTimestamp());
+        if(time == hand.lastTime && hand.history.getNewestSequence() == hand.lastSequence){
+            return false;
+        }
+        if(held){
+            holds++;
+        }
+        hand.lastTime = time;
+        hand.lastSequence = hand.history.getNewestSequence();
+        hand.history.sample(time, maxGap, target);
+        target.setSequence(++hand.sequence);
+        samples++;
+        return true;
+    }
+
+    /**
+     * @return poses sampled, at most one per hand and frame
+     */
+    public synchronized long getSamples() { return samples; }
+
+    /**
+     * @return frames sampled with no pose after their time, that held the newest
+     * pose: the delay is too short for the tracking rate
+     */
+    public synchronized long getHolds() { return holds; }
+
+    /**
+     * @return poses added to the histories
+     */
+    public synchronized long getPosesAdded() { return posesAdded; }
+
+    @Override
+    public synchronized String toString() {
+        return "PoseSampler{" + "delay=" + delay + " us, posesAdded=" + posesAdded + ", samples=" + samples +
+                ", holds=" + holds + ", clockOffsetLeft=" + left.history.getClockOffset() +
+                " us, clockOffsetRight=" + right.history.getClockOffset() + " us}";
+    }
+
+    private static class Hand {
+        private final PoseHistory history = new PoseHistory();
+        private final HandPose polled;
+        private long lastFrame = -1;
+        private long lastTime = -1;
+        private long lastSequence = -1;
+        private long sequence;
+
+        private Hand(boolean right){
+            polled = new HandPose(right);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * {@link HandPoseSource} fed by a remote {@link PoseBroadcaster}.
+ *
+ * A daemon thread subscribes to the broadcaster, and decodes the incoming
+ * packets with a non blocking channel and a selector.
+ *
+ * Latency is measured from the pose timestamp to its arrival, so it is only
+ * meaningful when both ends share the same monotonic clock (i.e. same host).
+ */
+public class RemotePoseSource implements HandPoseSource, Closeable {
+
+    private static final long SUBSCRIBE_INTERVAL = PoseBroadcaster.SUBSCRIBER_TIMEOUT / 5;
+
+    private final InetSocketAddress broadcaster;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final PoseCodec codec = new PoseCodec();
+    private final HandPose poseLeft = new HandPose(false);
+    private final HandPose poseRight = new HandPose(true);
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(PoseCodec.MAX_PACKET_SIZE);
+    private final ByteBuffer hello = ByteBuffer.allocateDirect(1);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private long packetsReceived;
+    private long bytesReceived;
+    private long packetsDropped;
+    private long latencyTotal;
+    private long latencyMax;
+
+    public RemotePoseSource(String host, int port) throws IOException {
+        broadcaster = new InetSocketAddress(host, port);
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(0));
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        thread = new Thread(this::receive, "RemotePoseSource");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean poll(boolean right, HandPose target) {
+        HandPose pose = right ? poseRight : poseLeft;
+        synchronized (pose) {
+            if(pose.getSequence()==0 || pose.getSequence()==target.getSequence()){
+                return false;
+            }
+            target.copyFrom(pose);
+            return true;
+        }
+    }
+
+    private void receive(){
+        long lastSubscribe = 0;
+        try {
+            while(running){
+                long now = System.currentTimeMillis();
+                if(now - lastSubscribe >= SUBSCRIBE_INTERVAL){
+                    hello.clear();
+                    channel.send(hello, broadcaster);
+                    lastSubscribe = now;
+                }
+                if(selector.select(SUBSCRIBE_INTERVAL)==0){
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                packet.clear();
+                while(channel.receive(packet)!=null){
+                    packet.flip();
+                    int size = packet.remaining();
+                    HandPose decoded = codec.decode(packet);
+                    long latency = (System.nanoTime()/1000 - (decoded!=null?decoded.getTimestamp():0)) & 0xffffffffL;
+                    synchronized (this) {
+                        packetsReceived++;
+                        bytesReceived += size;
+                        if(decoded == null){
+                            packetsDropped++;
+                        } else {
+                            latencyTotal += latency;
+                            latencyMax = Math.max(latencyMax, latency);
+                        }
+                    }
+                    if(decoded != null){
+                        HandPose pose = decoded.isRight() ? poseRight : poseLeft;
+                        synchronized (pose) {
+                            pose.copyFrom(decoded);
+                        }
+                    }
+                    packet.clear();
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            if(running){
+                System.out.println("Error receiving poses: " + ex);
+            }
+        }
+    }
+
+    public synchronized long getPacketsReceived() { return packetsReceived; }
+    public synchronized long getBytesReceived() { return bytesReceived; }
+
+    /**
+     * @return packets that couldn't be decoded: malformed, or deltas received after a lost packet
+     */
+    public synchronized long getPacketsDropped() { return packetsDropped; }
+
+    /**
+     * @return average latency, in microseconds, of the decoded packets
+     */
+    public synchronized double getAverageLatency() {
+        long decoded = packetsReceived - packetsDropped;
+        return decoded==0 ? 0d : latencyTotal/(double)decoded;
+    }
+
+    /**
+     * @return maximum latency, in microseconds, of the decoded packets
+     */
+    public synchronized long getMaxLatency() { return latencyMax; }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,137 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link HandPoseSource} reading the {@link PoseRingBuffer} written by a
+ * {@link PoseProducer} running in another process.
+ *
+ * Polling follows the ring head without locks: records are only inspected to
+ * find the latest one of each hand, which is then read straight into the target.
+ * If the read is torn or the record was overwritten, it retries with the newest
+ * record.
+ *
+ * The read side is confined to one thread: poll must always be called from the
+ * same thread, the pulse or the skinning thread with --pipelined. The counters
+ * are only written by that thread, and published through volatile fields, so
+ * the getters can be called from any thread without taking a lock.
+ *
+ * Only the latest record of each hand is copied, into the target: the skinning
+ * code reads {@link HandPose} arrays, so that copy of 70 values replaces
+ * consuming the records in place. The records skipped while following the head
+ * are never copied.
+ */
+public class SharedMemoryPoseSource implements HandPoseSource, Closeable {
+
+    private static final int RETRIES = 4;
+
+    private final PoseRingBuffer ring;
+    private long cursor;
+    private final long[] latest = new long[]{-1L, -1L};
+    private final long[] delivered = new long[]{-1L, -1L};
+
+    // written only by the reader thread
+    private volatile long recordsRead;
+    private volatile long tornReads;
+    private volatile long overruns;
+    private volatile long latencyTotal;
+    private volatile long latencyMax;
+    private volatile long posesRead;
+
+    public SharedMemoryPoseSource(File path) throws IOException {
+        ring = new PoseRingBuffer(path);
+        cursor = ring.getHead();
+    }
+
+    @Override
+    public boolean poll(boolean right, HandPose target) {
+        int hand = right?1:0;
+        for(int i=0; i<RETRIES; i++){
+            follow();
+            long index = latest[hand];
+            if(index<0 || index==delivered[hand]){
+                return false;
+            }
+            int read = ring.read(index, target);
+            if(read == hand){
+                delivered[hand] = index;
+                long latency = System.nanoTime()/1000 - target.getTimestamp();
+                posesRead++;
+                latencyTotal += latency;
+                latencyMax = Math.max(latencyMax, latency);
+                return true;
+            }
+            if(read == PoseRingBuffer.OVERWRITTEN){
+                overruns++;
+            } else {
+                tornReads++;
+            }
+            latest[hand] = -1L;
+        }
+        return false;
+    }
+
+    private void follow(){
+        long head = ring.getHead();
+        if(head < cursor){
+            // the producer was restarted
+            cursor = 0L;
+            latest[0] = latest[1] = delivered[0] = delivered[1] = -1L;
+        }
+        if(head - cursor > ring.getCapacity()){
+            overruns += head - cursor - ring.getCapacity();
+            cursor = head - ring.getCapacity();
+        }
+        for(; cursor < head; cursor++){
+            int hand = ring.readHand(cursor);
+            if(hand == PoseRingBuffer.OVERWRITTEN){
+                overruns++;
+            } else if(hand == PoseRingBuffer.TORN){
+                tornReads++;
+            } else {
+                latest[hand] = cursor;
+            }
+            recordsRead++;
+        }
+    }
+
+    /**
+     * @return records inspected in the ring
+     */
+    public long getRecordsRead() { return recordsRead; }
+
+    /**
+     * @return reads discarded because the producer was writing the record
+     */
+    public long getTornReads() { return tornReads; }
+
+    /**
+     * @return records lost because the producer lapped this reader: skipped,
+     * or found overwritten by a newer record
+     */
+    public long getOverruns() { return overruns; }
+
+    /**
+     * @return poses read into the targets of poll
+     */
+    public long getPosesRead() { return posesRead; }
+
+    /**
+     * @return average time, in microseconds, from the pose timestamp to its read
+     */
+    public double getAverageLatency() {
+        return posesRead==0 ? 0d : latencyTotal/(double)posesRead;
+    }
+
+    /**
+     * @return maximum time, in microseconds, from the pose timestamp to its read
+     */
+    public long getMaxLatency() { return latencyMax; }
+
+    @Override
+    public void close() throws IOException {
+        ring.close();
+    }
+}
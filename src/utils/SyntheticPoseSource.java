@@ -0,0 +1,282 @@
+package utils;
+
+import java.io.Closeable;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * {@link HandPoseSource} with procedural hand motion, to drive the application
+ * without a Leap Motion device, and faster than it: finger curls, finger
+ * spread, wrist rotation and palm travel, as sums of sines with random
+ * frequencies and phases, plus optional tracking jitter and dropouts.
+ *
+ * Every pose is a function of the seed, the hand and its frame number only,
+ * jitter included, so a run is deterministic no matter the rate or the machine:
+ * {@link #pose} can be called from any thread, {@link #generate} can be called
+ * directly, or {@link #start()} publishes the frames from a daemon thread at the
+ * given rate (up to a few kHz). The dropouts last several frames, so they
+ * depend on the frames generated before.
+ */
+public class SyntheticPoseSource implements HandPoseSource, Closeable {
+
+    private static final double[] CURL = {60d, 90d, 70d};     // degrees of every joint at full curl
+    private static final double SPREAD = 12d;                // degrees between fingers at full spread
+    private static final double WRIST = 35d;                 // degrees of wrist rotation
+    private static final double[] TRAVEL = {60d, 50d, 40d};  // mm of palm travel
+
+    private final long seed;
+    private final double rate;
+    private final HandPose poseLeft = new HandPose(false);
+    private final HandPose poseRight = new HandPose(true);
+    private final HandPose scratch = new HandPose(true);
+    private final double[] frequencies = new double[32];
+    private final double[] phases = new double[32];
+    private Random dropouts;
+
+    private int hands = 2;
+    private double positionJitter;
+    private double angleJitter;
+    private double dropoutProbability;
+    private int dropoutFrames;
+    private int dropoutLeft, dropoutRight;
+
+    private Consumer<HandPose> onPose;
+
+    private Thread thread;
+    private volatile boolean running;
+    private long framesGenerated;
+    private long framesDropped;
+
+    /**
+     * @param seed seed of the motion, the jitter and the dropouts
+     * @param rate frames per second, in Hz
+     */
+    public SyntheticPoseSource(long seed, double rate){
+        this.seed = seed;
+        this.rate = rate;
+        Random random = new Random(seed);
+        for (int i = 0; i < frequencies.length; i++) {
+            // 0.1 to 1 Hz, so the motion looks like a hand at any rate
+            frequencies[i] = 2d * Math.PI * (0.1d + 0.9d * random.nextDouble());
+            phases[i] = 2d * Math.PI * random.nextDouble();
+        }
+        dropouts = new Random(seed ^ 0x5DEECE66DL);
+    }
+
+    /**
+     * @param hands 1 for the right hand only, 2 for both hands
+     */
+    public void setHands(int hands) { this.hands = Math.max(1, Math.min(2, hands)); }
+    public int getHands() { return hands; }
+
+    /**
+     * @param mm standard deviation of the noise added to the palm position
+     * @param degrees standard deviation of the noise added to every angle
+     */
+    public void setJitter(double mm, double degrees){
+        positionJitter = mm;
+        angleJitter = degrees;
+    }
+
+    /**
+     * @param probability probability per frame and hand of losing the tracking
+     * @param maxFrames tracking is lost from 1 to maxFrames frames
+     */
+    public void setDropout(double probability, int maxFrames){
+        dropoutProbability = probability;
+        dropoutFrames = Math.max(1, maxFrames);
+    }
+
+    public double getRate() { return rate; }
+
+    /**
+     * @param onPose called from the generating thread with every new hand pose,
+     * like {@link LeapListener#setOnPose}
+     */
+    public synchronized void setOnPose(Consumer<HandPose> onPose) {
+        this.onPose = onPose;
+    }
+
+    /**
+     * Publishes the frames from a daemon thread, at the given rate
+     */
+    public synchronized void start(){
+        if(thread != null){
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "SyntheticPoseSource");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close(){
+        running = false;
+    }
+
+    @Override
+    public boolean poll(boolean right, HandPose target) {
+        HandPose pose = right ? poseRight : poseLeft;
+        synchronized (pose) {
+            if(pose.getSequence()==0 || pose.getSequence()==target.getSequence()){
+                return false;
+            }
+            target.copyFrom(pose);
+            return true;
+        }
+    }
+
+    /**
+     * @return frames generated so far, by the thread or by {@link #generate}
+     */
+    public synchronized long getFramesGenerated() { return framesGenerated; }
+
+    /**
+     * @return hand poses not published because of the dropouts
+     */
+    public synchronized long getFramesDropped() { return framesDropped; }
+
+    /**
+     * Computes a frame and publishes the poses of the hands tracked in it.
+     * Frames must be generated in order for the dropouts to be reproducible
+     * @param frame frame number, from 0
+     */
+    public synchronized void generate(long frame){
+        if(frame == 0){
+            dropouts = new Random(seed ^ 0x5DEECE66DL);
+            dropoutLeft = dropoutRight = 0;
+        }
+        long timestamp = System.nanoTime()/1000;
+        framesGenerated++;
+        if(hands > 1){
+            dropoutLeft = dropout(dropoutLeft);
+            if(dropoutLeft == 0){
+                publish(frame, false, timestamp, poseLeft);
+            }
+        }
+        dropoutRight = dropout(dropoutRight);
+        if(dropoutRight == 0){
+            publish(frame, true, timestamp, poseRight);
+        }
+    }
+
+    /**
+     * Computes the pose of a hand in a frame, with jitter if it is enabled.
+     * Doesn't change the state of the source
+     */
+    public void pose(long frame, boolean right, HandPose target){
+        double t = frame / rate;
+        int h = right ? 0 : 16;
+        // 26 gaussians of jitter per hand and frame
+        int g = right ? 0 : 32;
+        double spread = 0.5d + 0.5d * wave(h + 15, t);
+        for (int f = 0; f < HandPose.FINGERS; f++) {
+            double curl = 0.5d + 0.5d * wave(h + f, t);
+            for (int j = 0; j < HandPose.JOINTS_PER_FINGER; j++) {
+                double flexion = Math.toRadians(curl * CURL[j] + angleJitter * gaussian(frame, g++));
+                if(j == 0){
+                    double abduction = Math.toRadians((f - 2) * SPREAD * spread + angleJitter * gaussian(frame, g++));
+                    setJointRotation(target, HandPose.jointIndex(f, j), flexion, abduction);
+                } else {
+                    // flexion around -X, like the rotations of LeapListener
+                    target.setJointRotation(HandPose.jointIndex(f, j), flexion, -1d, 0d, 0d);
+                }
+            }
+        }
+        target.setPalmRotation(Math.toRadians(WRIST * wave(h + 5, t) + angleJitter * gaussian(frame, g++)),
+                               Math.toRadians(0.5d * WRIST * wave(h + 6, t) + angleJitter * gaussian(frame, g++)),
+                               Math.toRadians(0.5d * WRIST * wave(h + 7, t) + angleJitter * gaussian(frame, g++)));
+        target.setPosition((float)((right ? 80d : -80d) + TRAVEL[0] * wave(h + 8, t) + positionJitter * gaussian(frame, g++)),
+                           (float)(200d + TRAVEL[1] * wave(h + 9, t) + positionJitter * gaussian(frame, g++)),
+                           (float)(TRAVEL[2] * wave(h + 10, t) + positionJitter * gaussian(frame, g++)));
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticPoseSource{" + "seed=" + seed + ", rate=" + rate + ", hands=" + hands +
+                ", framesGenerated=" + getFramesGenerated() + ", framesDropped=" + getFramesDropped() + '}';
+    }
+
+    private void run(){
+        final long period = (long)(1_000_000_000d / rate);
+        long next = System.nanoTime();
+        for (long frame = 0; running; frame++) {
+            generate(frame);
+            next += period;
+            long wait = next - System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            } else if(wait < -100 * period){
+                // too far behind: don't try to catch up
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    private void publish(long frame, boolean right, long timestamp, HandPose pose){
+        pose(frame, right, scratch);
+        scratch.setSequence(frame + 1);
+        scratch.setTimestamp(timestamp);
+        synchronized (pose) {
+            pose.copyFrom(scratch);
+        }
+        if(onPose != null){
+            // only this thread writes the pose
+            onPose.accept(pose);
+        }
+    }
+
+    /*
+    Frames of tracking lost left, after this one
+    */
+    private int dropout(int left){
+        if(left > 0){
+            framesDropped++;
+            return left - 1;
+        }
+        if(dropoutProbability > 0 && dropouts.nextDouble() < dropoutProbability){
+            framesDropped++;
+            return dropouts.nextInt(dropoutFrames);
+        }
+        return 0;
+    }
+
+    private double wave(int i, double t){
+        return Math.sin(frequencies[i] * t + phases[i]);
+    }
+
+    /*
+    Gaussian number i of a frame, hashed from the seed (Box-Muller on two
+    SplitMix64 outputs), so the jitter doesn't depend on the poses computed
+    before, nor on the thread
+    */
+    private double gaussian(long frame, int i){
+        if(angleJitter <= 0 && positionJitter <= 0){
+            return 0d;
+        }
+        long bits = mix(mix(seed + mix(frame)) + i);
+        double u1 = ((bits >>> 11) + 1) * 0x1.0p-53, u2 = (mix(bits) >>> 11) * 0x1.0p-53;
+        return Math.sqrt(-2d * Math.log(u1)) * Math.cos(2d * Math.PI * u2);
+    }
+
+    private static long mix(long z){
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+    Abduction around Y followed by flexion around -X, as one axis-angle
+    */
+    private static void setJointRotation(HandPose pose, int index, double flexion, double abduction){
+        double ca = Math.cos(abduction/2d), sa = Math.sin(abduction/2d);
+        double cf = Math.cos(flexion/2d), sf = Math.sin(flexion/2d);
+        // (0, sa, 0, ca) * (-sf, 0, 0, cf)
+        double x = -ca*sf, y = sa*cf, z = sa*sf, w = ca*cf;
+        double s = Math.sqrt(x*x+y*y+z*z);
+        pose.setJointRotation(index, 2d*Math.atan2(s, w), x, y, z);
+    }
+}
@@ -0,0 +1,147 @@
+package riggedhand;
+
+import com.javafx.experiments.importers.maya.Joint;
+import java.util.Random;
+import javafx.geometry.Point3D;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+
+/**
+ * Throughput of the queries against a skinned hand: refit of the
+ * {@link TriangleBvh}, ray queries against the tree and against every
+ * triangle, sphere queries, and the {@link BoneCapsules} broad phase.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.BvhBenchmark [model]
+ */
+public class BvhBenchmark {
+
+    private static final int POSES = 50;
+    private static final int QUERIES = 20_000;
+
+    public static void main(String[] args) {
+        HandModelImporter importer = HandModelImporter.create(args.length > 0 ? args[0] : "left_hand_terrence_3.js", false, false);
+        importer.readModel();
+        HandSkinningMesh mesh = (HandSkinningMesh)importer.getSkinningMeshView().getMesh();
+        Random random = new Random(1);
+        Parent forest = importer.getJointForest().get(0);
+
+        long time = System.nanoTime();
+        TriangleBvh bvh = mesh.getBvh();
+        BoneCapsules capsules = mesh.getCapsules();
+        System.out.println("faces = " + mesh.getFlatMesh().getNumFaces() + ", nodes = " + bvh.getNumNodes() +
+                ", capsules = " + capsules.getNumCapsules() + ", build = " + (System.nanoTime() - time) / 1000 + " us");
+
+        long refit = 0, rays = 0, brute = 0, spheres = 0, broad = 0;
+        int hits = 0, mismatches = 0, sphereHits = 0, broadHits = 0;
+        int[] found = new int[256];
+        float[] bounds = new float[6];
+        for (int i = 0; i < POSES; i++) {
+            randomPose(forest, random);
+            mesh.update();
+            // update refits the tree: measure it alone
+            time = System.nanoTime();
+            bvh.refit();
+            refit += System.nanoTime() - time;
+
+            float[] points = mesh.getPoints().toArray(null);
+            bounds(points, bounds);
+            double size = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+            double[] queries = new double[6 * QUERIES / POSES];
+            int[] faces = new int[QUERIES / POSES], reference = new int[QUERIES / POSES];
+            for (int q = 0; q < queries.length; q += 6) {
+                for (int k = 0; k < 3; k++) {
+                    queries[q + k] = bounds[k] + (bounds[k + 3] - bounds[k]) * random.nextDouble();
+                    queries[q + 3 + k] = random.nextGaussian();
+                }
+            }
+            time = System.nanoTime();
+            for (int q = 0, r = 0; q < queries.length; q += 6, r++) {
+                // rays from outside the hand towards a point in its bounds
+                double ox = queries[q] - size * queries[q + 3], oy = queries[q + 1] - size * queries[q + 4], oz = queries[q + 2] - size * queries[q + 5];
+                faces[r] = bvh.intersectRay(ox, oy, oz, queries[q + 3], queries[q + 4], queries[q + 5], null);
+            }
+            rays += System.nanoTime() - time;
+            time = System.nanoTime();
+            for (int q = 0, r = 0; q < queries.length; q += 6, r++) {
+                double ox = queries[q] - size * queries[q + 3], oy = queries[q + 1] - size * queries[q + 4], oz = queries[q + 2] - size * queries[q + 5];
+                reference[r] = bruteForceRay(mesh.getFlatMesh().faces, points, ox, oy, oz, queries[q + 3], queries[q + 4], queries[q + 5]);
+            }
+            brute += System.nanoTime() - time;
+            for (int r = 0; r < faces.length; r++) {
+                hits += faces[r] >= 0 ? 1 : 0;
+                mismatches += faces[r] != reference[r] ? 1 : 0;
+            }
+            time = System.nanoTime();
+            for (int q = 0; q < queries.length; q += 6) {
+                sphereHits += bvh.intersectSphere(queries[q], queries[q + 1], queries[q + 2], 0.05 * size, found) > 0 ? 1 : 0;
+            }
+            spheres += System.nanoTime() - time;
+            time = System.nanoTime();
+            for (int q = 0; q < queries.length; q += 6) {
+                broadHits += capsules.intersectsSphere(queries[q], queries[q + 1], queries[q + 2], 0.05 * size) ? 1 : 0;
+            }
+            broad += System.nanoTime() - time;
+        }
+        System.out.println("refit = " + refit / POSES / 1000 + " us");
+        System.out.println("ray bvh = " + perSecond(rays) + " queries/s, hits = " + hits);
+        System.out.println("ray all triangles = " + perSecond(brute) + " queries/s, mismatches = " + mismatches);
+        System.out.println("sphere bvh = " + perSecond(spheres) + " queries/s, hits = " + sphereHits);
+        System.out.println("sphere capsules = " + perSecond(broad) + " queries/s, hits = " + broadHits);
+    }
+
+    private static long perSecond(long nanos){
+        return QUERIES * 1_000_000_000L / Math.max(1, nanos);
+    }
+
+    private static void bounds(float[] points, float[] bounds){
+        for (int k = 0; k < 3; k++) {
+            bounds[k] = Float.POSITIVE_INFINITY;
+            bounds[k + 3] = Float.NEGATIVE_INFINITY;
+        }
+        for (int p = 0; p < points.length; p++) {
+            bounds[p % 3] = Math.min(bounds[p % 3], points[p]);
+            bounds[p % 3 + 3] = Math.max(bounds[p % 3 + 3], points[p]);
+        }
+    }
+
+    private static int bruteForceRay(int[] faces, float[] points, double ox, double oy, double oz, double dx, double dy, double dz){
+        double closest = Double.POSITIVE_INFINITY;
+        int hit = -1;
+        for (int f = 0; f < faces.length / FlatMesh.FACE_SIZE; f++) {
+            int p0 = 3 * faces[6 * f], p1 = 3 * faces[6 * f + 2], p2 = 3 * faces[6 * f + 4];
+            double e1x = points[p1] - points[p0], e1y = points[p1 + 1] - points[p0 + 1], e1z = points[p1 + 2] - points[p0 + 2];
+            double e2x = points[p2] - points[p0], e2y = points[p2 + 1] - points[p0 + 1], e2z = points[p2 + 2] - points[p0 + 2];
+            double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+            double det = e1x * px + e1y * py + e1z * pz;
+            if(Math.abs(det) < 1e-12){
+                continue;
+            }
+            double tx = ox - points[p0], ty = oy - points[p0 + 1], tz = oz - points[p0 + 2];
+            double u = (tx * px + ty * py + tz * pz) / det;
+            double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+            double v = (dx * qx + dy * qy + dz * qz) / det;
+            double t = (e2x * qx + e2y * qy + e2z * qz) / det;
+            if(u >= 0 && v >= 0 && u + v <= 1 && t >= 0 && t < closest){
+                closest = t;
+                hit = f;
+            }
+        }
+        return hit;
+    }
+
+    /*
+    Random rotation of every joint of the forest
+    */
+    private static void randomPose(Parent parent, Random random){
+        if(parent instanceof Joint){
+            Joint joint = (Joint)parent;
+            joint.rx.setAxis(new Point3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+            joint.rx.setAngle(30 * random.nextGaussian());
+        }
+        for (Node child : parent.getChildrenUnmodifiable()) {
+            if(child instanceof Parent){
+                randomPose((Parent)child, random);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package riggedhand;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Import time and heap of the same hand model in binary glTF and in THREE.js
+ * JSON: median and best time of a complete import (decode, mesh, joints and
+ * optimizer), bytes allocated per import, and heap retained by every imported
+ * model.
+ *
+ * The importers print their debug output to System.out, it is discarded while
+ * importing.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.ImportBenchmark [json model] [glb model] [--imports=20]
+ */
+public class ImportBenchmark {
+
+    private static final int WARMUP = 10;
+    private static final int RETAINED = 8;
+
+    public static void main(String[] args) {
+        String json = "modelLeft.json", glb = "modelLeft.glb";
+        int imports = 20;
+        int model = 0;
+        for (String arg : args) {
+            if(arg.startsWith("--")){
+                String[] p = arg.replaceFirst("^--", "").split("=", 2);
+                if(p[0].equals("imports") && p.length > 1){
+                    imports = Integer.parseInt(p[1]);
+                }
+            } else if(model++ == 0){
+                json = arg;
+            } else {
+                glb = arg;
+            }
+        }
+
+        final PrintStream out = System.out;
+        final String[] models = {json, glb};
+        final long[][] times = new long[2][imports];
+        final long[] allocated = new long[2], retained = new long[2];
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+        }));
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                read(json);
+                read(glb);
+            }
+            // alternated, so both formats see the same JIT and heap state
+            for (int i = 0; i < imports; i++) {
+                for (int m = 0; m < 2; m++) {
+                    long bytes = allocatedBytes(), time = System.nanoTime();
+                    read(models[m]);
+                    times[m][i] = System.nanoTime() - time;
+                    allocated[m] += allocatedBytes() - bytes;
+                }
+            }
+            for (int m = 0; m < 2; m++) {
+                HandModelImporter[] kept = new HandModelImporter[RETAINED];
+                long heap = usedHeap();
+                for (int i = 0; i < RETAINED; i++) {
+                    kept[i] = read(models[m]);
+                }
+                retained[m] = (usedHeap() - heap) / RETAINED;
+                Arrays.fill(kept, null);
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        for (int m = 0; m < 2; m++) {
+            Arrays.sort(times[m]);
+            System.out.println(String.format("%s: import median %.1f ms, best %.1f ms, allocated %d KB, retained %d KB",
+                    models[m], times[m][imports / 2] / 1e6, times[m][0] / 1e6, allocated[m] / imports / 1024,
+                    retained[m] / 1024));
+        }
+        System.out.println(String.format("glb/json: time %.2f, allocated %.2f, retained %.2f",
+                (double)times[1][imports / 2] / times[0][imports / 2], (double)allocated[1] / allocated[0],
+                (double)retained[1] / retained[0]));
+    }
+
+    private static HandModelImporter read(String model){
+        HandModelImporter importer = HandModelImporter.create(model, false, false);
+        importer.readModel();
+        return importer;
+    }
+
+    private static long allocatedBytes(){
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private static long usedHeap(){
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
@@ -0,0 +1,33 @@
+package riggedhand;
+
+/**
+ * Report of the {@link MeshOptimizer} for the bundled models: points welded and
+ * dropped, influences pruned, cache miss ratio, and skinning time before and
+ * after. The importers optimize without measuring skinning, that takes longer
+ * than the optimization itself, so this imports the models without it and
+ * optimizes them here.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.MeshOptimizerBenchmark [model...]
+ */
+public class MeshOptimizerBenchmark {
+
+    public static void main(String[] args) {
+        String[] models = args.length > 0 ? args : new String[]{"modelLeft.json", "left_hand_terrence_3.js", "modelLeft.glb"};
+        for (String model : models) {
+            HandModelImporter importer = HandModelImporter.create(model, false, false);
+            importer.setOptimize(false);
+            importer.readModel();
+            FlatMesh mesh = ((HandSkinningMesh)importer.getSkinningMeshView().getMesh()).getFlatMesh();
+            int nJoints = 0;
+            for (int j : mesh.influenceJoints) {
+                nJoints = Math.max(nJoints, j + 1);
+            }
+            final int points = mesh.getNumPoints(), faces = mesh.getNumFaces();
+            long time = System.nanoTime();
+            MeshOptimizer optimizer = MeshOptimizer.optimize(mesh, nJoints, true);
+            System.out.println(String.format("%s: points %d -> %d, faces %d -> %d, optimize + report = %.0f ms, " +
+                    "skinning speedup = %.2fx", model, points, mesh.getNumPoints(), faces, mesh.getNumFaces(),
+                    (System.nanoTime() - time) / 1e6, optimizer.getSkinningBefore() / optimizer.getSkinningAfter()));
+        }
+    }
+}
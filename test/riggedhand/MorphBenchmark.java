@@ -0,0 +1,109 @@
+package riggedhand;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Cost of blending morph targets before skinning, with 0, 4 and 16 active
+ * targets. The bundled models have no targets, so it adds crease-like ones:
+ * every target moves the points whose main influence is one joint.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.MorphBenchmark [model]
+ */
+public class MorphBenchmark {
+
+    private static final int WARMUP = 2_000;
+    private static final int FRAMES = 5_000;
+    private static final int[] ACTIVE = {0, 4, 16};
+
+    public static void main(String[] args) {
+        HandModelImporter importer = HandModelImporter.create(args.length > 0 ? args[0] : "left_hand_terrence_3.js", false, false);
+        importer.readModel();
+        HandSkinningMesh skinningMesh = (HandSkinningMesh)importer.getSkinningMeshView().getMesh();
+        FlatMesh mesh = skinningMesh.getFlatMesh();
+        int nJoints = 0;
+        for (int j : mesh.influenceJoints) {
+            nJoints = Math.max(nJoints, j + 1);
+        }
+        MorphTargets morphTargets = creases(mesh, nJoints, 16);
+        for (int t = 0; t < morphTargets.getNumTargets(); t++) {
+            System.out.println(morphTargets.getName(t) + ", vertices = " + morphTargets.getNumPoints(t));
+        }
+
+        Random random = new Random(1);
+        double[] palette = new double[12 * nJoints];
+        for (int j = 0; j < nJoints; j++) {
+            double a = 0.3 * random.nextGaussian(), c = Math.cos(a), s = Math.sin(a);
+            palette[12 * j] = c; palette[12 * j + 1] = -s;
+            palette[12 * j + 4] = s; palette[12 * j + 5] = c;
+            palette[12 * j + 10] = 1;
+        }
+        float[] blended = mesh.points.clone();
+        float[] skinned = new float[mesh.points.length];
+        for (int active : ACTIVE) {
+            long blend = 0, skin = 0;
+            for (int frame = -WARMUP; frame < FRAMES; frame++) {
+                // weights change every frame, like driven targets
+                for (int t = 0; t < morphTargets.getNumTargets(); t++) {
+                    morphTargets.setWeight(t, t < active ? 0.5f + 0.5f * (float)Math.sin(0.01 * frame + t) : 0f);
+                }
+                long time = System.nanoTime();
+                morphTargets.blend(mesh.points, blended);
+                long time1 = System.nanoTime();
+                mesh.skin(blended, palette, skinned);
+                long time2 = System.nanoTime();
+                if(frame >= 0){
+                    blend += time1 - time;
+                    skin += time2 - time1;
+                }
+            }
+            System.out.println(String.format("active targets = %d, touched vertices = %d, blend = %.1f us, skin = %.1f us, total = %.1f us",
+                    active, morphTargets.getNumTouched(), blend / 1000d / FRAMES, skin / 1000d / FRAMES, (blend + skin) / 1000d / FRAMES));
+        }
+    }
+
+    /*
+    One target per joint (up to n): the points with that joint as main influence
+    move along their direction from the center of those points
+    */
+    static MorphTargets creases(FlatMesh mesh, int nJoints, int n){
+        final int nPoints = mesh.getNumPoints();
+        final int stride = mesh.influences;
+        int[] main = new int[nPoints];
+        for (int p = 0; p < nPoints; p++) {
+            float max = -1;
+            for (int k = p * stride; k < (p + 1) * stride; k++) {
+                if(mesh.influenceWeights[k] > max){
+                    max = mesh.influenceWeights[k];
+                    main[p] = mesh.influenceJoints[k];
+                }
+            }
+        }
+        MorphTargets morphTargets = new MorphTargets();
+        float[] offsets = new float[3 * nPoints];
+        for (int j = 0; j < nJoints && morphTargets.getNumTargets() < n; j++) {
+            double cx = 0, cy = 0, cz = 0;
+            int count = 0;
+            for (int p = 0; p < nPoints; p++) {
+                if(main[p] == j){
+                    cx += mesh.points[3 * p]; cy += mesh.points[3 * p + 1]; cz += mesh.points[3 * p + 2];
+                    count++;
+                }
+            }
+            if(count == 0){
+                continue;
+            }
+            cx /= count; cy /= count; cz /= count;
+            Arrays.fill(offsets, 0f);
+            for (int p = 0; p < nPoints; p++) {
+                if(main[p] == j){
+                    offsets[3 * p] = (float)(0.05 * (mesh.points[3 * p] - cx));
+                    offsets[3 * p + 1] = (float)(0.05 * (mesh.points[3 * p + 1] - cy));
+                    offsets[3 * p + 2] = (float)(0.05 * (mesh.points[3 * p + 2] - cz));
+                }
+            }
+            morphTargets.addTarget("crease" + j, offsets);
+        }
+        return morphTargets;
+    }
+}
@@ -0,0 +1,158 @@
+package riggedhand;
+
+import java.util.Random;
+
+/**
+ * Time per frame of the normals of a skinned hand: skinning the imported
+ * normals with {@link VertexNormals}, against computing them again from the
+ * skinned points and the smoothing groups, as JavaFX does for a TriangleMesh
+ * without normals every time its points change. JavaFX does it inside the
+ * renderer, so this measures an equivalent computation: face normals, summed
+ * by point over the faces that share a smoothing group.
+ *
+ * Also reports the average angle between both normals, as the smoothing
+ * groups only keep which edges are smooth, not the authored normals.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.NormalsBenchmark [model...]
+ */
+public class NormalsBenchmark {
+
+    private static final int WARMUP = 1_000;
+    private static final int FRAMES = 5_000;
+
+    public static void main(String[] args) {
+        String[] models = args.length > 0 ? args : new String[]{"modelLeft.json", "left_hand_terrence_3.js"};
+        for (String model : models) {
+            HandModelImporter importer = HandModelImporter.create(model, false, false);
+            importer.readModel();
+            FlatMesh mesh = ((HandSkinningMesh)importer.getSkinningMeshView().getMesh()).getFlatMesh();
+            VertexNormals vertexNormals = mesh.getVertexNormals();
+            if(vertexNormals == null){
+                System.out.println("Error: model " + model + " has no normals");
+                continue;
+            }
+            int nJoints = 0;
+            for (int j : mesh.influenceJoints) {
+                nJoints = Math.max(nJoints, j + 1);
+            }
+            Random random = new Random(1);
+            double[] angles = new double[nJoints];
+            for (int j = 0; j < nJoints; j++) {
+                angles[j] = 0.3 * random.nextGaussian();
+            }
+            double[] palette = new double[12 * nJoints];
+            float[] skinned = new float[mesh.points.length];
+            float[] skinnedNormals = new float[3 * vertexNormals.getNumNormals()];
+            SmoothingGroupNormals groupNormals = new SmoothingGroupNormals(mesh);
+
+            long skin = 0, groups = 0, normals = 0;
+            for (int frame = -WARMUP; frame < FRAMES; frame++) {
+                for (int j = 0; j < nJoints; j++) {
+                    double a = angles[j] * Math.sin(0.01 * frame), c = Math.cos(a), s = Math.sin(a);
+                    palette[12 * j] = c; palette[12 * j + 1] = -s;
+                    palette[12 * j + 4] = s; palette[12 * j + 5] = c;
+                    palette[12 * j + 10] = 1;
+                }
+                long time = System.nanoTime();
+                mesh.skin(palette, skinned);
+                long time1 = System.nanoTime();
+                groupNormals.compute(skinned);
+                long time2 = System.nanoTime();
+                vertexNormals.skin(palette, skinnedNormals);
+                long time3 = System.nanoTime();
+                if(frame >= 0){
+                    skin += time1 - time;
+                    groups += time2 - time1;
+                    normals += time3 - time2;
+                }
+            }
+
+            // angle between both normals at every corner
+            int[] faces = vertexNormals.getFaces();
+            double angle = 0;
+            for (int v = 0; v < faces.length / 3; v++) {
+                int n = 3 * faces[3 * v + 1];
+                double cos = skinnedNormals[n] * groupNormals.normals[3 * v] +
+                        skinnedNormals[n + 1] * groupNormals.normals[3 * v + 1] +
+                        skinnedNormals[n + 2] * groupNormals.normals[3 * v + 2];
+                angle += Math.toDegrees(Math.acos(Math.max(-1d, Math.min(1d, cos))));
+            }
+            System.out.println(String.format("%s: points = %d, normals = %d, skin points = %.1f us, " +
+                    "smoothing group normals = %.1f us, skinned normals = %.1f us, average angle = %.1f degrees",
+                    model, mesh.getNumPoints(), vertexNormals.getNumNormals(), skin / 1000d / FRAMES,
+                    groups / 1000d / FRAMES, normals / 1000d / FRAMES, angle / (faces.length / 3)));
+        }
+    }
+
+    /*
+    Normal of every corner of every face: the sum of the normals of the faces
+    around its point that share a smoothing group with the face, normalized
+    */
+    private static final class SmoothingGroupNormals {
+
+        private final FlatMesh mesh;
+        private final int[] pointFaceStarts;
+        private final int[] pointFaces;
+        private final double[] faceNormals;
+        private final float[] normals;
+
+        private SmoothingGroupNormals(FlatMesh mesh){
+            this.mesh = mesh;
+            final int nFaces = mesh.getNumFaces(), nPoints = mesh.getNumPoints();
+            pointFaceStarts = new int[nPoints + 1];
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = 0; c < 3; c++) {
+                    pointFaceStarts[mesh.faces[FlatMesh.FACE_SIZE * f + 2 * c] + 1]++;
+                }
+            }
+            for (int p = 0; p < nPoints; p++) {
+                pointFaceStarts[p + 1] += pointFaceStarts[p];
+            }
+            pointFaces = new int[3 * nFaces];
+            int[] fill = pointFaceStarts.clone();
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = 0; c < 3; c++) {
+                    pointFaces[fill[mesh.faces[FlatMesh.FACE_SIZE * f + 2 * c]]++] = f;
+                }
+            }
+            faceNormals = new double[3 * nFaces];
+            normals = new float[9 * nFaces];
+        }
+
+        private void compute(float[] points){
+            final int nFaces = mesh.getNumFaces();
+            final int[] faces = mesh.faces;
+            for (int f = 0; f < nFaces; f++) {
+                int a = 3 * faces[FlatMesh.FACE_SIZE * f], b = 3 * faces[FlatMesh.FACE_SIZE * f + 2],
+                        c = 3 * faces[FlatMesh.FACE_SIZE * f + 4];
+                double ux = points[b] - points[a], uy = points[b + 1] - points[a + 1], uz = points[b + 2] - points[a + 2];
+                double vx = points[c] - points[a], vy = points[c + 1] - points[a + 1], vz = points[c + 2] - points[a + 2];
+                faceNormals[3 * f] = uy * vz - uz * vy;
+                faceNormals[3 * f + 1] = uz * vx - ux * vz;
+                faceNormals[3 * f + 2] = ux * vy - uy * vx;
+            }
+            final int[] groups = mesh.faceSmoothingGroups;
+            for (int f = 0; f < nFaces; f++) {
+                for (int c = 0; c < 3; c++) {
+                    int p = faces[FlatMesh.FACE_SIZE * f + 2 * c];
+                    double x = 0, y = 0, z = 0;
+                    for (int i = pointFaceStarts[p]; i < pointFaceStarts[p + 1]; i++) {
+                        int g = pointFaces[i];
+                        if(g == f || (groups[g] & groups[f]) != 0){
+                            x += faceNormals[3 * g];
+                            y += faceNormals[3 * g + 1];
+                            z += faceNormals[3 * g + 2];
+                        }
+                    }
+                    double length = Math.sqrt(x * x + y * y + z * z);
+                    if(length > 0d){
+                        x /= length; y /= length; z /= length;
+                    }
+                    normals[9 * f + 3 * c] = (float)x;
+                    normals[9 * f + 3 * c + 1] = (float)y;
+                    normals[9 * f + 3 * c + 2] = (float)z;
+                }
+            }
+        }
+    }
+}
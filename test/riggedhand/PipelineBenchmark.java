@@ -0,0 +1,86 @@
+package riggedhand;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import utils.HandPose;
+import utils.SyntheticPoseSource;
+
+/**
+ * Time per frame of the thread that plays the FX thread, with the skinning in
+ * the pulse and with the {@link SkinningPipeline}, driven by a
+ * {@link SyntheticPoseSource}. The main thread runs the pulses at the given
+ * rate, and the achievable refresh rate is the one its time per frame allows.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.PipelineBenchmark [--seconds=10]
+ * [--fps=60] [--left=left_hand_terrence_3.js] [--right=left_hand_terrence_3.js]
+ */
+public class PipelineBenchmark {
+
+    public static void main(String[] args) {
+        long seconds = 10;
+        double fps = 60;
+        String left = "left_hand_terrence_3.js", right = "left_hand_terrence_3.js";
+        for (String arg : args) {
+            String[] p = arg.replaceFirst("^--", "").split("=", 2);
+            switch(p[0]){
+                case "seconds": seconds = Long.parseLong(p[1]); break;
+                case "fps": fps = Double.parseDouble(p[1]); break;
+                case "left": left = p[1]; break;
+                case "right": right = p[1]; break;
+            }
+        }
+        HandAssetCache cache = new HandAssetCache(Long.MAX_VALUE);
+        HandRig rigLeft = new HandRig(cache.get(left).instantiate(false, false), 2);
+        HandRig rigRight = new HandRig(cache.get(right).instantiate(false, false), -2);
+        System.out.println("points = " + rigLeft.getMesh().getFlatMesh().getNumPoints() + " + " +
+                rigRight.getMesh().getFlatMesh().getNumPoints() + ", fps = " + fps);
+
+        for (boolean pipelined : new boolean[]{false, true}) {
+            SyntheticPoseSource source = new SyntheticPoseSource(0, 2 * fps);
+            source.start();
+            SkinningPipeline pipeline = null;
+            if(pipelined){
+                pipeline = new SkinningPipeline(source, rigLeft, rigRight);
+                pipeline.start();
+            }
+            HandPose poseLeft = new HandPose(false), poseRight = new HandPose(true);
+            final long period = (long)(1_000_000_000d / fps);
+            long[] times = new long[(int)(seconds * fps) + 1];
+            int n = 0;
+            long next = System.nanoTime();
+            final long end = next + seconds * 1_000_000_000L;
+            while(System.nanoTime() < end && n < times.length){
+                long time = System.nanoTime();
+                if(pipeline != null){
+                    pipeline.pulse();
+                } else {
+                    if(source.poll(false, poseLeft)){
+                        rigLeft.apply(poseLeft);
+                    }
+                    if(source.poll(true, poseRight)){
+                        rigRight.apply(poseRight);
+                    }
+                }
+                times[n++] = System.nanoTime() - time;
+                next += period;
+                long wait = next - System.nanoTime();
+                if(wait > 0){
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            source.close();
+            if(pipeline != null){
+                pipeline.close();
+            }
+            // skip the warm up
+            long[] sorted = Arrays.copyOfRange(times, n / 10, n);
+            Arrays.sort(sorted);
+            double mean = Arrays.stream(sorted).average().orElse(0d) / 1000d;
+            double p99 = sorted[(int)(sorted.length * 0.99)] / 1000d;
+            System.out.println(String.format("%-10s FX thread mean = %.1f us, p99 = %.1f us, up to %.0f Hz%s",
+                    pipelined ? "pipelined" : "in pulse", mean, p99, 1e6 / mean,
+                    pipeline != null ? ", " + pipeline : ""));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,113 @@
+package riggedhand;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import utils.HandPose;
+import utils.SyntheticPoseSource;
+
+/**
+ * Soak test of the pose and skinning path: a {@link SyntheticPoseSource}
+ * publishes jittery poses with dropouts at a high rate, and the main thread
+ * polls and skins both hands at a frame rate, for hours.
+ *
+ * Every window it collects the garbage and checks that the heap stays close to
+ * the one after the second window, and that the 99th percentile of the frame
+ * time stays close to the second one: the first window, with the JIT warming
+ * up, is only reported. Exits with 1 if any window fails.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.PoseSoak [--minutes=120] [--rate=1000]
+ * [--fps=120] [--seed=0] [--left=modelLeft.json] [--right=modelRight.json]
+ */
+public class PoseSoak {
+
+    private static final long WINDOW = 60_000_000_000L;   // ns
+    private static final long HEAP_SLACK = 4 << 20;
+    private static final double HEAP_GROWTH = 1.1d;
+    private static final double FRAME_GROWTH = 2d;
+    private static final long FRAME_SLACK = 500_000L;      // ns
+
+    public static void main(String[] args) {
+        Map<String,String> params = new HashMap<>();
+        for (String arg : args) {
+            String[] p = arg.replaceFirst("^--", "").split("=", 2);
+            params.put(p[0], p.length > 1 ? p[1] : "");
+        }
+        long minutes = Long.parseLong(params.getOrDefault("minutes", "120"));
+        double rate = Double.parseDouble(params.getOrDefault("rate", "1000"));
+        double fps = Double.parseDouble(params.getOrDefault("fps", "120"));
+        long seed = Long.parseLong(params.getOrDefault("seed", "0"));
+
+        HandModelImporter handLeft = HandModelImporter.create(params.getOrDefault("left", "modelLeft.json"), false, false);
+        handLeft.readModel();
+        HandModelImporter handRight = HandModelImporter.create(params.getOrDefault("right", "modelRight.json"), false, false);
+        handRight.readModel();
+        HandRig rigLeft = new HandRig(handLeft, 2);
+        HandRig rigRight = new HandRig(handRight, -2);
+        HandPose poseLeft = new HandPose(false);
+        HandPose poseRight = new HandPose(true);
+
+        SyntheticPoseSource source = new SyntheticPoseSource(seed, rate);
+        source.setJitter(1d, 0.5d);
+        source.setDropout(0.002d, 30);
+        source.start();
+        System.out.println("Soak " + minutes + " min, " + source + ", fps = " + fps);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final long period = (long)(1_000_000_000d / fps);
+        long[] frameTimes = new long[(int)(WINDOW / period) + 1024];
+        long[] sorted = new long[frameTimes.length];
+        long baselineHeap = -1, baselineP99 = -1;
+        boolean failed = false;
+        long frames = 0;
+        int window = 0;
+        final long end = System.nanoTime() + minutes * 60_000_000_000L;
+        long next = System.nanoTime(), windowStart = next;
+        int n = 0;
+        while(System.nanoTime() < end){
+            long time = System.nanoTime();
+            if(source.poll(false, poseLeft)){
+                rigLeft.apply(poseLeft);
+            }
+            if(source.poll(true, poseRight)){
+                rigRight.apply(poseRight);
+            }
+            if(n < frameTimes.length){
+                frameTimes[n++] = System.nanoTime() - time;
+            }
+            frames++;
+            next += period;
+            long wait = next - System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            }
+            if(System.nanoTime() - windowStart < WINDOW){
+                continue;
+            }
+            System.gc();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            System.arraycopy(frameTimes, 0, sorted, 0, n);
+            Arrays.sort(sorted, 0, n);
+            long p50 = sorted[n / 2], p99 = sorted[(int)(n * 0.99)], max = sorted[n - 1];
+            if(window++ == 1){
+                baselineHeap = heap;
+                baselineP99 = p99;
+            }
+            boolean heapOk = baselineHeap < 0 || heap <= baselineHeap * HEAP_GROWTH + HEAP_SLACK;
+            boolean frameOk = baselineP99 < 0 || p99 <= baselineP99 * FRAME_GROWTH + FRAME_SLACK;
+            failed |= !heapOk || !frameOk;
+            System.out.println(String.format("frames = %d, heap = %d KB%s, frame p50 = %.3f ms, p99 = %.3f ms%s, max = %.3f ms, dropped = %d%s",
+                    frames, heap / 1024, heapOk ? "" : " (FAIL)", p50 / 1e6, p99 / 1e6, frameOk ? "" : " (FAIL)",
+                    max / 1e6, source.getFramesDropped(), baselineHeap < 0 ? " (warm-up)" : ""));
+            n = 0;
+            windowStart = System.nanoTime();
+            next = windowStart;
+        }
+        source.close();
+        System.out.println((failed ? "FAILED: " : "PASSED: ") + source);
+        System.exit(failed ? 1 : 0);
+    }
+}
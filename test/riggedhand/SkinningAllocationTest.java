@@ -0,0 +1,67 @@
+package riggedhand;
+
+import java.util.Random;
+import org.junit.Test;
+import utils.HandPose;
+import utils.SyntheticPoseSource;
+import static utils.AllocationBudget.assertBudget;
+
+/**
+ * Allocations per frame of the skinning stages, with a new pose from a
+ * {@link SyntheticPoseSource} every frame
+ */
+public class SkinningAllocationTest {
+
+    private static final String MODEL = "modelLeft.json";
+
+    /*
+    Joints, morph targets, skinning and refit of the hierarchy
+    */
+    @Test
+    public void apply() {
+        HandModelImporter importer = HandModelImporter.create(MODEL, false, false);
+        importer.readModel();
+        HandRig rig = new HandRig(importer, 2);
+        rig.getMesh().getBvh();
+        SyntheticPoseSource source = new SyntheticPoseSource(0, 1000);
+        source.setJitter(1d, 0.5d);
+        HandPose pose = new HandPose(false);
+        assertBudget("apply", 0, frame -> {
+            source.generate(frame);
+            source.poll(false, pose);
+            rig.apply(pose);
+        });
+    }
+
+    /*
+    Blending the morph targets and skinning the flat mesh
+    */
+    @Test
+    public void skin() {
+        HandModelImporter importer = HandModelImporter.create(MODEL, false, false);
+        importer.readModel();
+        FlatMesh mesh = ((HandSkinningMesh)importer.getSkinningMeshView().getMesh()).getFlatMesh();
+        int nJoints = 0;
+        for (int j : mesh.influenceJoints) {
+            nJoints = Math.max(nJoints, j + 1);
+        }
+        MorphTargets morphTargets = MorphBenchmark.creases(mesh, nJoints, 4);
+        double[] palette = new double[12 * nJoints];
+        Random random = new Random(1);
+        for (int j = 0; j < nJoints; j++) {
+            double a = 0.3 * random.nextGaussian(), c = Math.cos(a), s = Math.sin(a);
+            palette[12 * j] = c; palette[12 * j + 1] = -s;
+            palette[12 * j + 4] = s; palette[12 * j + 5] = c;
+            palette[12 * j + 10] = 1;
+        }
+        float[] blended = mesh.points.clone();
+        float[] skinned = new float[mesh.points.length];
+        assertBudget("skin", 0, frame -> {
+            for (int t = 0; t < morphTargets.getNumTargets(); t++) {
+                morphTargets.setWeight(t, 0.5f + 0.5f * (float)Math.sin(0.01 * frame + t));
+            }
+            morphTargets.blend(mesh.points, blended);
+            mesh.skin(blended, palette, skinned);
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package riggedhand;
+
+import java.util.Random;
+
+/**
+ * Cost of subdividing skinned hands with {@link SubdivisionStencils}, levels 0,
+ * 1 and 2: building the stencils once, and per frame skinning the cage and
+ * applying the stencils, in the calling thread and in parallel chunks.
+ * For comparison, it also skins a dense model without subdivision.
+ *
+ * Usage: java -cp dist/RiggedHand.jar:build/test/classes riggedhand.SubdivisionBenchmark [model] [dense model]
+ */
+public class SubdivisionBenchmark {
+
+    private static final int WARMUP = 500;
+    private static final int FRAMES = 2_000;
+    private static final int[] LEVELS = {0, 1, 2};
+
+    public static void main(String[] args) {
+        FlatMesh mesh = read(args.length > 0 ? args[0] : "modelLeft.json");
+        FlatMesh dense = read(args.length > 1 ? args[1] : "left_hand_terrence_3.js");
+
+        System.out.println(String.format("dense model: points = %d, triangles = %d, skin = %.1f us",
+                dense.getNumPoints(), dense.getNumFaces(), skin(dense, null)));
+        for (int level : LEVELS) {
+            if(level == 0){
+                System.out.println(String.format("level 0: points = %d, triangles = %d, skin = %.1f us",
+                        mesh.getNumPoints(), mesh.getNumFaces(), skin(mesh, null)));
+                continue;
+            }
+            long time = System.nanoTime();
+            SubdivisionStencils stencils = mesh.getSubdivision(level);
+            double build = (System.nanoTime() - time) / 1e6;
+            float[] target = new float[3 * stencils.getNumPoints()];
+            double serial = skin(mesh, cage -> stencils.apply(cage, target));
+            SubdivisionStencils.Evaluator evaluator = stencils.createEvaluator(target);
+            double parallel = skin(mesh, cage -> evaluator.apply(cage));
+            System.out.println(String.format("level %d: points = %d, triangles = %d, weights/point = %.1f, " +
+                    "build = %.0f ms, %d KB, skin + stencils = %.1f us, in %d chunks = %.1f us",
+                    level, stencils.getNumPoints(), stencils.getNumFaces(),
+                    (double)stencils.getNumWeights() / stencils.getNumPoints(), build,
+                    stencils.estimateBytes() / 1024, serial, evaluator.getNumChunks(), parallel));
+        }
+    }
+
+    private interface Subdivide {
+        void run(float[] cage);
+    }
+
+    private static FlatMesh read(String model){
+        HandModelImporter importer = HandModelImporter.create(model, false, false);
+        importer.readModel();
+        return ((HandSkinningMesh)importer.getSkinningMeshView().getMesh()).getFlatMesh();
+    }
+
+    /*
+    Average time per frame of skinning the mesh with a moving palette and
+    subdividing it, in microseconds
+    */
+    private static double skin(FlatMesh mesh, Subdivide subdivide){
+        int nJoints = 0;
+        for (int j : mesh.influenceJoints) {
+            nJoints = Math.max(nJoints, j + 1);
+        }
+        Random random = new Random(1);
+        double[] angles = new double[nJoints];
+        for (int j = 0; j < nJoints; j++) {
+            angles[j] = 0.3 * random.nextGaussian();
+        }
+        double[] palette = new double[12 * nJoints];
+        float[] skinned = new float[mesh.points.length];
+        long total = 0;
+        for (int frame = -WARMUP; frame < FRAMES; frame++) {
+            for (int j = 0; j < nJoints; j++) {
+                double a = angles[j] * Math.sin(0.01 * frame), c = Math.cos(a), s = Math.sin(a);
+                palette[12 * j] = c; palette[12 * j + 1] = -s;
+                palette[12 * j + 4] = s; palette[12 * j + 5] = c;
+                palette[12 * j + 10] = 1;
+            }
+            long time = System.nanoTime();
+            mesh.skin(palette, skinned);
+            if(subdivide != null){
+                subdivide.run(skinned);
+            }
+            if(frame >= 0){
+                total += System.nanoTime() - time;
+            }
+        }
+        return total / 1000d / FRAMES;
+    }
+}
@@ -0,0 +1,72 @@
+package riggedhand;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ray picking with {@link TriangleBvh} on a grid of quads in the plane z = 0,
+ * from (0, 0) to (SIZE, SIZE)
+ */
+public class TriangleBvhTest {
+
+    private static final int SIZE = 4;
+
+    private final TriangleBvh bvh = grid();
+
+    @Test
+    public void hitsInside() {
+        assertHit(1.5, 2.5, -1, 0, 0, 1, 1);
+        assertHit(1.5, 2.5, 3, 0.1, -0.2, -1, 3);
+    }
+
+    /*
+    Axis parallel rays from the planes of the boxes gave 0 * Infinity = NaN,
+    that was taken as a miss
+    */
+    @Test
+    public void hitsFromThePlanesOfTheBoxes() {
+        assertHit(1.5, 0, -1, 0, 0, 1, 1);
+        assertHit(0, 1.5, -1, 0, 0, 1, 1);
+        assertHit(SIZE, SIZE, 2, 0, 0, -1, 2);
+        assertHit(2, 1.5, -1, 0, 0, 2, 0.5);
+    }
+
+    @Test
+    public void missesOutside() {
+        assertEquals(-1, bvh.intersectRay(SIZE + 1, 1.5, -1, 0, 0, 1, null));
+        assertEquals(-1, bvh.intersectRay(1.5, -1e-6, -1, 0, 0, 1, null));
+        assertEquals(-1, bvh.intersectRay(1.5, 1.5, 1, 0, 0, 1, null));
+        assertEquals(-1, bvh.intersectRay(-1, 1.5, 1, 1, 0, 0, null));
+    }
+
+    private void assertHit(double ox, double oy, double oz, double dx, double dy, double dz, double distance){
+        double[] result = new double[3];
+        int face = bvh.intersectRay(ox, oy, oz, dx, dy, dz, result);
+        assertTrue("face hit", face >= 0);
+        assertEquals("distance", distance, result[0], 1e-9);
+    }
+
+    private static TriangleBvh grid(){
+        float[] points = new float[3 * (SIZE + 1) * (SIZE + 1)];
+        for (int y = 0; y <= SIZE; y++) {
+            for (int x = 0; x <= SIZE; x++) {
+                int p = 3 * (y * (SIZE + 1) + x);
+                points[p] = x;
+                points[p + 1] = y;
+            }
+        }
+        int[] faces = new int[FlatMesh.FACE_SIZE * 2 * SIZE * SIZE];
+        int f = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int p = y * (SIZE + 1) + x;
+                for (int q : new int[]{p, p + 1, p + SIZE + 2, p, p + SIZE + 2, p + SIZE + 1}) {
+                    faces[f] = q;
+                    f += 2;
+                }
+            }
+        }
+        return new TriangleBvh(faces, points);
+    }
+}
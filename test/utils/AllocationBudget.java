@@ -0,0 +1,49 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongConsumer;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated per frame by a stage of the tracking and skinning path,
+ * measured with the allocation counter of the thread, against a budget, so
+ * allocations can't come back once a stage is at zero.
+ *
+ * Stages are measured after a warm up, as the JIT compiler removes some
+ * allocations and that is what long sessions run.
+ */
+public final class AllocationBudget {
+
+    public static final int WARMUP = 20_000;
+    public static final int FRAMES = 20_000;
+
+    private AllocationBudget() {
+    }
+
+    /**
+     * @param name name of the stage, for the report
+     * @param budget bytes per frame
+     * @param stage runs a frame, from its number
+     */
+    public static void assertBudget(String name, long budget, LongConsumer stage){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue("allocated bytes per thread", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long thread = Thread.currentThread().getId();
+        // cost of reading the counter, in case it allocates
+        long overhead = threads.getThreadAllocatedBytes(thread);
+        overhead = threads.getThreadAllocatedBytes(thread) - overhead;
+
+        for (int frame = 0; frame < WARMUP; frame++) {
+            stage.accept(frame);
+        }
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        for (int frame = WARMUP; frame < WARMUP + FRAMES; frame++) {
+            stage.accept(frame);
+        }
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes - overhead;
+        System.out.println(String.format("%-10s %10.1f bytes/frame, budget %d", name, (double)bytes / FRAMES, budget));
+        assertTrue(name + " over its budget of " + budget + " bytes/frame", bytes <= budget * FRAMES);
+    }
+}
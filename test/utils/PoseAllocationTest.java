@@ -0,0 +1,62 @@
+package utils;
+
+import org.junit.Test;
+import static utils.AllocationBudget.assertBudget;
+
+/**
+ * Allocations per frame of the tracking stages, with hands from a
+ * {@link SyntheticPoseSource}: onFrame, but reading the Leap Motion objects,
+ * that need the device, the source and the {@link PoseGate}
+ */
+public class PoseAllocationTest {
+
+    @Test
+    public void onFrame() {
+        SyntheticPoseSource source = new SyntheticPoseSource(0, 1000);
+        source.setJitter(1d, 0.5d);
+        HandPose pose = new HandPose(false);
+        LeapListener.HandSmoothing hand = new LeapListener.HandSmoothing(false);
+        assertBudget("onFrame", 0, frame -> {
+            source.pose(frame, false, pose);
+            hand.clearBones();
+            float[] rotations = pose.getRotations();
+            for (int f = 0; f < HandPose.FINGERS; f++) {
+                // bones curled in the plane YZ by the angles of the pose
+                double angle = 0d;
+                for (int b = 0; b < LeapListener.HandSmoothing.BONES; b++) {
+                    if(b > 0){
+                        angle += 2d * Math.acos(Math.min(1d, rotations[4 * HandPose.jointIndex(f, b - 1) + 3]));
+                    }
+                    hand.setBone(f, b, 0f, (float)-Math.sin(angle), (float)-Math.cos(angle));
+                }
+            }
+            float[] position = pose.getPosition();
+            hand.smooth(position[0], position[1], position[2], 0.1d * Math.sin(0.01d * frame),
+                    0.2d * Math.cos(0.01d * frame), 0.3d * Math.sin(0.02d * frame));
+            hand.publishPose(frame + 1, frame);
+        });
+    }
+
+    @Test
+    public void source() {
+        SyntheticPoseSource source = new SyntheticPoseSource(0, 1000);
+        source.setJitter(1d, 0.5d);
+        HandPose pose = new HandPose(false);
+        assertBudget("source", 0, frame -> {
+            source.generate(frame);
+            source.poll(false, pose);
+        });
+    }
+
+    @Test
+    public void gate() {
+        SyntheticPoseSource source = new SyntheticPoseSource(1, 1000);
+        source.setJitter(1d, 0.5d);
+        PoseGate gate = new PoseGate(source);
+        HandPose pose = new HandPose(false);
+        assertBudget("gate", 0, frame -> {
+            source.generate(frame);
+            gate.poll(false, pose);
+        });
+    }
+}
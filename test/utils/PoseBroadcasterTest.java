@@ -0,0 +1,127 @@
+package utils;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PoseBroadcaster} to {@link RemotePoseSource} over loopback, fed by a
+ * {@link SyntheticPoseSource} at the rate of the Leap Motion service.
+ *
+ * Reports bandwidth, packet rate and end to end latency, from the timestamp of
+ * the pose to its decoding (both ends share the clock of System.nanoTime()).
+ */
+public class PoseBroadcasterTest {
+
+    private static final double RATE = 120d;
+    private static final int FRAMES = 360;
+    private static final long SUBSCRIBE_TIMEOUT = 5_000_000_000L;   // ns
+
+    private PoseBroadcaster broadcaster;
+    private RemotePoseSource remote;
+
+    @Before
+    public void setUp() throws IOException {
+        broadcaster = new PoseBroadcaster(0);
+        remote = new RemotePoseSource("127.0.0.1", broadcaster.getPort());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        remote.close();
+        broadcaster.close();
+    }
+
+    @Test
+    public void movingHands() throws IOException {
+        stream("moving", false);
+    }
+
+    @Test
+    public void restingHands() throws IOException {
+        stream("resting", true);
+    }
+
+    /*
+    Before this was per hand, the keyframe forced by a new viewer went to the
+    hand published next, and the other one couldn't be decoded until its
+    next periodic keyframe
+    */
+    @Test
+    public void newSubscriberDecodesBothHands() throws IOException {
+        SyntheticPoseSource source = new SyntheticPoseSource(2, RATE);
+        long frame = subscribe(source, 1, 0);
+        for (long end = frame + 10; frame < end; frame++) {
+            publish(source, frame);
+        }
+        try (RemotePoseSource late = new RemotePoseSource("127.0.0.1", broadcaster.getPort())) {
+            frame = subscribe(source, 2, frame);
+            for (long end = frame + 2; frame < end; frame++) {
+                publish(source, frame);
+            }
+            LockSupport.parkNanos(100_000_000L);
+            assertTrue("left hand decoded", late.poll(false, new HandPose(false)));
+            assertTrue("right hand decoded", late.poll(true, new HandPose(true)));
+        }
+    }
+
+    private void stream(String name, boolean resting) throws IOException {
+        SyntheticPoseSource source = new SyntheticPoseSource(1, RATE);
+        long frame = subscribe(source, 1, 0);
+        long packets = broadcaster.getPacketsSent(), bytes = broadcaster.getBytesSent();
+        long received = remote.getPacketsReceived();
+        final long period = (long)(1e9 / RATE);
+        final long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            LockSupport.parkNanos(start + i * period - System.nanoTime());
+            publish(source, resting ? 0 : frame++);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        LockSupport.parkNanos(100_000_000L);
+
+        packets = broadcaster.getPacketsSent() - packets;
+        bytes = broadcaster.getBytesSent() - bytes;
+        received = remote.getPacketsReceived() - received;
+        System.out.println(String.format("%s hands over loopback: %.0f packets/s, %.0f bytes/s, %.1f bytes/packet, " +
+                "received %d of %d, dropped %d, latency %.0f us (max %d us)", name, packets / seconds, bytes / seconds,
+                (double)bytes / packets, received, packets, remote.getPacketsDropped(), remote.getAverageLatency(),
+                remote.getMaxLatency()));
+
+        assertTrue("packets sent", packets == 2 * FRAMES);
+        assertTrue("packets received", received >= 0.95d * packets);
+        assertTrue("tens of bytes per hand", bytes < 100 * packets);
+        if(resting){
+            assertTrue("resting hands send deltas of the header and empty masks", bytes < 16 * packets + 200);
+        }
+        assertTrue("decoded", remote.poll(false, new HandPose(false)) && remote.poll(true, new HandPose(true)));
+    }
+
+    /*
+    Publishes frames until the broadcaster has the given subscribers, that
+    send their first datagram when created
+    */
+    private long subscribe(SyntheticPoseSource source, int subscribers, long frame){
+        final long deadline = System.nanoTime() + SUBSCRIBE_TIMEOUT;
+        while(broadcaster.getSubscribers() < subscribers){
+            assertTrue("subscribed", System.nanoTime() < deadline);
+            publish(source, frame++);
+            LockSupport.parkNanos(1_000_000L);
+        }
+        return frame;
+    }
+
+    /*
+    Frame 0 again is a resting hand: same pose, new sequence and timestamp
+    */
+    private void publish(SyntheticPoseSource source, long frame){
+        source.generate(frame);
+        for (boolean right : new boolean[]{false, true}) {
+            HandPose pose = new HandPose(right);
+            source.poll(right, pose);
+            broadcaster.publish(pose);
+        }
+    }
+}
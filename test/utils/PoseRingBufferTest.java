@@ -0,0 +1,153 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PoseRingBuffer} between a {@link PoseProducer} process publishing
+ * synthetic hands at 1 kHz and a {@link SharedMemoryPoseSource} in this one.
+ *
+ * Reports the read latency, from the pose timestamp to its read (both
+ * processes share the monotonic clock of System.nanoTime() on Linux), torn
+ * reads and overruns, and checks every pose read against the one published.
+ */
+public class PoseRingBufferTest {
+
+    private static final double RATE = 1000d;
+    private static final long SECONDS = 3;
+    private static final long POLL = 100_000L;              // ns between polls
+    private static final long START_TIMEOUT = 10_000L;      // ms
+
+    private File path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("poses", ".ring");
+    }
+
+    @After
+    public void tearDown() {
+        path.delete();
+    }
+
+    @Test
+    public void twoProcesses() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process producer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "utils.PoseProducer", path.getPath(), "--synthetic=" + RATE)
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try (SharedMemoryPoseSource source = open()) {
+            SyntheticPoseSource expected = new SyntheticPoseSource(0, RATE);
+            HandPose[] poses = {new HandPose(false), new HandPose(true)};
+            HandPose published = new HandPose(true);
+            long[] first = {-1, -1};
+            final long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(SECONDS);
+            while(System.nanoTime() < end){
+                for (int h = 0; h < 2; h++) {
+                    if(source.poll(h == 1, poses[h])){
+                        if(first[h] < 0){
+                            first[h] = poses[h].getSequence();
+                        }
+                        expected.pose(poses[h].getSequence() - 1, h == 1, published);
+                        assertArrayEquals("position", published.getPosition(), poses[h].getPosition(), 0f);
+                        assertArrayEquals("palm", published.getPalmRotation(), poses[h].getPalmRotation(), 0f);
+                        assertArrayEquals("joints", published.getRotations(), poses[h].getRotations(), 0f);
+                    }
+                }
+                LockSupport.parkNanos(POLL);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            long published0 = poses[0].getSequence() - first[0] + 1, published1 = poses[1].getSequence() - first[1] + 1;
+            System.out.println(String.format("two processes at %.0f Hz: %d records inspected, %.0f poses/s read, " +
+                    "latency %.0f us (max %d us), %d torn reads, %d overruns, frames published left %d, right %d",
+                    RATE, source.getRecordsRead(), source.getPosesRead() / seconds, source.getAverageLatency(),
+                    source.getMaxLatency(), source.getTornReads(), source.getOverruns(), published0, published1));
+
+            assertTrue("poses read", first[0] > 0 && first[1] > 0);
+            assertTrue("most frames read", source.getPosesRead() > 0.5d * (published0 + published1));
+        } finally {
+            producer.destroy();
+            producer.waitFor();
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedRing() throws IOException {
+        new PoseRingBuffer(path, 16).close();
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertOpenFails();
+    }
+
+    @Test
+    public void rejectsForeignFile() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            for (int i = 0; i < 4096; i++) {
+                file.writeInt(0x12345678 + i);
+            }
+        }
+        assertOpenFails();
+        try {
+            new PoseRingBuffer(path, 16).close();
+            fail("a producer initialized a foreign file");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertEquals("foreign file untouched", 4 * 4096, path.length());
+    }
+
+    @Test
+    public void waitsForTheProducer() throws IOException {
+        // created, but not initialized yet
+        assertOpenFails();
+        PoseRingBuffer producer = new PoseRingBuffer(path, 16);
+        try {
+            try {
+                new PoseRingBuffer(path, 16).close();
+                fail("two producers");
+            } catch (IOException ex) {
+                // expected
+            }
+            new PoseRingBuffer(path).close();
+        } finally {
+            producer.close();
+        }
+    }
+
+    private void assertOpenFails(){
+        try {
+            new PoseRingBuffer(path).close();
+            fail("opened " + path);
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    /*
+    The producer process creates the ring
+    */
+    private SharedMemoryPoseSource open() throws IOException {
+        final long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while(true){
+            try {
+                return new SharedMemoryPoseSource(path);
+            } catch (IOException ex) {
+                if(System.currentTimeMillis() > deadline){
+                    throw ex;
+                }
+                LockSupport.parkNanos(10_000_000L);
+            }
+        }
+    }
+}